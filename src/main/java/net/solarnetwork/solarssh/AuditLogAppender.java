@@ -0,0 +1,63 @@
+/* ==================================================================
+ * AuditLogAppender.java - 17/10/2026 9:12:41 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+
+/**
+ * Rolling file appender for audit events that can be flushed on demand.
+ * 
+ * <p>
+ * This appender is meant to be configured with {@code immediateFlush} set to {@literal false}, so
+ * a batch of audit events is written before {@link #flush()} is called once for the whole batch.
+ * The flush is performed while holding the appender's stream lock, so it does not interleave with
+ * writes or a rollover.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class AuditLogAppender extends RollingFileAppender<ILoggingEvent> {
+
+  /**
+   * Flush any buffered output to the current log file.
+   */
+  public void flush() {
+    streamWriteLock.lock();
+    try {
+      OutputStream out = getOutputStream();
+      if (isStarted() && out != null) {
+        out.flush();
+      }
+    } catch (IOException e) {
+      addError("Failed to flush audit log", e);
+    } finally {
+      streamWriteLock.unlock();
+    }
+  }
+
+}
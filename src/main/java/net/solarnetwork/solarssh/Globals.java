@@ -17,20 +17,25 @@
 
 package net.solarnetwork.solarssh;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.apache.sshd.common.session.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import net.solarnetwork.codec.JsonUtils;
 import net.solarnetwork.solarssh.domain.SshSession;
 
 /**
  * Some global references for the project.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.2
  */
 public final class Globals {
 
@@ -42,6 +47,8 @@ public final class Globals {
    */
   public static final String DEFAULT_SN_HOST = "data.solarnetwork.net";
 
+  private static volatile Consumer<Map<String, Object>> auditEventHandler;
+
   private Globals() {
     // can't construct me
   }
@@ -64,7 +71,7 @@ public final class Globals {
     if (sess != null) {
       map = sess.auditEventMap(eventName);
     } else {
-      map = new LinkedHashMap<>(8);
+      map = new LinkedHashMap<>(16);
       map.put("sessionId", sessionId);
       map.put("event", eventName);
     }
@@ -87,7 +94,7 @@ public final class Globals {
    * @return the map, never {@literal null}
    */
   public static Map<String, Object> auditEventMap(String sessionId, String eventName) {
-    Map<String, Object> map = new LinkedHashMap<>(8);
+    Map<String, Object> map = new LinkedHashMap<>(16);
     map.put("sessionId", sessionId);
     map.put("event", eventName);
     long now = System.currentTimeMillis();
@@ -95,4 +102,71 @@ public final class Globals {
     return map;
   }
 
+  /**
+   * Log an audit event.
+   * 
+   * <p>
+   * The event is passed to the configured audit event handler, or written with
+   * {@link #writeAuditEvent(Map)} if no handler is configured.
+   * </p>
+   * 
+   * @param event
+   *        the event properties
+   * @since 1.1
+   */
+  public static void logAuditEvent(Map<String, Object> event) {
+    final Consumer<Map<String, Object>> handler = auditEventHandler;
+    if (handler != null) {
+      handler.accept(event);
+    } else {
+      writeAuditEvent(event);
+    }
+  }
+
+  /**
+   * Write an audit event to {@link #AUDIT_LOG} as JSON on the calling thread, and flush the log.
+   * 
+   * @param event
+   *        the event properties
+   * @since 1.1
+   */
+  public static void writeAuditEvent(Map<String, Object> event) {
+    AUDIT_LOG.info(JsonUtils.getJSONString(event, "{}"));
+    flushAuditLog();
+  }
+
+  /**
+   * Flush any buffered output of the {@link #AUDIT_LOG} appenders.
+   * 
+   * <p>
+   * The audit log is expected to use an {@link AuditLogAppender} that is not configured to flush
+   * after each event, so that many events can be written together before flushing. Other appenders
+   * are not flushed.
+   * </p>
+   * 
+   * @since 1.1
+   */
+  public static void flushAuditLog() {
+    if (!(AUDIT_LOG instanceof ch.qos.logback.classic.Logger logger)) {
+      return;
+    }
+    for (Iterator<Appender<ILoggingEvent>> itr = logger.iteratorForAppenders(); itr.hasNext();) {
+      if (itr.next() instanceof AuditLogAppender appender) {
+        appender.flush();
+      }
+    }
+  }
+
+  /**
+   * Set the audit event handler.
+   * 
+   * @param handler
+   *        the handler to pass events to, or {@literal null} to write events with
+   *        {@link #writeAuditEvent(Map)}
+   * @since 1.1
+   */
+  public static void setAuditEventHandler(Consumer<Map<String, Object>> handler) {
+    auditEventHandler = handler;
+  }
+
 }
@@ -17,7 +17,6 @@
 
 package net.solarnetwork.solarssh.config;
 
-import java.net.InetAddress;
 import java.nio.file.Path;
 import java.util.concurrent.TimeUnit;
 
@@ -25,16 +24,17 @@ import javax.cache.Cache;
 import javax.cache.CacheManager;
 import javax.cache.Caching;
 import javax.cache.configuration.MutableConfiguration;
-import javax.cache.expiry.CreatedExpiryPolicy;
 import javax.cache.expiry.Duration;
+import javax.cache.expiry.ModifiedExpiryPolicy;
 import javax.cache.spi.CachingProvider;
 
 import org.ehcache.config.CacheConfiguration;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheEventListenerConfigurationBuilder;
 import org.ehcache.config.builders.ExpiryPolicyBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
-import org.ehcache.config.units.MemoryUnit;
 import org.ehcache.core.config.DefaultConfiguration;
+import org.ehcache.event.EventType;
 import org.ehcache.impl.config.persistence.DefaultPersistenceConfiguration;
 import org.ehcache.jsr107.Eh107Configuration;
 import org.ehcache.jsr107.EhcacheCachingProvider;
@@ -46,12 +46,15 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 
 import net.solarnetwork.solarssh.domain.Actor;
+import net.solarnetwork.solarssh.domain.SnTokenDetails;
+import net.solarnetwork.solarssh.impl.CacheEntryCounter;
+import net.solarnetwork.solarssh.impl.InMemoryBruteForceDenyList;
 
 /**
  * Configuration for application-level caching.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.4
  */
 @Configuration
 @EnableCaching
@@ -62,17 +65,40 @@ public class CacheConfig {
    */
   public static final String ACTOR_CACHE_NAME = "Actor";
 
+  /**
+   * A cache name to use for verified token details.
+   * 
+   * @since 1.2
+   */
+  public static final String TOKEN_VERIFICATION_CACHE_NAME = "TokenVerification";
+
+  /**
+   * A cache name to use for failed actor authentication results.
+   * 
+   * @since 1.2
+   */
+  public static final String ACTOR_NEGATIVE_CACHE_NAME = "ActorNegative";
+
   @Value("${cache.actor.ttl:900}")
   private int actorCacheSeconds = 900;
 
+  @Value("${cache.tokenVerification.ttl:60}")
+  private int tokenVerificationCacheSeconds = 60;
+
+  @Value("${cache.tokenVerification.maxEntries:10000}")
+  private int tokenVerificationCacheMaxEntries = 10000;
+
+  @Value("${cache.actorNegative.ttl:30}")
+  private int actorNegativeCacheSeconds = 30;
+
+  @Value("${cache.actorNegative.maxEntries:10000}")
+  private int actorNegativeCacheMaxEntries = 10000;
+
   @Value("${cache.bruteForceDeny.ttl:24}")
   private int bruteForceDenyCacheHours = 24;
 
-  @Value("${cache.bruteForceDeny.maxRamEntries:5000}")
-  private int bruteForceDenyCacheMaxRamEntries = 5000;
-
-  @Value("${cache.bruteForceDeny.maxDiskMb:100}")
-  private int bruteForceDenyCacheMaxDiskMb = 100;
+  @Value("${cache.bruteForceDeny.maxEntries:100000}")
+  private int bruteForceDenyCacheMaxEntries = 100000;
 
   @Value("${app.cache.persistence.path}")
   private Path persistencePath;
@@ -111,39 +137,123 @@ public class CacheConfig {
   // CHECKSTYLE IGNORE LineLength FOR NEXT 1 LINE
   private javax.cache.configuration.Configuration<String, Actor> actorCacheConfiguration() {
     MutableConfiguration<String, Actor> conf = new MutableConfiguration<>();
+    // expire relative to last update, so refreshed entries get a full TTL
     conf.setExpiryPolicyFactory(
-        CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.SECONDS, actorCacheSeconds)));
+        ModifiedExpiryPolicy.factoryOf(new Duration(TimeUnit.SECONDS, actorCacheSeconds)));
     conf.setStoreByValue(false);
     return conf;
   }
 
   /**
-   * The brute-force mitigation deny list.
+   * Get the verified token cache.
    * 
-   * @return the cache
+   * @param cacheManager
+   *        the cache manager
+   * @return the token verification cache
+   * @since 1.2
    */
   @Bean
-  @Qualifier("brute-force-deny-list")
+  @Qualifier("token-verification")
   @Profile("!default")
-  public Cache<InetAddress, Byte> bruteForceDenyListCache(CacheManager cacheManager) {
-    if (cacheManager == null) {
-      return null;
-    }
-    return cacheManager.createCache("brute-force-deny-list",
-        bruteForceDenyListCacheConfiguration());
+  public Cache<String, SnTokenDetails> tokenVerificationCache(CacheManager cacheManager) {
+    return cacheManager.createCache(TOKEN_VERIFICATION_CACHE_NAME,
+        tokenVerificationCacheConfiguration());
   }
 
   // CHECKSTYLE OFF: LineLength
-  private javax.cache.configuration.Configuration<InetAddress, Byte> bruteForceDenyListCacheConfiguration() {
-    CacheConfiguration<InetAddress, Byte> conf = CacheConfigurationBuilder
-        .newCacheConfigurationBuilder(InetAddress.class, Byte.class,
-            ResourcePoolsBuilder.heap(bruteForceDenyCacheMaxRamEntries)
-                .disk(bruteForceDenyCacheMaxDiskMb, MemoryUnit.MB, true))
+  private javax.cache.configuration.Configuration<String, SnTokenDetails> tokenVerificationCacheConfiguration() {
+    CacheConfiguration<String, SnTokenDetails> conf = CacheConfigurationBuilder
+        .newCacheConfigurationBuilder(String.class, SnTokenDetails.class,
+            ResourcePoolsBuilder.heap(tokenVerificationCacheMaxEntries))
         .withExpiry(ExpiryPolicyBuilder
-            .timeToLiveExpiration(java.time.Duration.ofHours(bruteForceDenyCacheHours)))
+            .timeToLiveExpiration(java.time.Duration.ofSeconds(tokenVerificationCacheSeconds)))
+        .withService(entryCounterConfiguration(tokenVerificationCacheCounter()))
         .build();
     return Eh107Configuration.fromEhcacheCacheConfiguration(conf);
   }
   // CHECKSTYLE ON: LineLength
 
+  /**
+   * Get the negative actor result cache.
+   * 
+   * @param cacheManager
+   *        the cache manager
+   * @return the negative actor result cache
+   * @since 1.2
+   */
+  @Bean
+  @Qualifier("actor-negative")
+  @Profile("!default")
+  public Cache<String, Boolean> actorNegativeCache(CacheManager cacheManager) {
+    return cacheManager.createCache(ACTOR_NEGATIVE_CACHE_NAME, actorNegativeCacheConfiguration());
+  }
+
+  // CHECKSTYLE OFF: LineLength
+  private javax.cache.configuration.Configuration<String, Boolean> actorNegativeCacheConfiguration() {
+    CacheConfiguration<String, Boolean> conf = CacheConfigurationBuilder
+        .newCacheConfigurationBuilder(String.class, Boolean.class,
+            ResourcePoolsBuilder.heap(actorNegativeCacheMaxEntries))
+        .withExpiry(ExpiryPolicyBuilder
+            .timeToLiveExpiration(java.time.Duration.ofSeconds(actorNegativeCacheSeconds)))
+        .withService(entryCounterConfiguration(actorNegativeCacheCounter()))
+        .build();
+    return Eh107Configuration.fromEhcacheCacheConfiguration(conf);
+  }
+  // CHECKSTYLE ON: LineLength
+
+  /**
+   * Get the verified token cache entry counter.
+   * 
+   * @return the counter
+   * @since 1.4
+   */
+  @Bean
+  @Qualifier("token-verification")
+  @Profile("!default")
+  public CacheEntryCounter tokenVerificationCacheCounter() {
+    return new CacheEntryCounter();
+  }
+
+  /**
+   * Get the negative actor result cache entry counter.
+   * 
+   * @return the counter
+   * @since 1.4
+   */
+  @Bean
+  @Qualifier("actor-negative")
+  @Profile("!default")
+  public CacheEntryCounter actorNegativeCacheCounter() {
+    return new CacheEntryCounter();
+  }
+
+  private static CacheEventListenerConfigurationBuilder entryCounterConfiguration(
+      CacheEntryCounter counter) {
+    return CacheEventListenerConfigurationBuilder
+        .newEventListenerConfiguration(counter, EventType.CREATED, EventType.REMOVED,
+            EventType.EXPIRED, EventType.EVICTED)
+        .unordered().asynchronous();
+  }
+
+  /**
+   * The brute-force mitigation deny list.
+   * 
+   * <p>
+   * The counts are held in memory, and periodically saved to the cache persistence path so they
+   * survive restarts.
+   * </p>
+   * 
+   * @return the deny list
+   */
+  @Bean(initMethod = "init", destroyMethod = "destroy")
+  @Qualifier("brute-force-deny-list")
+  @Profile("!default")
+  public InMemoryBruteForceDenyList bruteForceDenyList() {
+    InMemoryBruteForceDenyList denyList = new InMemoryBruteForceDenyList();
+    denyList.setTtlSeconds(TimeUnit.HOURS.toSeconds(bruteForceDenyCacheHours));
+    denyList.setMaxEntries(bruteForceDenyCacheMaxEntries);
+    denyList.setSnapshotPath(persistencePath.resolve("brute-force-deny-list.dat"));
+    return denyList;
+  }
+
 }
@@ -22,14 +22,14 @@
 
 package net.solarnetwork.solarssh.config;
 
-import java.net.InetAddress;
 import java.net.URI;
 
-import javax.cache.Cache;
+import javax.sql.DataSource;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
@@ -38,19 +38,27 @@ import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import net.solarnetwork.solarssh.impl.AsyncAuditEventWriter;
+import net.solarnetwork.solarssh.impl.AsyncAuditEventWriter.OverflowPolicy;
+import net.solarnetwork.solarssh.impl.BitSetReversePortAllocator;
+import net.solarnetwork.solarssh.impl.ChannelInstrumentation;
 import net.solarnetwork.solarssh.impl.DefaultSolarNetClient;
 import net.solarnetwork.solarssh.impl.DefaultSolarSshService;
 import net.solarnetwork.solarssh.impl.DefaultSolarSshdDirectServer;
 import net.solarnetwork.solarssh.impl.DefaultSolarSshdServer;
+import net.solarnetwork.solarssh.impl.InMemoryBruteForceDenyList;
 import net.solarnetwork.solarssh.impl.JdbcActorDao;
-import net.solarnetwork.solarssh.service.SolarNetClient;
+import net.solarnetwork.solarssh.impl.PooledSolarNetClient;
+import net.solarnetwork.solarssh.impl.PostgresNotificationListener;
+import net.solarnetwork.solarssh.service.BruteForceDenyList;
 import net.solarnetwork.solarssh.service.SolarSshService;
 
 /**
  * Main service configuration.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.8
  */
 @Configuration
 @EnableScheduling
@@ -77,50 +85,152 @@ public class ServiceConfig {
   @Value("${ssh.reversePort.max:65000}")
   private int sshReversePortMax = 65000;
 
+  @Value("${ssh.reversePort.quarantineSeconds:60}")
+  private int sshReversePortQuarantineSeconds = 60;
+
+  @Value("${ssh.reversePort.verify:true}")
+  private boolean sshReversePortVerify = true;
+
+  @Value("${ssh.client.nioWorkers:0}")
+  private int sshClientNioWorkers = 0;
+
   @Value("${ssh.sessionExpireSeconds:300}")
   private int sessionExpireSeconds = 300;
 
   @Value("${solarnet.auth.timeoutSeconds:300}")
   private int authTimeoutSecs;
 
-  @Value("${solarnet.auth.instructionCompletedWaitMs:1000}")
-  private long instructionCompletedWaitMs = 1000L;
-
   @Value("${solarnet.auth.instructionIncompleteWaitMs:1000}")
   private long instructionIncompleteWaitMs = 1000L;
 
+  @Value("${solarnet.auth.nodeConnectThreads:4}")
+  private int nodeConnectThreads = 4;
+
+  @Value("${solarnet.auth.combinedQuery:false}")
+  private boolean authCombinedQuery = false;
+
+  @Value("${solarnet.auth.dbThreads:4}")
+  private int authDbThreads = 4;
+
+  @Value("${solarnet.auth.dbQueueSize:100}")
+  private int authDbQueueSize = 100;
+
   @Value("${solarnet.baseUrl:https://data.solarnetwork.net}")
   private String solarNetBaseUrl = "https://data.solarnetwork.net";
 
+  @Value("${solarnet.http.pooled:true}")
+  private boolean solarNetHttpPooled = true;
+
+  @Value("${solarnet.http.maxConcurrentRequests:32}")
+  private int solarNetHttpMaxConcurrentRequests = 32;
+
+  @Value("${solarnet.http.connectTimeoutSeconds:15}")
+  private int solarNetHttpConnectTimeoutSeconds = 15;
+
+  @Value("${solarnet.http.requestTimeoutSeconds:30}")
+  private int solarNetHttpRequestTimeoutSeconds = 30;
+
   @Value("${ssh.direct.port:9022}")
   private int sshDirectPort = 9022;
 
+  @Value("${ssh.direct.inProcessBridge:false}")
+  private boolean sshDirectInProcessBridge = false;
+
+  @Value("${ssh.channelStats.enabled:true}")
+  private boolean channelStatsEnabled = true;
+
+  @Value("${ssh.channelStats.nodeIdleSeconds:3600}")
+  private int channelStatsNodeIdleSeconds = 3600;
+
+  @Value("${cache.actor.refreshAheadRatio:0.75}")
+  private double actorCacheRefreshAheadRatio = 0.75;
+
+  @Value("${cache.actor.notifyChannel:}")
+  private String actorCacheNotifyChannel;
+
+  @Value("${audit.queueSize:4096}")
+  private int auditQueueSize = 4096;
+
+  @Value("${audit.batchSize:256}")
+  private int auditBatchSize = 256;
+
+  @Value("${audit.flushDelayMs:5}")
+  private long auditFlushDelayMs = 5L;
+
+  @Value("${audit.overflowPolicy:CALLER_RUNS}")
+  private OverflowPolicy auditOverflowPolicy = OverflowPolicy.CALLER_RUNS;
+
+  @Value("${audit.offerTimeoutMs:1000}")
+  private long auditOfferTimeoutMs = 1000L;
+
   @Autowired
   private JdbcOperations jdbcOps;
 
   @Autowired(required = false)
   @Qualifier("brute-force-deny-list")
-  private Cache<InetAddress, Byte> bruteForceDenyList;
+  private BruteForceDenyList bruteForceDenyList;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
 
   /**
    * Initialize the {@link SolarSshService} service.
    * 
    * @return the service
    */
-  @Bean(initMethod = "init")
+  @Bean(initMethod = "init", destroyMethod = "destroy")
   public DefaultSolarSshService solarSshService() {
     DefaultSolarSshService service = new DefaultSolarSshService(solarNetClient());
     service.setHost(sshHost);
     service.setPort(sshPort);
     service.setMinPort(sshReversePortMin);
     service.setMaxPort(sshReversePortMax);
+    service.setReversePortAllocator(reversePortAllocator());
     service.setSessionExpireSeconds(sessionExpireSeconds);
+    service.setClientNioWorkers(sshClientNioWorkers);
+    service.setMeterRegistry(meterRegistry);
     return service;
   }
 
-  @Scheduled(fixedDelayString = "${ssh.sessionExpireCleanupJobMs:60000}")
-  public void cleanupExpiredSessions() {
-    solarSshService().cleanupExpiredSessions();
+  /**
+   * Initialize the reverse SSH port allocator.
+   * 
+   * @return the allocator
+   */
+  @Bean
+  public BitSetReversePortAllocator reversePortAllocator() {
+    BitSetReversePortAllocator allocator = new BitSetReversePortAllocator(sshReversePortMin,
+        sshReversePortMax);
+    allocator.setQuarantineSeconds(sshReversePortQuarantineSeconds);
+    allocator.setVerifyPortsAvailable(sshReversePortVerify);
+    return allocator;
+  }
+
+  /**
+   * Periodically save the brute force deny list, so it survives restarts.
+   */
+  @Scheduled(fixedDelayString = "${cache.bruteForceDeny.snapshotMs:60000}")
+  public void snapshotBruteForceDenyList() {
+    if (bruteForceDenyList instanceof InMemoryBruteForceDenyList denyList) {
+      denyList.snapshot();
+    }
+  }
+
+  /**
+   * Periodically clean up actor cache refresh-ahead and token eviction tracking.
+   */
+  @Scheduled(fixedDelayString = "${cache.actor.cleanupJobMs:300000}")
+  public void cleanupActorCache() {
+    actorDao().cleanupRefreshAheadTracking();
+    actorDao().cleanupTokenGenerations();
+  }
+
+  /**
+   * Periodically remove channel statistics for idle nodes.
+   */
+  @Scheduled(fixedDelayString = "${ssh.channelStats.cleanupJobMs:300000}")
+  public void cleanupChannelStatistics() {
+    channelInstrumentation().removeIdleNodeStatistics();
   }
 
   /**
@@ -129,9 +239,19 @@ public class ServiceConfig {
    * @return the client
    */
   @Bean(initMethod = "init")
-  public SolarNetClient solarNetClient() {
-    DefaultSolarNetClient client = new DefaultSolarNetClient();
+  public DefaultSolarNetClient solarNetClient() {
+    DefaultSolarNetClient client;
+    if (solarNetHttpPooled) {
+      PooledSolarNetClient pooled = new PooledSolarNetClient();
+      pooled.setMaxConcurrentRequests(solarNetHttpMaxConcurrentRequests);
+      pooled.setConnectTimeoutSeconds(solarNetHttpConnectTimeoutSeconds);
+      pooled.setRequestTimeoutSeconds(solarNetHttpRequestTimeoutSeconds);
+      client = pooled;
+    } else {
+      client = new DefaultSolarNetClient();
+    }
     client.setApiBaseUrl(solarNetBaseUrl);
+    client.setMeterRegistry(meterRegistry);
     return client;
   }
 
@@ -148,6 +268,10 @@ public class ServiceConfig {
     service.setServerKeyPassword(sshKeyPassword);
     service.setBruteForceDenyList(bruteForceDenyList);
     service.setBruteForceMaxTries(bruteForceMaxTries);
+    service.setMeterRegistry(meterRegistry);
+    if (channelStatsEnabled) {
+      service.setChannelInstrumentation(channelInstrumentation());
+    }
     return service;
   }
 
@@ -165,13 +289,35 @@ public class ServiceConfig {
     service.setServerKeyPassword(sshKeyPassword);
     service.setSnHost(snHost());
     service.setAuthTimeoutSecs(authTimeoutSecs);
-    service.setInstructionCompletedWaitMs(instructionCompletedWaitMs);
     service.setInstructionIncompleteWaitMs(instructionIncompleteWaitMs);
+    service.setNodeConnectThreads(nodeConnectThreads);
+    service.setInProcessBridge(sshDirectInProcessBridge);
     service.setBruteForceDenyList(bruteForceDenyList);
     service.setBruteForceMaxTries(bruteForceMaxTries);
+    service.setMeterRegistry(meterRegistry);
+    if (channelStatsEnabled) {
+      service.setChannelInstrumentation(channelInstrumentation());
+    }
     return service;
   }
 
+  /**
+   * Get the channel traffic instrumentation.
+   * 
+   * <p>
+   * The instrumentation is only attached to the SSH servers when {@code ssh.channelStats.enabled}
+   * is {@literal true}.
+   * </p>
+   * 
+   * @return the instrumentation
+   */
+  @Bean
+  public ChannelInstrumentation channelInstrumentation() {
+    ChannelInstrumentation instrumentation = new ChannelInstrumentation(solarSshService());
+    instrumentation.setNodeIdleSeconds(channelStatsNodeIdleSeconds);
+    return instrumentation;
+  }
+
   private String snHost() {
     URI uri = URI.create(solarNetBaseUrl);
     String snHost = uri.getHost();
@@ -186,10 +332,59 @@ public class ServiceConfig {
    * 
    * @return the actor DAO
    */
-  @Bean
+  @Bean(initMethod = "init", destroyMethod = "destroy")
   public JdbcActorDao actorDao() {
     JdbcActorDao dao = new JdbcActorDao(jdbcOps);
+    if (authCombinedQuery) {
+      dao.setAuthenticateAuthorizeCall(JdbcActorDao.DEFAULT_AUTHENTICATE_AUTHORIZE_CALL);
+    }
+    dao.setAsyncThreads(authDbThreads);
+    dao.setAsyncQueueSize(authDbQueueSize);
+    dao.setMeterRegistry(meterRegistry);
+    dao.setRefreshAheadRatio(actorCacheRefreshAheadRatio);
     return dao;
   }
 
+  /**
+   * Get a listener that evicts cached actors when notified of token changes.
+   * 
+   * <p>
+   * Each notification payload on the {@code cache.actor.notifyChannel} channel is treated as a
+   * token ID to evict.
+   * </p>
+   * 
+   * @param dataSource
+   *        the data source
+   * @return the listener
+   */
+  @Bean(initMethod = "start", destroyMethod = "stop")
+  @ConditionalOnProperty("cache.actor.notifyChannel")
+  public PostgresNotificationListener actorCacheNotificationListener(DataSource dataSource) {
+    return new PostgresNotificationListener(dataSource, actorCacheNotifyChannel,
+        actorDao()::evictToken);
+  }
+
+  /**
+   * Get the audit event writer.
+   * 
+   * <p>
+   * When {@code audit.async} is {@literal false} audit events are written on the thread that logs
+   * them.
+   * </p>
+   * 
+   * @return the writer
+   */
+  @Bean(initMethod = "start", destroyMethod = "stop")
+  @ConditionalOnProperty(name = "audit.async", havingValue = "true", matchIfMissing = true)
+  public AsyncAuditEventWriter auditEventWriter() {
+    AsyncAuditEventWriter writer = new AsyncAuditEventWriter();
+    writer.setQueueSize(auditQueueSize);
+    writer.setBatchSize(auditBatchSize);
+    writer.setFlushDelayMs(auditFlushDelayMs);
+    writer.setOverflowPolicy(auditOverflowPolicy);
+    writer.setOfferTimeoutMs(auditOfferTimeoutMs);
+    writer.setMeterRegistry(meterRegistry);
+    return writer;
+  }
+
 }
@@ -22,13 +22,15 @@
 
 package net.solarnetwork.solarssh.dao;
 
+import java.util.concurrent.CompletableFuture;
+
 import net.solarnetwork.solarssh.domain.Actor;
 
 /**
  * DAO API for {@link Actor} instances.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public interface ActorDao {
 
@@ -45,4 +47,33 @@ public interface ActorDao {
    */
   Actor getAuthenticatedActor(Long nodeId, String tokenId, String tokenSecret);
 
+  /**
+   * Get an actor that has had token credentials verified for a specific node ID, without blocking
+   * the calling thread.
+   * 
+   * <p>
+   * This default implementation calls {@link #getAuthenticatedActor(Long, String, String)} on the
+   * calling thread and returns a completed future. Implementations that access slow resources
+   * should override this to perform the work on a different thread.
+   * </p>
+   * 
+   * @param nodeId
+   *        the node ID
+   * @param tokenId
+   *        the token to verify
+   * @param tokenSecret
+   *        the token secret
+   * @return the future actor, which completes with {@literal null} if the validated actor cannot be
+   *         found
+   * @since 1.1
+   */
+  default CompletableFuture<Actor> getAuthenticatedActorAsync(Long nodeId, String tokenId,
+      String tokenSecret) {
+    try {
+      return CompletableFuture.completedFuture(getAuthenticatedActor(nodeId, tokenId, tokenSecret));
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
 }
@@ -17,15 +17,13 @@
 
 package net.solarnetwork.solarssh.domain;
 
-import java.util.Set;
-
 import net.solarnetwork.central.security.SecurityPolicy;
 
 /**
  * API for details associated with an authenticated user.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public interface Actor {
 
@@ -59,7 +57,7 @@ public interface Actor {
    * 
    * @return the user's node IDs, never {@literal null}
    */
-  Set<Long> getUserNodeIds();
+  NodeIdSet getUserNodeIds();
 
   /**
    * Get the allowed node IDs.
@@ -71,6 +69,6 @@ public interface Actor {
    * 
    * @return the allowed node IDs, never {@literal null}
    */
-  Set<Long> getAllowedNodeIds();
+  NodeIdSet getAllowedNodeIds();
 
 }
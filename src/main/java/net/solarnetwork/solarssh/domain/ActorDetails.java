@@ -17,13 +17,6 @@
 
 package net.solarnetwork.solarssh.domain;
 
-import static java.util.Collections.emptySet;
-import static java.util.Collections.singleton;
-import static java.util.Collections.unmodifiableSet;
-import static java.util.stream.Collectors.toCollection;
-
-import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 import net.solarnetwork.central.security.SecurityPolicy;
@@ -32,15 +25,15 @@ import net.solarnetwork.central.security.SecurityPolicy;
  * Details about an authenticated actor.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public class ActorDetails implements Actor {
 
   private final String tokenId;
   private final Long userId;
   private final SecurityPolicy policy;
-  private final Set<Long> userNodeIds;
-  private final Set<Long> allowedNodeIds;
+  private final NodeIdSet userNodeIds;
+  private final NodeIdSet allowedNodeIds;
 
   /**
    * Constructor.
@@ -52,7 +45,8 @@ public class ActorDetails implements Actor {
    * @param policy
    *        the associated policy (or {@literal null} if none defined)
    * @param userNodeIds
-   *        the complete set of node IDs owned by {@code userId}
+   *        the complete set of node IDs owned by {@code userId}; will be copied into a
+   *        {@link NodeIdSet} if not one already
    * @throws IllegalArgumentException
    *         if {@code userId} is {@literal null}
    */
@@ -64,7 +58,7 @@ public class ActorDetails implements Actor {
     }
     this.userId = userId;
     this.policy = policy;
-    this.userNodeIds = (userNodeIds != null ? userNodeIds : emptySet());
+    this.userNodeIds = NodeIdSet.copyOf(userNodeIds);
     this.allowedNodeIds = resolveAllowedNodeIds(this.userNodeIds, policy);
   }
 
@@ -83,32 +77,14 @@ public class ActorDetails implements Actor {
    *        the node ID
    */
   public ActorDetails(Long userId, Long nodeId) {
-    this(null, userId, null, singleton(nodeId));
+    this(null, userId, null, nodeId != null ? NodeIdSet.of(nodeId) : NodeIdSet.EMPTY);
   }
 
-  private static Set<Long> resolveAllowedNodeIds(Set<Long> userNodeIds, SecurityPolicy policy) {
-    Set<Long> nodeIds = userNodeIds;
+  private static NodeIdSet resolveAllowedNodeIds(NodeIdSet userNodeIds, SecurityPolicy policy) {
     if (policy != null && policy.getNodeIds() != null) {
-      nodeIds = policy.getNodeIds();
-      Set<Long> rejected = null;
-      for (Long policyNodeId : nodeIds) {
-        if (!userNodeIds.contains(policyNodeId)) {
-          if (rejected == null) {
-            rejected = new HashSet<>(nodeIds.size());
-          }
-          rejected.add(policyNodeId);
-        }
-      }
-      if (rejected != null && !rejected.isEmpty()) {
-        final Set<Long> finalRejected = rejected;
-        nodeIds = nodeIds.stream().filter(n -> !finalRejected.contains(n))
-            .collect(toCollection(LinkedHashSet::new));
-      }
-    }
-    if (nodeIds == null) {
-      nodeIds = userNodeIds;
+      return userNodeIds.intersection(policy.getNodeIds());
     }
-    return (nodeIds != null ? unmodifiableSet(nodeIds) : emptySet());
+    return userNodeIds;
   }
 
   @Override
@@ -134,12 +110,12 @@ public class ActorDetails implements Actor {
   }
 
   @Override
-  public Set<Long> getUserNodeIds() {
+  public NodeIdSet getUserNodeIds() {
     return userNodeIds;
   }
 
   @Override
-  public Set<Long> getAllowedNodeIds() {
+  public NodeIdSet getAllowedNodeIds() {
     return allowedNodeIds;
   }
 
@@ -0,0 +1,301 @@
+/* ==================================================================
+ * NodeChannelStatistics.java - 16/10/2026 9:14:22 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.domain;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Aggregate SSH channel traffic statistics for a single node.
+ * 
+ * <p>
+ * Byte counts are from the point of view of the SolarSSH server: {@code bytesIn} is data received
+ * on a channel and {@code bytesOut} is data sent on a channel. Time-to-first-byte measures the time
+ * from a channel opening to the first data arriving from the node side of the tunnel.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.1
+ */
+@JsonPropertyOrder({ "nodeId", "channelCount", "openChannelCount", "openFailureCount", "bytesIn",
+    "bytesOut", "bytesTotal", "windowStallCount", "windowStallMs", "averageOpenMs", "maxOpenMs",
+    "averageFirstByteMs", "maxFirstByteMs" })
+public class NodeChannelStatistics {
+
+  private final Long nodeId;
+  private final LongAdder channelCount = new LongAdder();
+  private final LongAdder openChannelCount = new LongAdder();
+  private final LongAdder openFailureCount = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder windowStallCount = new LongAdder();
+  private final LongAdder windowStallNanos = new LongAdder();
+  private final LongAdder closedCount = new LongAdder();
+  private final LongAdder openNanos = new LongAdder();
+  private final AtomicLong maxOpenNanos = new AtomicLong();
+  private final LongAdder firstByteCount = new LongAdder();
+  private final LongAdder firstByteNanos = new LongAdder();
+  private final AtomicLong maxFirstByteNanos = new AtomicLong();
+  private volatile long lastActive = System.currentTimeMillis();
+
+  /**
+   * Constructor.
+   * 
+   * @param nodeId
+   *        the node ID
+   */
+  public NodeChannelStatistics(Long nodeId) {
+    super();
+    this.nodeId = nodeId;
+  }
+
+  /**
+   * Record a channel opened.
+   */
+  public void channelOpened() {
+    markActive();
+    channelCount.increment();
+    openChannelCount.increment();
+  }
+
+  /**
+   * Record a channel that failed to open.
+   */
+  public void channelOpenFailed() {
+    markActive();
+    openFailureCount.increment();
+  }
+
+  /**
+   * Record a previously opened channel closed.
+   * 
+   * @param nanos
+   *        the time the channel was open, in nanoseconds
+   */
+  public void channelClosed(long nanos) {
+    markActive();
+    openChannelCount.decrement();
+    closedCount.increment();
+    openNanos.add(nanos);
+    maxOpenNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  /**
+   * Record channel activity for the node, without changing any statistics.
+   * 
+   * @since 1.1
+   */
+  public void markActive() {
+    lastActive = System.currentTimeMillis();
+  }
+
+  /**
+   * Get the time channel activity was last recorded.
+   * 
+   * <p>
+   * Activity is recorded when channels are opened or closed, not for each data transfer.
+   * </p>
+   * 
+   * @return the last activity time, as an epoch millisecond value
+   * @since 1.1
+   */
+  @JsonIgnore
+  public long getLastActive() {
+    return lastActive;
+  }
+
+  /**
+   * Record data received on a channel.
+   * 
+   * @param len
+   *        the number of bytes received
+   */
+  public void dataReceived(long len) {
+    bytesIn.add(len);
+  }
+
+  /**
+   * Record data sent on a channel.
+   * 
+   * @param len
+   *        the number of bytes sent
+   */
+  public void dataSent(long len) {
+    bytesOut.add(len);
+  }
+
+  /**
+   * Record a channel that was unable to send until the remote window was expanded.
+   * 
+   * @param nanos
+   *        the time spent waiting for the window expansion, in nanoseconds
+   */
+  public void windowStalled(long nanos) {
+    windowStallCount.increment();
+    windowStallNanos.add(nanos);
+  }
+
+  /**
+   * Record the time-to-first-byte of a channel.
+   * 
+   * @param nanos
+   *        the time from the channel opening to the first byte, in nanoseconds
+   */
+  public void firstByte(long nanos) {
+    firstByteCount.increment();
+    firstByteNanos.add(nanos);
+    maxFirstByteNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  /**
+   * Get the node ID.
+   * 
+   * @return the node ID
+   */
+  public Long getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * Get the total number of channels opened.
+   * 
+   * @return the count
+   */
+  public long getChannelCount() {
+    return channelCount.sum();
+  }
+
+  /**
+   * Get the number of channels currently open.
+   * 
+   * @return the count
+   */
+  public long getOpenChannelCount() {
+    return openChannelCount.sum();
+  }
+
+  /**
+   * Get the number of channels that failed to open.
+   * 
+   * @return the count
+   */
+  public long getOpenFailureCount() {
+    return openFailureCount.sum();
+  }
+
+  /**
+   * Get the total number of bytes received.
+   * 
+   * @return the byte count
+   */
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  /**
+   * Get the total number of bytes sent.
+   * 
+   * @return the byte count
+   */
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+
+  /**
+   * Get the total number of bytes received and sent.
+   * 
+   * @return the byte count
+   */
+  public long getBytesTotal() {
+    return bytesIn.sum() + bytesOut.sum();
+  }
+
+  /**
+   * Get the number of times sending stalled waiting on the remote window.
+   * 
+   * @return the count
+   */
+  public long getWindowStallCount() {
+    return windowStallCount.sum();
+  }
+
+  /**
+   * Get the total time spent stalled waiting on the remote window.
+   * 
+   * @return the time, in milliseconds
+   */
+  public long getWindowStallMs() {
+    return TimeUnit.NANOSECONDS.toMillis(windowStallNanos.sum());
+  }
+
+  /**
+   * Get the average time closed channels were open for.
+   * 
+   * @return the time, in milliseconds
+   */
+  public long getAverageOpenMs() {
+    return averageMs(openNanos.sum(), closedCount.sum());
+  }
+
+  /**
+   * Get the maximum time a closed channel was open for.
+   * 
+   * @return the time, in milliseconds
+   */
+  public long getMaxOpenMs() {
+    return TimeUnit.NANOSECONDS.toMillis(maxOpenNanos.get());
+  }
+
+  /**
+   * Get the average time-to-first-byte.
+   * 
+   * @return the time, in milliseconds
+   */
+  public long getAverageFirstByteMs() {
+    return averageMs(firstByteNanos.sum(), firstByteCount.sum());
+  }
+
+  /**
+   * Get the maximum time-to-first-byte.
+   * 
+   * @return the time, in milliseconds
+   */
+  public long getMaxFirstByteMs() {
+    return TimeUnit.NANOSECONDS.toMillis(maxFirstByteNanos.get());
+  }
+
+  private static long averageMs(long nanos, long count) {
+    return (count > 0 ? TimeUnit.NANOSECONDS.toMillis(nanos / count) : 0L);
+  }
+
+  @Override
+  public String toString() {
+    return "NodeChannelStatistics{nodeId=" + nodeId + ", channelCount=" + getChannelCount()
+        + ", bytesIn=" + getBytesIn() + ", bytesOut=" + getBytesOut() + "}";
+  }
+
+}
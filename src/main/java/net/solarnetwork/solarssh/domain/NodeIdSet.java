@@ -0,0 +1,225 @@
+/* ==================================================================
+ * NodeIdSet.java - 16/10/2026 10:04:18 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.domain;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable, sorted set of node IDs backed by a primitive {@code long} array.
+ * 
+ * <p>
+ * Membership tests use a binary search, and {@link #contains(long)} avoids boxing. Tokens can be
+ * associated with thousands of nodes and are held in a cache, so this uses about 8 bytes per node
+ * ID, compared to over 50 bytes for a boxed {@link java.util.HashSet}.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public final class NodeIdSet extends AbstractSet<Long> {
+
+  /**
+   * An empty set.
+   */
+  public static final NodeIdSet EMPTY = new NodeIdSet(new long[0]);
+
+  private final long[] ids;
+
+  private NodeIdSet(long[] ids) {
+    super();
+    this.ids = ids;
+  }
+
+  /**
+   * Create a set from node ID values.
+   * 
+   * @param ids
+   *        the node IDs, in any order and possibly with duplicates; the array is not modified
+   * @return the set, never {@literal null}
+   */
+  public static NodeIdSet of(long... ids) {
+    if (ids == null || ids.length < 1) {
+      return EMPTY;
+    }
+    return ofSorted(ids.clone());
+  }
+
+  /**
+   * Create a set from a collection of node IDs.
+   * 
+   * <p>
+   * {@literal null} elements are ignored.
+   * </p>
+   * 
+   * @param ids
+   *        the node IDs
+   * @return the set, never {@literal null}
+   */
+  public static NodeIdSet copyOf(Collection<? extends Number> ids) {
+    if (ids instanceof NodeIdSet s) {
+      return s;
+    }
+    if (ids == null || ids.isEmpty()) {
+      return EMPTY;
+    }
+    long[] data = new long[ids.size()];
+    int len = 0;
+    for (Number n : ids) {
+      if (n != null) {
+        data[len++] = n.longValue();
+      }
+    }
+    return ofSorted(len < data.length ? Arrays.copyOf(data, len) : data);
+  }
+
+  /**
+   * Sort and remove duplicates from an array, and wrap it in a set.
+   * 
+   * @param ids
+   *        the array to take ownership of
+   * @return the set
+   */
+  private static NodeIdSet ofSorted(long[] ids) {
+    if (ids.length < 1) {
+      return EMPTY;
+    }
+    Arrays.sort(ids);
+    int len = 1;
+    for (int i = 1; i < ids.length; i++) {
+      if (ids[i] != ids[len - 1]) {
+        ids[len++] = ids[i];
+      }
+    }
+    return new NodeIdSet(len < ids.length ? Arrays.copyOf(ids, len) : ids);
+  }
+
+  /**
+   * Get the node IDs in this set that are also in another set.
+   * 
+   * @param other
+   *        the other set
+   * @return the intersection, which is this instance if all node IDs are in {@code other}
+   */
+  public NodeIdSet intersection(Collection<? extends Number> other) {
+    if (other == null || other.isEmpty() || ids.length < 1) {
+      return EMPTY;
+    }
+    final NodeIdSet o = copyOf(other);
+    long[] result = new long[Math.min(ids.length, o.ids.length)];
+    int len = 0;
+    for (int i = 0, j = 0; i < ids.length && j < o.ids.length;) {
+      if (ids[i] < o.ids[j]) {
+        i++;
+      } else if (ids[i] > o.ids[j]) {
+        j++;
+      } else {
+        result[len++] = ids[i];
+        i++;
+        j++;
+      }
+    }
+    if (len == ids.length) {
+      return this;
+    }
+    return (len < 1 ? EMPTY : new NodeIdSet(Arrays.copyOf(result, len)));
+  }
+
+  /**
+   * Test if a node ID is in this set.
+   * 
+   * @param nodeId
+   *        the node ID to look for
+   * @return {@literal true} if {@code nodeId} is in this set
+   */
+  public boolean contains(long nodeId) {
+    return Arrays.binarySearch(ids, nodeId) >= 0;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return (o instanceof Long l && contains(l.longValue()));
+  }
+
+  @Override
+  public int size() {
+    return ids.length;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return ids.length == 0;
+  }
+
+  /**
+   * Get the node IDs as an array.
+   * 
+   * @return a copy of the node IDs, in ascending order
+   */
+  public long[] toLongArray() {
+    return ids.clone();
+  }
+
+  @Override
+  public Iterator<Long> iterator() {
+    return new Iterator<Long>() {
+
+      private int idx = 0;
+
+      @Override
+      public boolean hasNext() {
+        return idx < ids.length;
+      }
+
+      @Override
+      public Long next() {
+        if (idx >= ids.length) {
+          throw new NoSuchElementException();
+        }
+        return ids[idx++];
+      }
+    };
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof NodeIdSet s) {
+      return Arrays.equals(ids, s.ids);
+    }
+    return super.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    // same as Set.hashCode() contract for Long elements
+    int h = 0;
+    for (long id : ids) {
+      h += Long.hashCode(id);
+    }
+    return h;
+  }
+
+}
@@ -24,8 +24,13 @@ package net.solarnetwork.solarssh.domain;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.AttributeRepository.AttributeKey;
 import org.apache.sshd.common.session.Session;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -35,13 +40,34 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 /**
  * A SSH session model object.
  * 
+ * <p>
+ * When a SSHD session is attached to this object via {@link #setServerSession(Session)},
+ * {@link #setDirectServerSession(Session)}, or {@link #setClientSession(ClientSession)}, this
+ * object is stored on that session as the {@link #SSH_SESSION_ATTR} attribute, so the association
+ * can be resolved directly from the SSHD session. Detaching a session removes the attribute.
+ * </p>
+ * 
+ * <p>
+ * The session lifecycle is tracked as a {@link SshSessionState}, which is changed atomically via
+ * {@link #transitionTo(SshSessionState)} and {@link #compareAndSetState(SshSessionState,
+ * SshSessionState)} so it can be read without locking from any thread. Registered
+ * {@link SshSessionStateListener} instances are notified of each transition.
+ * </p>
+ * 
  * @author matt
- * @version 1.0
+ * @version 1.6
  */
 @JsonPropertyOrder({ "sessionId", "created", "nodeId", "host", "port", "reversePort",
     "startInstructionId", "stopInstructionId", "lastUsed" })
 public class SshSession {
 
+  /**
+   * A SSHD session attribute key for the {@code SshSession} attached to that session.
+   * 
+   * @since 1.1
+   */
+  public static final AttributeKey<SshSession> SSH_SESSION_ATTR = new AttributeKey<>();
+
   private final long created;
   private final String id;
   private final Long nodeId;
@@ -49,14 +75,20 @@ public class SshSession {
   private final int sshPort;
   private final int reverseSshPort;
   private final int reverseHttpPort;
-
-  private boolean established;
-  private Long startInstructionId;
-  private Long stopInstructionId;
-  private ClientSession clientSession;
-  private Session serverSession;
-  private Session directServerSession;
-  private String tokenSecret;
+  private final CompletableFuture<Session> serverSessionFuture = new CompletableFuture<>();
+  private final AtomicReference<SshSessionState> state = new AtomicReference<>(
+      SshSessionState.NEW);
+  private final CopyOnWriteArrayList<SshSessionStateListener> stateListeners
+      = new CopyOnWriteArrayList<>();
+
+  private final AtomicInteger attachedTerminalCount = new AtomicInteger();
+  private volatile Long startInstructionId;
+  private volatile Long stopInstructionId;
+  private volatile ClientSession clientSession;
+  private volatile Session serverSession;
+  private volatile Session directServerSession;
+  private volatile String tokenSecret;
+  private volatile String reverseSshForwardHost;
 
   /**
    * Constructor.
@@ -88,12 +120,136 @@ public class SshSession {
     this.reverseHttpPort = reverseHttpPort;
   }
 
+  /**
+   * Test if the node is connected.
+   * 
+   * @return {@literal true} if the current state is established
+   * @see SshSessionState#isEstablished()
+   */
   public boolean isEstablished() {
-    return established;
+    return state.get().isEstablished();
   }
 
+  /**
+   * Set the established flag.
+   * 
+   * @param established
+   *        {@literal true} to transition to {@link SshSessionState#NODE_CONNECTED},
+   *        {@literal false} to transition through {@link SshSessionState#CLOSING} to
+   *        {@link SshSessionState#CLOSED}
+   * @deprecated since 1.2 use {@link #transitionTo(SshSessionState)}
+   */
+  @Deprecated
   public void setEstablished(boolean established) {
-    this.established = established;
+    if (established) {
+      transitionTo(SshSessionState.NODE_CONNECTED);
+    } else {
+      transitionTo(SshSessionState.CLOSING);
+      transitionTo(SshSessionState.CLOSED);
+    }
+  }
+
+  /**
+   * Get the current lifecycle state.
+   * 
+   * @return the state, never {@literal null}
+   * @since 1.2
+   */
+  @JsonIgnore
+  public SshSessionState getState() {
+    return state.get();
+  }
+
+  /**
+   * Transition to a new lifecycle state, if allowed from the current state.
+   * 
+   * @param newState
+   *        the state to transition to
+   * @return the previous state if the transition was made, or {@literal null} if the transition is
+   *         not allowed from the current state
+   * @see SshSessionState#canTransitionTo(SshSessionState)
+   * @since 1.2
+   */
+  public SshSessionState transitionTo(SshSessionState newState) {
+    while (true) {
+      final SshSessionState oldState = state.get();
+      if (!oldState.canTransitionTo(newState)) {
+        return null;
+      }
+      if (state.compareAndSet(oldState, newState)) {
+        fireStateChanged(oldState, newState);
+        return oldState;
+      }
+    }
+  }
+
+  /**
+   * Transition to a new lifecycle state, only if the current state is an expected state.
+   * 
+   * @param expectedState
+   *        the expected current state
+   * @param newState
+   *        the state to transition to
+   * @return {@literal true} if the transition was made
+   * @since 1.2
+   */
+  public boolean compareAndSetState(SshSessionState expectedState, SshSessionState newState) {
+    if (expectedState == null || !expectedState.canTransitionTo(newState)
+        || !state.compareAndSet(expectedState, newState)) {
+      return false;
+    }
+    fireStateChanged(expectedState, newState);
+    return true;
+  }
+
+  /**
+   * Add a state listener.
+   * 
+   * @param listener
+   *        the listener to add
+   * @since 1.2
+   */
+  public void addStateListener(SshSessionStateListener listener) {
+    if (listener != null) {
+      stateListeners.add(listener);
+    }
+  }
+
+  /**
+   * Remove a state listener.
+   * 
+   * @param listener
+   *        the listener to remove
+   * @since 1.2
+   */
+  public void removeStateListener(SshSessionStateListener listener) {
+    stateListeners.remove(listener);
+  }
+
+  /**
+   * Record that a terminal has attached to this session.
+   * 
+   * @return the number of attached terminals, including the new one
+   * @since 1.6
+   */
+  public int terminalAttached() {
+    return attachedTerminalCount.incrementAndGet();
+  }
+
+  /**
+   * Record that a terminal has detached from this session.
+   * 
+   * @return the number of terminals still attached
+   * @since 1.6
+   */
+  public int terminalDetached() {
+    return attachedTerminalCount.updateAndGet(n -> n > 0 ? n - 1 : 0);
+  }
+
+  private void fireStateChanged(SshSessionState oldState, SshSessionState newState) {
+    for (SshSessionStateListener listener : stateListeners) {
+      listener.sessionStateChanged(this, oldState, newState);
+    }
   }
 
   public long getCreated() {
@@ -158,7 +314,7 @@ public class SshSession {
 
   @JsonIgnore
   public void setClientSession(ClientSession clientSession) {
-    this.clientSession = clientSession;
+    this.clientSession = attach(this.clientSession, clientSession);
   }
 
   @JsonIgnore
@@ -168,7 +324,23 @@ public class SshSession {
 
   @JsonIgnore
   public void setServerSession(Session serverSession) {
-    this.serverSession = serverSession;
+    this.serverSession = attach(this.serverSession, serverSession);
+  }
+
+  /**
+   * Get a future that completes when the node has connected and authenticated its server session.
+   * 
+   * <p>
+   * The future is completed with the node's server session once it has authenticated, or is
+   * cancelled if the session ends before the node connects.
+   * </p>
+   * 
+   * @return the future, never {@literal null}
+   * @since 1.1
+   */
+  @JsonIgnore
+  public CompletableFuture<Session> getServerSessionFuture() {
+    return serverSessionFuture;
   }
 
   @JsonIgnore
@@ -178,7 +350,32 @@ public class SshSession {
 
   @JsonIgnore
   public void setDirectServerSession(Session serverSession) {
-    this.directServerSession = serverSession;
+    this.directServerSession = attach(this.directServerSession, serverSession);
+  }
+
+  /**
+   * Test if a SSHD session is attached to this session as the server, direct server, or client
+   * session.
+   * 
+   * @param session
+   *        the session to test
+   * @return {@literal true} if {@code session} is attached to this session
+   * @since 1.1
+   */
+  public boolean isAttachedTo(Session session) {
+    return (session != null && (session == serverSession || session == directServerSession
+        || session == clientSession));
+  }
+
+  private <T extends Session> T attach(Session oldSession, T newSession) {
+    if (oldSession != null && oldSession != newSession
+        && oldSession.getAttribute(SSH_SESSION_ATTR) == this) {
+      oldSession.removeAttribute(SSH_SESSION_ATTR);
+    }
+    if (newSession != null) {
+      newSession.setAttribute(SSH_SESSION_ATTR, this);
+    }
+    return newSession;
   }
 
   @JsonIgnore
@@ -191,6 +388,29 @@ public class SshSession {
     this.tokenSecret = tokenSecret;
   }
 
+  /**
+   * Get the host name the node requested its reverse SSH port forward with.
+   * 
+   * @return the host name, or {@literal null} if the node has not forwarded the reverse SSH port
+   * @since 1.3
+   */
+  @JsonIgnore
+  public String getReverseSshForwardHost() {
+    return reverseSshForwardHost;
+  }
+
+  /**
+   * Set the host name the node requested its reverse SSH port forward with.
+   * 
+   * @param reverseSshForwardHost
+   *        the host name to set
+   * @since 1.3
+   */
+  @JsonIgnore
+  public void setReverseSshForwardHost(String reverseSshForwardHost) {
+    this.reverseSshForwardHost = reverseSshForwardHost;
+  }
+
   /**
    * Get a Map of standard audit event properties.
    * 
@@ -199,7 +419,7 @@ public class SshSession {
    * @return the properties
    */
   public Map<String, Object> auditEventMap(String eventName) {
-    Map<String, Object> map = new LinkedHashMap<>(8);
+    Map<String, Object> map = new LinkedHashMap<>(16);
     map.put("nodeId", nodeId);
     map.put("sessionId", id);
     map.put("event", eventName);
@@ -0,0 +1,88 @@
+/* ==================================================================
+ * SshSessionState.java - 16/10/2026 5:12:40 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.domain;
+
+/**
+ * The lifecycle state of a {@link SshSession}.
+ * 
+ * <p>
+ * States are ordered: a session only moves forward through them, except that an
+ * {@link #ATTACHED} session returns to {@link #NODE_CONNECTED} when its terminal detaches.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public enum SshSessionState {
+
+  /** The session has been created, but not started. */
+  NEW,
+
+  /** The node has been asked to connect. */
+  STARTING,
+
+  /** The node has connected and authenticated. */
+  NODE_CONNECTED,
+
+  /** A terminal client is attached to the node. */
+  ATTACHED,
+
+  /** The session is being ended. */
+  CLOSING,
+
+  /** The session has ended. */
+  CLOSED;
+
+  /**
+   * Test if a node is connected in this state.
+   * 
+   * @return {@literal true} if this state is {@link #NODE_CONNECTED} or {@link #ATTACHED}
+   */
+  public boolean isEstablished() {
+    return (this == NODE_CONNECTED || this == ATTACHED);
+  }
+
+  /**
+   * Test if this state is {@link #CLOSING} or {@link #CLOSED}.
+   * 
+   * @return {@literal true} if the session is ending or has ended
+   */
+  public boolean isClosed() {
+    return (this == CLOSING || this == CLOSED);
+  }
+
+  /**
+   * Test if a transition from this state to another state is allowed.
+   * 
+   * @param next
+   *        the state to transition to
+   * @return {@literal true} if the transition is allowed
+   */
+  public boolean canTransitionTo(SshSessionState next) {
+    if (next == null) {
+      return false;
+    }
+    return (next.ordinal() > ordinal() || (this == ATTACHED && next == NODE_CONNECTED));
+  }
+
+}
@@ -0,0 +1,51 @@
+/* ==================================================================
+ * SshSessionStateListener.java - 16/10/2026 5:14:02 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.domain;
+
+/**
+ * API for observing {@link SshSession} state transitions.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface SshSessionStateListener {
+
+  /**
+   * Called after a session has changed state.
+   * 
+   * <p>
+   * This is called on the thread that performed the transition, and must not block.
+   * </p>
+   * 
+   * @param session
+   *        the session
+   * @param oldState
+   *        the previous state
+   * @param newState
+   *        the new state
+   */
+  void sessionStateChanged(SshSession session, SshSessionState oldState,
+      SshSessionState newState);
+
+}
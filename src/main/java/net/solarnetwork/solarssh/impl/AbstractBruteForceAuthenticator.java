@@ -22,27 +22,26 @@
 
 package net.solarnetwork.solarssh.impl;
 
-import static net.solarnetwork.codec.JsonUtils.getJSONString;
-import static net.solarnetwork.solarssh.Globals.AUDIT_LOG;
+import static net.solarnetwork.solarssh.Globals.logAuditEvent;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Map;
 
-import javax.cache.Cache;
-
 import org.apache.sshd.common.RuntimeSshException;
 import org.apache.sshd.server.session.ServerSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.micrometer.core.instrument.Counter;
 import net.solarnetwork.solarssh.Globals;
+import net.solarnetwork.solarssh.service.BruteForceDenyList;
 
 /**
  * Base class for brute force mitigation authenticators.
  * 
  * @author matt
- * @version 1.3
+ * @version 1.6
  */
 public abstract class AbstractBruteForceAuthenticator {
 
@@ -54,8 +53,9 @@ public abstract class AbstractBruteForceAuthenticator {
 
   protected final Logger log = LoggerFactory.getLogger(getClass());
 
-  private final Cache<InetAddress, Byte> denyList;
+  private final BruteForceDenyList denyList;
   private int maxFails = 1;
+  private Counter blockedCounter;
 
   /**
    * Constructor.
@@ -65,7 +65,7 @@ public abstract class AbstractBruteForceAuthenticator {
    * @throws IllegalArgumentException
    *         if any argument is {@literal null}
    */
-  public AbstractBruteForceAuthenticator(Cache<InetAddress, Byte> denyList) {
+  public AbstractBruteForceAuthenticator(BruteForceDenyList denyList) {
     super();
     if (denyList == null) {
       throw new IllegalArgumentException("The denyList argument must not be null.");
@@ -85,15 +85,11 @@ public abstract class AbstractBruteForceAuthenticator {
     if (session.getRemoteAddress() instanceof InetSocketAddress) {
       InetAddress src = ((InetSocketAddress) session.getRemoteAddress()).getAddress();
       if (!src.isLoopbackAddress()) {
-        final Byte currCount = denyList.get(src);
-        byte count = 0;
-        if (currCount == null) {
-          count = (byte) 1;
-        } else if (currCount.byteValue() != (byte) 0xFF) {
-          count = (byte) ((currCount.byteValue() & 0xFF) + 1);
-        }
-        final int attempts = Byte.toUnsignedInt(count);
+        final int attempts = denyList.incrementCount(src);
         if (attempts >= maxFails) {
+          if (blockedCounter != null) {
+            blockedCounter.increment();
+          }
           session.close(false);
           log.info("{} authentication attempt [{}] blocked after {} attempts", src, username,
               attempts);
@@ -101,11 +97,6 @@ public abstract class AbstractBruteForceAuthenticator {
           throw new RuntimeSshException("Blocked.");
         } else {
           log.info("{} authentication attempt [{}] failed: attempt {}", src, username, attempts);
-          if (currCount == null) {
-            denyList.putIfAbsent(src, count);
-          } else {
-            denyList.replace(src, currCount, count);
-          }
           auditBruteForceEvent(session, username, src, attempts,
               AUDIT_EVENT_IP_TRACKING_FAILED_ATTEMPT);
         }
@@ -119,7 +110,7 @@ public abstract class AbstractBruteForceAuthenticator {
     auditProps.put("remoteAddress", src);
     auditProps.put("attempts", count);
     auditProps.put("username", username);
-    AUDIT_LOG.info(getJSONString(auditProps, "{}"));
+    logAuditEvent(auditProps);
   }
 
   /**
@@ -141,4 +132,15 @@ public abstract class AbstractBruteForceAuthenticator {
     this.maxFails = maxFails;
   }
 
+  /**
+   * Set a counter to increment when an address is blocked.
+   * 
+   * @param blockedCounter
+   *        the counter, or {@literal null} for none
+   * @since 1.5
+   */
+  public void setBlockedCounter(Counter blockedCounter) {
+    this.blockedCounter = blockedCounter;
+  }
+
 }
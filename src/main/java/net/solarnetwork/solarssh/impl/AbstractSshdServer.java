@@ -22,16 +22,13 @@
 
 package net.solarnetwork.solarssh.impl;
 
-import static net.solarnetwork.codec.JsonUtils.getJSONString;
-import static net.solarnetwork.solarssh.Globals.AUDIT_LOG;
 import static net.solarnetwork.solarssh.Globals.DEFAULT_SN_HOST;
+import static net.solarnetwork.solarssh.Globals.logAuditEvent;
 
 import java.io.IOException;
-import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.Map;
 
-import javax.cache.Cache;
-
 import org.apache.sshd.common.channel.Channel;
 import org.apache.sshd.common.channel.ChannelListener;
 import org.apache.sshd.common.config.keys.FilePasswordProvider;
@@ -41,19 +38,23 @@ import org.apache.sshd.common.session.Session;
 import org.apache.sshd.common.session.SessionListener;
 import org.apache.sshd.core.CoreModuleProperties;
 import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.session.ServerUserAuthServiceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import net.solarnetwork.solarssh.Globals;
 import net.solarnetwork.solarssh.dao.SshSessionDao;
 import net.solarnetwork.solarssh.domain.SshSession;
+import net.solarnetwork.solarssh.service.BruteForceDenyList;
 
 /**
  * Abstract base class for SolarSSH SSHD server instances.
  * 
  * @author matt
- * @version 1.2
+ * @version 1.6
  */
 public abstract class AbstractSshdServer implements SessionListener, ChannelListener {
 
@@ -72,8 +73,10 @@ public abstract class AbstractSshdServer implements SessionListener, ChannelList
   private int authTimeoutSecs = DEFAULT_AUTH_TIMEOUT_SECS;
   private Resource serverKeyResource;
   private String serverKeyPassword;
-  private Cache<InetAddress, Byte> bruteForceDenyList;
+  private BruteForceDenyList bruteForceDenyList;
   private int bruteForceMaxTries = 1;
+  private ChannelInstrumentation channelInstrumentation;
+  private MeterRegistry meterRegistry;
 
   /** A class-level logger. */
   protected final Logger log = LoggerFactory.getLogger(getClass());
@@ -114,17 +117,42 @@ public abstract class AbstractSshdServer implements SessionListener, ChannelList
     s.addSessionListener(this);
     s.addChannelListener(this);
 
+    if (channelInstrumentation != null) {
+      s.addChannelListener(channelInstrumentation);
+      s.setServiceFactories(Arrays.asList(ServerUserAuthServiceFactory.INSTANCE,
+          new InstrumentedServerConnectionService.Factory(channelInstrumentation)));
+    }
+
     s.getProperties().put(CoreModuleProperties.AUTH_TIMEOUT.getName(), authTimeoutSecs * 1000L);
 
     if (bruteForceDenyList != null) {
       BruteForceDenyEventListener listener = new BruteForceDenyEventListener(bruteForceDenyList);
       listener.setMaxFails(bruteForceMaxTries);
+      listener.setBlockedCounter(bruteForceBlockedCounter("connect"));
       s.setIoServiceEventListener(listener);
     }
 
     return s;
   }
 
+  /**
+   * Get a counter for brute force blocked connections.
+   * 
+   * @param stage
+   *        the stage at which connections are blocked, for example {@literal connect}
+   * @return the counter, or {@literal null} if no {@code meterRegistry} is configured
+   * @since 1.5
+   */
+  protected Counter bruteForceBlockedCounter(String stage) {
+    final MeterRegistry registry = meterRegistry;
+    if (registry == null) {
+      return null;
+    }
+    return Counter.builder("solarssh.bruteforce.blocked")
+        .description("Connections blocked by brute force mitigation").tag("stage", stage)
+        .tag("port", String.valueOf(port)).register(registry);
+  }
+
   /**
    * Create an audit event map.
    * 
@@ -161,7 +189,7 @@ public abstract class AbstractSshdServer implements SessionListener, ChannelList
     if (t != null) {
       auditProps.put("error", t.toString());
     }
-    AUDIT_LOG.info(getJSONString(auditProps, "{}"));
+    logAuditEvent(auditProps);
   }
 
   @Override
@@ -272,7 +300,7 @@ public abstract class AbstractSshdServer implements SessionListener, ChannelList
    * 
    * @return the deny list
    */
-  public Cache<InetAddress, Byte> getBruteForceDenyList() {
+  public BruteForceDenyList getBruteForceDenyList() {
     return bruteForceDenyList;
   }
 
@@ -282,7 +310,7 @@ public abstract class AbstractSshdServer implements SessionListener, ChannelList
    * @param bruteForceDenyList
    *        the deny list to set
    */
-  public void setBruteForceDenyList(Cache<InetAddress, Byte> bruteForceDenyList) {
+  public void setBruteForceDenyList(BruteForceDenyList bruteForceDenyList) {
     this.bruteForceDenyList = bruteForceDenyList;
   }
 
@@ -305,4 +333,50 @@ public abstract class AbstractSshdServer implements SessionListener, ChannelList
     this.bruteForceMaxTries = bruteForceMaxTries;
   }
 
+  /**
+   * Get the channel instrumentation.
+   * 
+   * @return the instrumentation, or {@literal null}
+   * @since 1.4
+   */
+  public ChannelInstrumentation getChannelInstrumentation() {
+    return channelInstrumentation;
+  }
+
+  /**
+   * Set the channel instrumentation.
+   * 
+   * <p>
+   * If configured, channel traffic statistics will be collected for all channels.
+   * </p>
+   * 
+   * @param channelInstrumentation
+   *        the instrumentation to use, or {@literal null} for none
+   * @since 1.4
+   */
+  public void setChannelInstrumentation(ChannelInstrumentation channelInstrumentation) {
+    this.channelInstrumentation = channelInstrumentation;
+  }
+
+  /**
+   * Get the meter registry.
+   * 
+   * @return the registry, or {@literal null}
+   * @since 1.5
+   */
+  public MeterRegistry getMeterRegistry() {
+    return meterRegistry;
+  }
+
+  /**
+   * Set a registry to record metrics with.
+   * 
+   * @param meterRegistry
+   *        the registry, or {@literal null} to not record metrics
+   * @since 1.5
+   */
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
 }
@@ -20,24 +20,22 @@ package net.solarnetwork.solarssh.impl;
 import java.sql.Array;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.RowMapper;
 
-import net.solarnetwork.central.security.BasicSecurityPolicy;
 import net.solarnetwork.central.security.SecurityPolicy;
-import net.solarnetwork.codec.JsonUtils;
 import net.solarnetwork.solarssh.domain.Actor;
 import net.solarnetwork.solarssh.domain.ActorDetails;
+import net.solarnetwork.solarssh.domain.NodeIdSet;
 
 /**
  * {@link RowMapper} for {@link ActorDetails}.
  * 
  * @author matt
- * @version 1.1
+ * @version 1.3
  */
 public class ActorDetailsRowMapper implements RowMapper<Actor> {
 
@@ -110,28 +108,25 @@ public class ActorDetailsRowMapper implements RowMapper<Actor> {
     @SuppressWarnings("unused")
     String tokenType = rs.getString(tokenTypeCol);
     String policyJson = rs.getString(policyCol);
-    SecurityPolicy policy = null;
-    if (policyJson != null) {
-      policy = JsonUtils.getObjectFromJSON(policyJson, BasicSecurityPolicy.class);
-    }
+    SecurityPolicy policy = SecurityPolicyCache.sharedInstance().policy(policyJson);
 
-    Set<Long> nodeIds = null;
+    NodeIdSet nodeIds = null;
     Array dbNodeIds = rs.getArray(nodeIdsCol);
     if (dbNodeIds != null) {
       Object data = dbNodeIds.getArray();
       if (data != null && data.getClass().isArray()) {
         Object[] arrayData = (Object[]) data;
-        nodeIds = new LinkedHashSet<>(arrayData.length);
+        long[] ids = new long[arrayData.length];
+        int len = 0;
         for (int i = 0; i < arrayData.length; i++) {
           Object val = arrayData[i];
-          if (val instanceof Long) {
-            nodeIds.add((Long) val);
-          } else if (val instanceof Number) {
-            nodeIds.add(((Number) val).longValue());
+          if (val instanceof Number) {
+            ids[len++] = ((Number) val).longValue();
           } else {
             log.warn("Unexpected non-Number node ID array value returned from DB: [{}]", val);
           }
         }
+        nodeIds = NodeIdSet.of(len < ids.length ? Arrays.copyOf(ids, len) : ids);
       }
     }
 
@@ -0,0 +1,442 @@
+/* ==================================================================
+ * AsyncAuditEventWriter.java - 16/10/2026 9:02:41 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import static net.solarnetwork.solarssh.Globals.AUDIT_LOG;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.solarnetwork.codec.JsonUtils;
+import net.solarnetwork.service.PingTest;
+import net.solarnetwork.service.PingTestResult;
+import net.solarnetwork.solarssh.Globals;
+
+/**
+ * Write audit events to {@link Globals#AUDIT_LOG} on a background thread.
+ * 
+ * <p>
+ * Once started, this writer is installed as the {@link Globals} audit event handler. Events are
+ * handed off through a bounded queue and written by a single thread, which serializes them as JSON
+ * with a streaming generator and flushes the audit log once per batch of events, rather than after
+ * each one. When the queue is full the configured {@link OverflowPolicy} applies.
+ * </p>
+ * 
+ * <p>
+ * After receiving an event the writer waits up to {@code flushDelayMs} milliseconds for more events
+ * before writing, unless the queue is already half full, so that events logged close together are
+ * written and flushed as one batch, and logging threads rarely need to wake up the writer.
+ * </p>
+ * 
+ * <p>
+ * The events passed to {@link #accept(Map)} must not be modified afterwards.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class AsyncAuditEventWriter implements Consumer<Map<String, Object>>, PingTest {
+
+  /**
+   * What to do with an event when the queue is full.
+   */
+  public enum OverflowPolicy {
+
+    /** Discard the event. */
+    DROP,
+
+    /**
+     * Wait up to {@code offerTimeoutMs} for space in the queue, then discard the event.
+     */
+    BLOCK,
+
+    /** Write the event on the calling thread. */
+    CALLER_RUNS;
+
+  }
+
+  /**
+   * The default value for the {@code queueSize} property.
+   */
+  public static final int DEFAULT_QUEUE_SIZE = 4096;
+
+  /**
+   * The default value for the {@code batchSize} property.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  /**
+   * The default value for the {@code flushDelayMs} property.
+   */
+  public static final long DEFAULT_FLUSH_DELAY_MS = 5L;
+
+  /**
+   * The default value for the {@code overflowPolicy} property.
+   */
+  public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.CALLER_RUNS;
+
+  /**
+   * The default value for the {@code offerTimeoutMs} property.
+   */
+  public static final long DEFAULT_OFFER_TIMEOUT_MS = 1000L;
+
+  private static final Map<String, Object> STOP = Collections.unmodifiableMap(new HashMap<>(0));
+
+  private static final Logger log = LoggerFactory.getLogger(AsyncAuditEventWriter.class);
+
+  private final ObjectMapper objectMapper = JsonUtils.newObjectMapper();
+  private int queueSize = DEFAULT_QUEUE_SIZE;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private long flushDelayMs = DEFAULT_FLUSH_DELAY_MS;
+  private OverflowPolicy overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+  private long offerTimeoutMs = DEFAULT_OFFER_TIMEOUT_MS;
+  private MeterRegistry meterRegistry;
+
+  private final AtomicLong writtenCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong callerRunsCount = new AtomicLong();
+  private final AtomicLong flushCount = new AtomicLong();
+  private final AtomicLong maxBatchCount = new AtomicLong();
+  private BlockingQueue<Map<String, Object>> queue;
+  private Thread thread;
+
+  /**
+   * Start writing events, and install this writer as the audit event handler.
+   */
+  public synchronized void start() {
+    if (thread != null) {
+      return;
+    }
+    final BlockingQueue<Map<String, Object>> q = new ArrayBlockingQueue<>(queueSize);
+    queue = q;
+    Thread t = new CustomizableThreadFactory("SolarSSH-Audit-").newThread(() -> run(q));
+    t.setDaemon(true);
+    t.start();
+    thread = t;
+    if (meterRegistry != null) {
+      registerMeters(meterRegistry);
+    }
+    Globals.setAuditEventHandler(this);
+    log.info("Audit events queued for writing, up to {} events with {} overflow policy",
+        queueSize, overflowPolicy);
+  }
+
+  /**
+   * Stop writing events, after writing all queued events.
+   * 
+   * <p>
+   * Events logged after this is called are written on the calling thread.
+   * </p>
+   */
+  public synchronized void stop() {
+    Thread t = thread;
+    if (t == null) {
+      return;
+    }
+    Globals.setAuditEventHandler(null);
+    thread = null;
+    try {
+      queue.put(STOP);
+      t.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // write anything queued by threads that had not seen the handler change yet
+    Map<String, Object> event;
+    while ((event = queue.poll()) != null) {
+      if (event != STOP) {
+        Globals.writeAuditEvent(event);
+        writtenCount.incrementAndGet();
+      }
+    }
+  }
+
+  private void registerMeters(MeterRegistry registry) {
+    Gauge.builder("solarssh.audit.queue", this, w -> w.queueDepth())
+        .description("Audit events waiting to be written").register(registry);
+    FunctionCounter.builder("solarssh.audit.dropped", droppedCount, AtomicLong::get)
+        .description("Audit events discarded because the queue was full").register(registry);
+  }
+
+  private int queueDepth() {
+    final BlockingQueue<Map<String, Object>> q = queue;
+    return (q != null ? q.size() : 0);
+  }
+
+  /**
+   * Queue an audit event for writing.
+   * 
+   * @param event
+   *        the event properties
+   */
+  @Override
+  public void accept(Map<String, Object> event) {
+    final BlockingQueue<Map<String, Object>> q = queue;
+    if (q == null || event == null) {
+      return;
+    }
+    if (q.offer(event)) {
+      return;
+    }
+    switch (overflowPolicy) {
+      case CALLER_RUNS:
+        callerRunsCount.incrementAndGet();
+        Globals.writeAuditEvent(event);
+        writtenCount.incrementAndGet();
+        return;
+
+      case BLOCK:
+        try {
+          if (q.offer(event, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+            return;
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        break;
+
+      default:
+        // drop
+    }
+    if (droppedCount.incrementAndGet() == 1) {
+      log.warn("Audit event queue full, discarding event {}", event);
+    } else {
+      log.debug("Audit event queue full, discarding event {}", event);
+    }
+  }
+
+  private void run(BlockingQueue<Map<String, Object>> q) {
+    final StringWriter buf = new StringWriter(256);
+    final List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+    // don't wait for more events once the queue is filling up
+    final int delayThreshold = Math.min(batchSize, Math.max(1, queueSize / 2));
+    JsonGenerator generator = null;
+    boolean stopped = false;
+    while (!stopped) {
+      try {
+        batch.add(q.take());
+        if (flushDelayMs > 0 && q.size() < delayThreshold) {
+          Thread.sleep(flushDelayMs);
+        }
+      } catch (InterruptedException e) {
+        // continue
+      }
+      q.drainTo(batch, batchSize - batch.size());
+      if (batch.isEmpty()) {
+        continue;
+      }
+      for (Map<String, Object> event : batch) {
+        if (event == STOP) {
+          stopped = true;
+          continue;
+        }
+        try {
+          if (generator == null) {
+            generator = createGenerator(buf);
+          }
+          writeEvent(generator, event);
+          AUDIT_LOG.info(buf.toString());
+          writtenCount.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+          log.warn("Error writing audit event {}: {}", event, e.toString());
+          generator = null;
+        }
+        buf.getBuffer().setLength(0);
+      }
+      Globals.flushAuditLog();
+      flushCount.incrementAndGet();
+      maxBatchCount.accumulateAndGet(batch.size(), Math::max);
+      batch.clear();
+    }
+  }
+
+  private JsonGenerator createGenerator(StringWriter buf) throws IOException {
+    JsonGenerator generator = objectMapper.createGenerator(buf);
+    generator.setRootValueSeparator(null);
+    return generator;
+  }
+
+  private static void writeEvent(JsonGenerator generator, Map<String, Object> event)
+      throws IOException {
+    generator.writeStartObject();
+    for (Map.Entry<String, Object> e : event.entrySet()) {
+      generator.writeFieldName(e.getKey());
+      Object val = e.getValue();
+      if (val instanceof String s) {
+        generator.writeString(s);
+      } else if (val instanceof Long n) {
+        generator.writeNumber(n);
+      } else if (val instanceof Integer n) {
+        generator.writeNumber(n);
+      } else {
+        generator.writeObject(val);
+      }
+    }
+    generator.writeEndObject();
+    generator.flush();
+  }
+
+  @Override
+  public String getPingTestId() {
+    return getClass().getName();
+  }
+
+  @Override
+  public String getPingTestName() {
+    return "Audit Event Writer";
+  }
+
+  @Override
+  public long getPingTestMaximumExecutionMilliseconds() {
+    return 1000;
+  }
+
+  @Override
+  public Result performPingTest() throws Exception {
+    Map<String, Object> properties = new LinkedHashMap<>(8);
+    final int depth = queueDepth();
+    final long written = writtenCount.get();
+    final long dropped = droppedCount.get();
+    properties.put("queueSize", queueSize);
+    properties.put("queuedCount", depth);
+    properties.put("writtenCount", written);
+    properties.put("droppedCount", dropped);
+    properties.put("callerRunsCount", callerRunsCount.get());
+    properties.put("flushCount", flushCount.get());
+    properties.put("maxBatchCount", maxBatchCount.get());
+    return new PingTestResult(thread != null,
+        String.format("%d events written, %d queued, %d dropped.", written, depth, dropped),
+        properties);
+  }
+
+  /**
+   * Set the maximum number of events that can be queued.
+   * 
+   * <p>
+   * Must be configured before {@link #start()} is called.
+   * </p>
+   * 
+   * @param queueSize
+   *        the queue size; defaults to {@link #DEFAULT_QUEUE_SIZE}
+   * @throws IllegalArgumentException
+   *         if {@code queueSize} is less than {@literal 1}
+   */
+  public void setQueueSize(int queueSize) {
+    if (queueSize < 1) {
+      throw new IllegalArgumentException("queueSize must be at least 1");
+    }
+    this.queueSize = queueSize;
+  }
+
+  /**
+   * Set the maximum number of events to write before flushing the audit log.
+   * 
+   * <p>
+   * Must be configured before {@link #start()} is called.
+   * </p>
+   * 
+   * @param batchSize
+   *        the batch size; defaults to {@link #DEFAULT_BATCH_SIZE}
+   * @throws IllegalArgumentException
+   *         if {@code batchSize} is less than {@literal 1}
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be at least 1");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Set the maximum number of milliseconds to wait for more events before writing.
+   * 
+   * @param flushDelayMs
+   *        the delay, in milliseconds, or {@literal 0} to write events as soon as they are
+   *        received; defaults to {@link #DEFAULT_FLUSH_DELAY_MS}
+   */
+  public void setFlushDelayMs(long flushDelayMs) {
+    this.flushDelayMs = flushDelayMs;
+  }
+
+  /**
+   * Set the policy to apply to events logged while the queue is full.
+   * 
+   * @param overflowPolicy
+   *        the policy; defaults to {@link #DEFAULT_OVERFLOW_POLICY}
+   * @throws IllegalArgumentException
+   *         if {@code overflowPolicy} is {@literal null}
+   */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("overflowPolicy must not be null");
+    }
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Set the maximum number of milliseconds to wait for space in the queue, when using the
+   * {@link OverflowPolicy#BLOCK} policy.
+   * 
+   * @param offerTimeoutMs
+   *        the maximum wait, in milliseconds; defaults to {@link #DEFAULT_OFFER_TIMEOUT_MS}
+   */
+  public void setOfferTimeoutMs(long offerTimeoutMs) {
+    this.offerTimeoutMs = offerTimeoutMs;
+  }
+
+  /**
+   * Set a registry to record metrics with.
+   * 
+   * <p>
+   * Must be configured before {@link #start()} is called.
+   * </p>
+   * 
+   * @param meterRegistry
+   *        the registry, or {@literal null} to not record metrics
+   */
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+}
@@ -0,0 +1,78 @@
+/* ==================================================================
+ * AsyncCredentialsAuthException.java - 16/10/2026 1:47:09 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.sshd.server.auth.AsyncAuthException;
+
+/**
+ * {@link AsyncAuthException} for authentication where the credentials themselves are verified
+ * asynchronously.
+ * 
+ * <p>
+ * An asynchronous authentication can fail for reasons other than invalid credentials, such as a
+ * node not connecting in time. This exception lets wrapping authenticators, such as brute force
+ * mitigation, react to just the credentials being rejected.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class AsyncCredentialsAuthException extends AsyncAuthException {
+
+  private static final long serialVersionUID = -3529478061226512704L;
+
+  private final transient CompletableFuture<Void> rejected = new CompletableFuture<>();
+
+  /**
+   * Constructor.
+   */
+  public AsyncCredentialsAuthException() {
+    super();
+  }
+
+  /**
+   * Signal that the credentials have been rejected and fail the authentication.
+   */
+  public void credentialsRejected() {
+    rejected.complete(null);
+    setAuthed(false);
+  }
+
+  /**
+   * Register a callback to run if the credentials are rejected.
+   * 
+   * <p>
+   * If the credentials have already been rejected, the callback is run immediately on the calling
+   * thread.
+   * </p>
+   * 
+   * @param callback
+   *        the callback
+   */
+  public void whenCredentialsRejected(Runnable callback) {
+    rejected.thenRun(callback);
+  }
+
+}
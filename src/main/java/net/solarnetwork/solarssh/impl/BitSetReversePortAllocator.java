@@ -0,0 +1,267 @@
+/* ==================================================================
+ * BitSetReversePortAllocator.java - 16/10/2026 9:24:51 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.solarnetwork.solarssh.service.ReversePortAllocator;
+
+/**
+ * {@link ReversePortAllocator} backed by an atomic bit set of port pairs.
+ * 
+ * <p>
+ * Each bit represents one pair of ports, starting at {@code minPort} and increasing by two. A
+ * rotating cursor is used as the starting point for each allocation, so that allocations spread
+ * evenly across the port range. Released ports are held in quarantine for
+ * {@code quarantineSeconds} before they can be allocated again, to avoid re-using a port a
+ * previous connection might still be bound to. Releasing a port that is not allocated, or is
+ * already in quarantine, has no effect.
+ * </p>
+ * 
+ * <p>
+ * If {@code verifyPortsAvailable} is enabled, each candidate port pair is verified by binding a
+ * socket to both ports before it is returned. A pair that fails verification is quarantined and
+ * the next candidate is tried.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.1
+ */
+public class BitSetReversePortAllocator implements ReversePortAllocator {
+
+  /**
+   * The default value for the {@code quarantineSeconds} property.
+   */
+  public static final int DEFAULT_QUARANTINE_SECONDS = 60;
+
+  private static final Logger log = LoggerFactory.getLogger(BitSetReversePortAllocator.class);
+
+  private final int minPort;
+  private final int slotCount;
+  private final AtomicLongArray slots;
+  private final AtomicInteger cursor = new AtomicInteger();
+  private final AtomicInteger allocatedCount = new AtomicInteger();
+  // guarded by quarantine
+  private final Queue<QuarantinedSlot> quarantine = new ArrayDeque<>();
+  private final BitSet quarantined;
+
+  private int quarantineSeconds = DEFAULT_QUARANTINE_SECONDS;
+  private boolean verifyPortsAvailable = true;
+
+  private static final class QuarantinedSlot {
+
+    private final int slot;
+    private final long expires;
+
+    private QuarantinedSlot(int slot, long expires) {
+      super();
+      this.slot = slot;
+      this.expires = expires;
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param minPort
+   *        the minimum port to allocate
+   * @param maxPort
+   *        the maximum port to allocate
+   * @throws IllegalArgumentException
+   *         if {@code maxPort} is not greater than {@code minPort}
+   */
+  public BitSetReversePortAllocator(int minPort, int maxPort) {
+    super();
+    if (maxPort <= minPort) {
+      throw new IllegalArgumentException("The maxPort must be greater than minPort.");
+    }
+    this.minPort = minPort;
+    this.slotCount = (maxPort - minPort + 1) / 2;
+    this.slots = new AtomicLongArray((slotCount + 63) >>> 6);
+    this.quarantined = new BitSet(slotCount);
+  }
+
+  @Override
+  public int allocatePort() {
+    releaseExpiredQuarantine(System.currentTimeMillis());
+    for (int attempt = 0; attempt < slotCount; attempt++) {
+      final int slot = claimNextSlot();
+      if (slot < 0) {
+        break;
+      }
+      final int port = minPort + (slot << 1);
+      if (!verifyPortsAvailable || portsAvailable(port)) {
+        allocatedCount.incrementAndGet();
+        return port;
+      }
+      log.debug("Reverse port {} not available; quarantining", port);
+      synchronized (quarantine) {
+        quarantine(slot);
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public void releasePort(int port) {
+    final int slot = (port - minPort) >> 1;
+    if (port < minPort || ((port - minPort) & 1) != 0 || slot >= slotCount) {
+      return;
+    }
+    synchronized (quarantine) {
+      if (!isSet(slot) || quarantined.get(slot)) {
+        // not allocated, or already released
+        return;
+      }
+      allocatedCount.decrementAndGet();
+      if (quarantineSeconds > 0) {
+        quarantine(slot);
+      } else {
+        clear(slot);
+      }
+    }
+  }
+
+  @Override
+  public int getAllocatedCount() {
+    return allocatedCount.get();
+  }
+
+  /**
+   * Get the count of ports currently held in quarantine.
+   * 
+   * @return the quarantined port count
+   */
+  public int getQuarantinedCount() {
+    synchronized (quarantine) {
+      return quarantine.size();
+    }
+  }
+
+  private int claimNextSlot() {
+    final int start = Math.floorMod(cursor.get(), slotCount);
+    int n = 0;
+    while (n < slotCount) {
+      final int slot = (start + n) % slotCount;
+      final int idx = slot >>> 6;
+      final long word = slots.get(idx);
+      if (word == -1L) {
+        // whole word allocated; skip to the next word
+        n += 64 - (slot & 63);
+        continue;
+      }
+      final long mask = 1L << (slot & 63);
+      if ((word & mask) == 0) {
+        if (slots.compareAndSet(idx, word, word | mask)) {
+          cursor.set(slot + 1);
+          return slot;
+        }
+        // lost a race for this word; try the same slot again
+        continue;
+      }
+      n++;
+    }
+    return -1;
+  }
+
+  private boolean isSet(int slot) {
+    return (slots.get(slot >>> 6) & (1L << (slot & 63))) != 0;
+  }
+
+  private void clear(int slot) {
+    final int idx = slot >>> 6;
+    final long mask = 1L << (slot & 63);
+    long word;
+    do {
+      word = slots.get(idx);
+    } while (!slots.compareAndSet(idx, word, word & ~mask));
+  }
+
+  // must be called while holding the quarantine lock
+  private void quarantine(int slot) {
+    quarantined.set(slot);
+    quarantine.add(new QuarantinedSlot(slot,
+        System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(quarantineSeconds)));
+  }
+
+  private void releaseExpiredQuarantine(long now) {
+    synchronized (quarantine) {
+      QuarantinedSlot q;
+      while ((q = quarantine.peek()) != null && q.expires <= now) {
+        quarantine.remove();
+        quarantined.clear(q.slot);
+        clear(q.slot);
+      }
+    }
+  }
+
+  private static boolean portsAvailable(int port) {
+    try (ServerSocket socket = new ServerSocket();
+        ServerSocket httpSocket = new ServerSocket()) {
+      socket.setReuseAddress(true);
+      socket.bind(new InetSocketAddress(port));
+      httpSocket.setReuseAddress(true);
+      httpSocket.bind(new InetSocketAddress(port + 1));
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Set the number of seconds released ports are held in quarantine before being allocated again.
+   * 
+   * @param quarantineSeconds
+   *        the quarantine seconds; defaults to {@link #DEFAULT_QUARANTINE_SECONDS}
+   */
+  public void setQuarantineSeconds(int quarantineSeconds) {
+    this.quarantineSeconds = quarantineSeconds;
+  }
+
+  /**
+   * Toggle verifying allocated ports are available by binding sockets to them.
+   * 
+   * <p>
+   * This can be disabled when the configured port range is reserved for use only by SolarSSH.
+   * </p>
+   * 
+   * @param verifyPortsAvailable
+   *        {@literal true} to verify ports are available; defaults to {@literal true}
+   */
+  public void setVerifyPortsAvailable(boolean verifyPortsAvailable) {
+    this.verifyPortsAvailable = verifyPortsAvailable;
+  }
+
+}
@@ -22,8 +22,7 @@
 
 package net.solarnetwork.solarssh.impl;
 
-import static net.solarnetwork.codec.JsonUtils.getJSONString;
-import static net.solarnetwork.solarssh.Globals.AUDIT_LOG;
+import static net.solarnetwork.solarssh.Globals.logAuditEvent;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -31,28 +30,29 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.Map;
 
-import javax.cache.Cache;
-
 import org.apache.sshd.common.io.IoAcceptor;
 import org.apache.sshd.common.io.IoServiceEventListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.micrometer.core.instrument.Counter;
 import net.solarnetwork.solarssh.Globals;
+import net.solarnetwork.solarssh.service.BruteForceDenyList;
 
 /**
  * {@link IoServiceEventListener} implementation for a dynamic "deny" firewall based on remote IP
  * addresses that fail to authenticate.
  * 
  * @author matt
- * @version 1.1
+ * @version 1.4
  */
 public class BruteForceDenyEventListener implements IoServiceEventListener {
 
   private static final Logger log = LoggerFactory.getLogger(BruteForceDenyEventListener.class);
 
-  private final Cache<InetAddress, Byte> denyList;
+  private final BruteForceDenyList denyList;
   private int maxFails = 1;
+  private Counter blockedCounter;
 
   /**
    * Constructor.
@@ -62,7 +62,7 @@ public class BruteForceDenyEventListener implements IoServiceEventListener {
    * @throws IllegalArgumentException
    *         if any argument is {@literal null}
    */
-  public BruteForceDenyEventListener(Cache<InetAddress, Byte> denyList) {
+  public BruteForceDenyEventListener(BruteForceDenyList denyList) {
     super();
     if (denyList == null) {
       throw new IllegalArgumentException("The denyList argument must not be null.");
@@ -75,15 +75,13 @@ public class BruteForceDenyEventListener implements IoServiceEventListener {
       SocketAddress service) throws IOException {
     if (remote instanceof InetSocketAddress) {
       InetAddress src = ((InetSocketAddress) remote).getAddress();
-      if (denyList.containsKey(src)) {
-        Byte count = denyList.get(src);
-        if (count != null) {
-          final int attempts = Byte.toUnsignedInt(count);
-          if (attempts >= maxFails) {
-            logBruteForceDeny(src, attempts, "blocked");
-            throw new IOException("Blocked.");
-          }
+      final int attempts = denyList.getCount(src);
+      if (attempts > 0 && attempts >= maxFails) {
+        if (blockedCounter != null) {
+          blockedCounter.increment();
         }
+        logBruteForceDeny(src, attempts, "blocked");
+        throw new IOException("Blocked.");
       }
     }
   }
@@ -92,7 +90,7 @@ public class BruteForceDenyEventListener implements IoServiceEventListener {
     log.info("{} connection blocked via brute force filter", src);
     Map<String, Object> auditProps = Globals.auditEventMap(src.toString(), auditEventName);
     auditProps.put("attempts", count);
-    AUDIT_LOG.info(getJSONString(auditProps, "{}"));
+    logAuditEvent(auditProps);
   }
 
   /**
@@ -114,4 +112,15 @@ public class BruteForceDenyEventListener implements IoServiceEventListener {
     this.maxFails = maxFails;
   }
 
+  /**
+   * Set a counter to increment when an address is blocked.
+   * 
+   * @param blockedCounter
+   *        the counter, or {@literal null} for none
+   * @since 1.3
+   */
+  public void setBlockedCounter(Counter blockedCounter) {
+    this.blockedCounter = blockedCounter;
+  }
+
 }
@@ -22,20 +22,24 @@
 
 package net.solarnetwork.solarssh.impl;
 
-import java.net.InetAddress;
-
-import javax.cache.Cache;
-
+import org.apache.sshd.common.RuntimeSshException;
 import org.apache.sshd.server.auth.AsyncAuthException;
 import org.apache.sshd.server.auth.password.PasswordAuthenticator;
 import org.apache.sshd.server.auth.password.PasswordChangeRequiredException;
 import org.apache.sshd.server.session.ServerSession;
 
+import net.solarnetwork.solarssh.service.BruteForceDenyList;
+
 /**
  * {@link PasswordAuthenticator} that works with a brute force deny list.
  * 
+ * <p>
+ * If the delegate throws an {@link AsyncCredentialsAuthException}, the failure is recorded once the
+ * credentials are rejected.
+ * </p>
+ * 
  * @author matt
- * @version 1.0
+ * @version 1.2
  */
 public class BruteForceDenyPasswordAuthenticator extends AbstractBruteForceAuthenticator
     implements PasswordAuthenticator {
@@ -53,7 +57,7 @@ public class BruteForceDenyPasswordAuthenticator extends AbstractBruteForceAuthe
    *         if any argument is {@literal null}
    */
   public BruteForceDenyPasswordAuthenticator(PasswordAuthenticator delegate,
-      Cache<InetAddress, Byte> denyList) {
+      BruteForceDenyList denyList) {
     super(denyList);
     if (delegate == null) {
       throw new IllegalArgumentException("The delegate argument must not be null.");
@@ -64,7 +68,19 @@ public class BruteForceDenyPasswordAuthenticator extends AbstractBruteForceAuthe
   @Override
   public boolean authenticate(String username, String password, ServerSession session)
       throws PasswordChangeRequiredException, AsyncAuthException {
-    boolean result = delegate.authenticate(username, password, session);
+    boolean result;
+    try {
+      result = delegate.authenticate(username, password, session);
+    } catch (AsyncCredentialsAuthException e) {
+      e.whenCredentialsRejected(() -> {
+        try {
+          handleAuthenticationFailure(username, session);
+        } catch (RuntimeSshException e2) {
+          // blocked, session already closed
+        }
+      });
+      throw e;
+    }
     if (!result) {
       handleAuthenticationFailure(username, session);
     }
@@ -22,21 +22,20 @@
 
 package net.solarnetwork.solarssh.impl;
 
-import java.net.InetAddress;
 import java.security.PublicKey;
 
-import javax.cache.Cache;
-
 import org.apache.sshd.server.auth.AsyncAuthException;
 import org.apache.sshd.server.auth.password.PasswordChangeRequiredException;
 import org.apache.sshd.server.auth.pubkey.PublickeyAuthenticator;
 import org.apache.sshd.server.session.ServerSession;
 
+import net.solarnetwork.solarssh.service.BruteForceDenyList;
+
 /**
  * {@link PublicKeyAuthenticator} that works with a brute force deny list.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public class BruteForcePublicKeyAuthenticator extends AbstractBruteForceAuthenticator
     implements PublickeyAuthenticator {
@@ -54,7 +53,7 @@ public class BruteForcePublicKeyAuthenticator extends AbstractBruteForceAuthenti
    *         if any argument is {@literal null}
    */
   public BruteForcePublicKeyAuthenticator(PublickeyAuthenticator delegate,
-      Cache<InetAddress, Byte> denyList) {
+      BruteForceDenyList denyList) {
     super(denyList);
     if (delegate == null) {
       throw new IllegalArgumentException("The delegate argument must not be null.");
@@ -0,0 +1,82 @@
+/* ==================================================================
+ * CacheEntryCounter.java - 17/10/2026 10:41:06 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventType;
+
+/**
+ * Ehcache event listener that tracks the number of entries in a cache.
+ * 
+ * <p>
+ * JCache does not provide a cheap way to get the size of a cache, and does not report entries
+ * evicted because the cache is full. This listener must be registered on the native Ehcache
+ * configuration for the {@link EventType#CREATED}, {@link EventType#REMOVED},
+ * {@link EventType#EXPIRED}, and {@link EventType#EVICTED} events, and keeps a running count of
+ * entries from them.
+ * </p>
+ * 
+ * <p>
+ * Ehcache expires entries lazily, so the count includes expired entries that have not been
+ * accessed or evicted yet. When registered asynchronously the count lags the cache slightly.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class CacheEntryCounter implements CacheEventListener<Object, Object> {
+
+  private final AtomicLong count = new AtomicLong();
+
+  @Override
+  public void onEvent(CacheEvent<? extends Object, ? extends Object> event) {
+    switch (event.getType()) {
+      case CREATED:
+        count.incrementAndGet();
+        break;
+
+      case REMOVED:
+      case EXPIRED:
+      case EVICTED:
+        count.decrementAndGet();
+        break;
+
+      default:
+        // nothing
+    }
+  }
+
+  /**
+   * Get the number of entries in the cache.
+   * 
+   * @return the entry count
+   */
+  public long getCount() {
+    // asynchronous events can arrive out of order
+    return Math.max(0L, count.get());
+  }
+
+}
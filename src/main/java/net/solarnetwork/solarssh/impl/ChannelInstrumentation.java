@@ -0,0 +1,414 @@
+/* ==================================================================
+ * ChannelInstrumentation.java - 16/10/2026 9:31:47 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sshd.client.channel.ClientChannel;
+import org.apache.sshd.common.AttributeRepository.AttributeKey;
+import org.apache.sshd.common.SshConstants;
+import org.apache.sshd.common.channel.Channel;
+import org.apache.sshd.common.channel.ChannelListener;
+import org.apache.sshd.common.channel.throttle.ChannelStreamWriter;
+import org.apache.sshd.common.channel.throttle.ChannelStreamWriterResolver;
+import org.apache.sshd.common.channel.throttle.DefaultChannelStreamWriter;
+import org.apache.sshd.common.io.IoWriteFuture;
+import org.apache.sshd.common.util.buffer.Buffer;
+
+import net.solarnetwork.service.PingTest;
+import net.solarnetwork.service.PingTestResult;
+import net.solarnetwork.solarssh.dao.SshSessionDao;
+import net.solarnetwork.solarssh.domain.NodeChannelStatistics;
+import net.solarnetwork.solarssh.domain.SshSession;
+
+/**
+ * Channel listener that records per-channel traffic statistics, aggregated by node ID.
+ * 
+ * <p>
+ * Channels are associated with a node by resolving their session via {@link SshSessionDao}. Only
+ * channels on the node's own server session are tracked, as every tunnel to a node passes through
+ * a channel on that session; the direct-tcpip channel a direct SSH client opens for the same
+ * tunnel is not counted again. Channels on sessions that do not resolve to a {@link SshSession}
+ * are not tracked. Outbound data
+ * is counted by wrapping each channel's {@link ChannelStreamWriter}; inbound data must be reported
+ * by the connection service via {@link #dataReceived(Channel, long)}, see
+ * {@link InstrumentedServerConnectionService}.
+ * </p>
+ * 
+ * <p>
+ * A window stall is counted when a channel exhausts its remote window and must wait for a window
+ * adjustment from the peer before sending more data.
+ * </p>
+ * 
+ * <p>
+ * Statistics for a node are discarded by {@link #removeIdleNodeStatistics()} once the node has no
+ * open channels and no channel has opened or closed for {@code nodeIdleSeconds}.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.1
+ */
+public class ChannelInstrumentation implements ChannelListener, PingTest {
+
+  /**
+   * The default value for the {@code nodeIdleSeconds} property.
+   * 
+   * @since 1.1
+   */
+  public static final int DEFAULT_NODE_IDLE_SECONDS = 3600;
+
+  private static final AttributeKey<ChannelMetrics> METRICS_ATTR = new AttributeKey<>();
+
+  private static final String WINDOW_ADJUST_HINT = "SSH_MSG_CHANNEL_WINDOW_ADJUST";
+
+  private final SshSessionDao sessionDao;
+  private final ConcurrentMap<Long, NodeChannelStatistics> nodeStats = new ConcurrentHashMap<>();
+  private int nodeIdleSeconds = DEFAULT_NODE_IDLE_SECONDS;
+
+  /**
+   * Constructor.
+   * 
+   * @param sessionDao
+   *        the session DAO to resolve channel nodes with
+   */
+  public ChannelInstrumentation(SshSessionDao sessionDao) {
+    super();
+    this.sessionDao = sessionDao;
+  }
+
+  @Override
+  public void channelInitialized(Channel channel) {
+    SshSession sess = sessionDao.findOne(channel.getSession());
+    if (sess == null || sess.getNodeId() == null
+        || sess.getServerSession() != channel.getSession()) {
+      return;
+    }
+    NodeChannelStatistics stats = nodeStats.compute(sess.getNodeId(), (k, v) -> {
+      // mark active within compute, so the statistics are not removed before the channel opens
+      NodeChannelStatistics s = (v != null ? v : new NodeChannelStatistics(k));
+      s.markActive();
+      return s;
+    });
+    ChannelMetrics metrics = new ChannelMetrics(stats, channel instanceof ClientChannel);
+    channel.setAttribute(METRICS_ATTR, metrics);
+    ChannelStreamWriterResolver resolver = channel.resolveChannelStreamWriterResolver();
+    channel.setChannelStreamWriterResolver((c, cmd) -> new CountingStreamWriter(
+        resolver != null ? resolver.resolveChannelStreamWriter(c, cmd)
+            : new DefaultChannelStreamWriter(c),
+        c, metrics));
+  }
+
+  @Override
+  public void channelOpenSuccess(Channel channel) {
+    ChannelMetrics metrics = channel.getAttribute(METRICS_ATTR);
+    if (metrics != null) {
+      metrics.opened();
+    }
+  }
+
+  @Override
+  public void channelOpenFailure(Channel channel, Throwable reason) {
+    ChannelMetrics metrics = channel.removeAttribute(METRICS_ATTR);
+    if (metrics != null) {
+      metrics.stats.channelOpenFailed();
+    }
+  }
+
+  @Override
+  public void channelStateChanged(Channel channel, String hint) {
+    if (WINDOW_ADJUST_HINT.equals(hint)) {
+      ChannelMetrics metrics = channel.getAttribute(METRICS_ATTR);
+      if (metrics != null) {
+        metrics.windowExpanded();
+      }
+    }
+  }
+
+  @Override
+  public void channelClosed(Channel channel, Throwable reason) {
+    ChannelMetrics metrics = channel.removeAttribute(METRICS_ATTR);
+    if (metrics != null) {
+      metrics.closed();
+    }
+  }
+
+  /**
+   * Record data received on a channel.
+   * 
+   * @param channel
+   *        the channel
+   * @param len
+   *        the number of data bytes received
+   */
+  public void dataReceived(Channel channel, long len) {
+    ChannelMetrics metrics = channel.getAttribute(METRICS_ATTR);
+    if (metrics != null) {
+      metrics.received(len);
+    }
+  }
+
+  /**
+   * Get the statistics for a specific node.
+   * 
+   * @param nodeId
+   *        the node ID
+   * @return the statistics, or {@literal null} if no channels have been opened for the node
+   */
+  public NodeChannelStatistics getNodeStatistics(Long nodeId) {
+    return (nodeId != null ? nodeStats.get(nodeId) : null);
+  }
+
+  /**
+   * Get the statistics for all nodes, ordered by total bytes transferred, largest first.
+   * 
+   * @param max
+   *        the maximum number of results to return, or {@literal 0} for no limit
+   * @return the statistics, never {@literal null}
+   */
+  public List<NodeChannelStatistics> getNodeStatistics(int max) {
+    List<NodeChannelStatistics> result = new ArrayList<>(nodeStats.values());
+    result.sort(Comparator.comparingLong(NodeChannelStatistics::getBytesTotal).reversed());
+    if (max > 0 && result.size() > max) {
+      return new ArrayList<>(result.subList(0, max));
+    }
+    return result;
+  }
+
+  /**
+   * Remove the statistics of nodes that have been idle for at least {@code nodeIdleSeconds}.
+   * 
+   * <p>
+   * A node is idle when it has no open channels and no channel has been opened or closed. This
+   * method should be called periodically.
+   * </p>
+   * 
+   * @since 1.1
+   */
+  public void removeIdleNodeStatistics() {
+    final long idleExpire = System.currentTimeMillis()
+        - TimeUnit.SECONDS.toMillis(nodeIdleSeconds);
+    for (Long nodeId : nodeStats.keySet()) {
+      // remove within computeIfPresent, so a channel being initialized keeps the statistics
+      nodeStats.computeIfPresent(nodeId,
+          (k, v) -> (v.getOpenChannelCount() < 1 && v.getLastActive() < idleExpire ? null : v));
+    }
+  }
+
+  /**
+   * Set the number of seconds a node must be idle before its statistics are removed.
+   * 
+   * @param nodeIdleSeconds
+   *        the idle time, in seconds
+   * @since 1.1
+   */
+  public void setNodeIdleSeconds(int nodeIdleSeconds) {
+    this.nodeIdleSeconds = nodeIdleSeconds;
+  }
+
+  @Override
+  public String getPingTestId() {
+    return getClass().getName();
+  }
+
+  @Override
+  public String getPingTestName() {
+    return "SolarSSH Channel Traffic";
+  }
+
+  @Override
+  public long getPingTestMaximumExecutionMilliseconds() {
+    return 1000;
+  }
+
+  @Override
+  public Result performPingTest() throws Exception {
+    long channels = 0;
+    long open = 0;
+    long failures = 0;
+    long in = 0;
+    long out = 0;
+    long stalls = 0;
+    for (NodeChannelStatistics stats : nodeStats.values()) {
+      channels += stats.getChannelCount();
+      open += stats.getOpenChannelCount();
+      failures += stats.getOpenFailureCount();
+      in += stats.getBytesIn();
+      out += stats.getBytesOut();
+      stalls += stats.getWindowStallCount();
+    }
+    Map<String, Object> properties = new LinkedHashMap<>(8);
+    properties.put("nodeCount", nodeStats.size());
+    properties.put("channelCount", channels);
+    properties.put("openChannelCount", open);
+    properties.put("openFailureCount", failures);
+    properties.put("bytesIn", in);
+    properties.put("bytesOut", out);
+    properties.put("windowStallCount", stalls);
+    String msg = String.format("%d channels open, %d bytes in, %d bytes out.", open, in, out);
+    return new PingTestResult(true, msg, properties);
+  }
+
+  /**
+   * Metrics for a single channel.
+   */
+  private static final class ChannelMetrics {
+
+    private final NodeChannelStatistics stats;
+    private final boolean firstByteInbound;
+    private final AtomicLong stallStart = new AtomicLong();
+    private volatile long openedAt;
+    private volatile boolean firstByteSeen;
+
+    private ChannelMetrics(NodeChannelStatistics stats, boolean firstByteInbound) {
+      super();
+      this.stats = stats;
+      this.firstByteInbound = firstByteInbound;
+    }
+
+    private void opened() {
+      openedAt = System.nanoTime();
+      stats.channelOpened();
+    }
+
+    private void closed() {
+      final long start = openedAt;
+      if (start != 0) {
+        stats.channelClosed(System.nanoTime() - start);
+      }
+    }
+
+    private void received(long len) {
+      stats.dataReceived(len);
+      if (firstByteInbound) {
+        checkFirstByte();
+      }
+    }
+
+    private void sent(long len) {
+      stats.dataSent(len);
+      if (!firstByteInbound) {
+        checkFirstByte();
+      }
+    }
+
+    private void checkFirstByte() {
+      if (firstByteSeen) {
+        return;
+      }
+      final long start = openedAt;
+      if (start != 0) {
+        firstByteSeen = true;
+        stats.firstByte(System.nanoTime() - start);
+      }
+    }
+
+    private void windowExhausted() {
+      stallStart.compareAndSet(0, System.nanoTime());
+    }
+
+    private void windowExpanded() {
+      final long start = stallStart.getAndSet(0);
+      if (start != 0) {
+        stats.windowStalled(System.nanoTime() - start);
+      }
+    }
+
+  }
+
+  /**
+   * Stream writer that counts channel data bytes sent.
+   */
+  private static final class CountingStreamWriter implements ChannelStreamWriter {
+
+    private final ChannelStreamWriter delegate;
+    private final Channel channel;
+    private final ChannelMetrics metrics;
+
+    private CountingStreamWriter(ChannelStreamWriter delegate, Channel channel,
+        ChannelMetrics metrics) {
+      super();
+      this.delegate = delegate;
+      this.channel = channel;
+      this.metrics = metrics;
+    }
+
+    @Override
+    public IoWriteFuture writeData(Buffer buffer) throws IOException {
+      // the buffer is encoded in place when written, so read the data length first
+      final int rpos = buffer.rpos();
+      final byte cmd = buffer.getByte();
+      final long len = dataLength(buffer, cmd == SshConstants.SSH_MSG_CHANNEL_EXTENDED_DATA);
+      buffer.rpos(rpos);
+      IoWriteFuture result = delegate.writeData(buffer);
+      metrics.sent(len);
+      if (channel.getRemoteWindow().getSize() < 1) {
+        metrics.windowExhausted();
+      }
+      return result;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return delegate.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+
+  }
+
+  /**
+   * Get the data length from a channel data message buffer, without changing the buffer position.
+   * 
+   * @param buffer
+   *        the buffer, positioned just after the message command
+   * @param extended
+   *        {@literal true} for a {@literal SSH_MSG_CHANNEL_EXTENDED_DATA} message,
+   *        {@literal false} for a {@literal SSH_MSG_CHANNEL_DATA} message
+   * @return the data length
+   */
+  static long dataLength(Buffer buffer, boolean extended) {
+    final int rpos = buffer.rpos();
+    try {
+      buffer.getUInt(); // recipient
+      if (extended) {
+        buffer.getUInt(); // data type code
+      }
+      return buffer.getUInt();
+    } finally {
+      buffer.rpos(rpos);
+    }
+  }
+
+}
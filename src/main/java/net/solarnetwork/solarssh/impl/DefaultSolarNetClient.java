@@ -23,6 +23,7 @@
 package net.solarnetwork.solarssh.impl;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.net.HttpURLConnection;
@@ -36,6 +37,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -48,7 +51,10 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import net.solarnetwork.domain.datum.GeneralDatumMetadata;
+import net.solarnetwork.service.PingTest;
+import net.solarnetwork.service.PingTestResult;
 import net.solarnetwork.service.support.HttpClientSupport;
 import net.solarnetwork.solarssh.AuthorizationException;
 import net.solarnetwork.solarssh.domain.SolarNetInstruction;
@@ -59,9 +65,9 @@ import net.solarnetwork.web.jakarta.security.WebConstants;
  * Default implementation of {@link SolarNetClient}.
  * 
  * @author matt
- * @version 1.1
+ * @version 1.3
  */
-public class DefaultSolarNetClient extends HttpClientSupport implements SolarNetClient {
+public class DefaultSolarNetClient extends HttpClientSupport implements SolarNetClient, PingTest {
 
   private static final Pattern SIGNED_HEADERS_PATTERN = Pattern.compile(",SignedHeaders=([^,]+),");
   private static final ObjectMapper MAPPER = new ObjectMapper();
@@ -81,6 +87,16 @@ public class DefaultSolarNetClient extends HttpClientSupport implements SolarNet
   private String queueInstructionPath = "/solaruser/api/v1/sec/instr/add";
   private String viewNodeMetadataPath = "/solaruser/api/v1/sec/nodes/meta/";
 
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong requestErrorCount = new AtomicLong();
+  private final AtomicLong requestTotalNanos = new AtomicLong();
+  private final AtomicLong requestMaxNanos = new AtomicLong();
+
+  private OperationTimer pendingInstructionsTimer = OperationTimer.NONE;
+  private OperationTimer getInstructionTimer = OperationTimer.NONE;
+  private OperationTimer queueInstructionTimer = OperationTimer.NONE;
+  private OperationTimer getNodeMetadataTimer = OperationTimer.NONE;
+
   private static String uriHost(URI uri) {
     String host = uri.getHost();
     if (uri.getPort() != 80 && uri.getPort() != 443) {
@@ -104,6 +120,47 @@ public class DefaultSolarNetClient extends HttpClientSupport implements SolarNet
     log.info("SolarNetClient configured with API url {}", apiBaseUrl);
   }
 
+  @Override
+  public String getPingTestId() {
+    return getClass().getName();
+  }
+
+  @Override
+  public long getPingTestMaximumExecutionMilliseconds() {
+    return 1000;
+  }
+
+  @Override
+  public String getPingTestName() {
+    return "SolarNetwork Client";
+  }
+
+  @Override
+  public Result performPingTest() throws Exception {
+    Map<String, Object> properties = requestStatistics();
+    StringBuilder msg = new StringBuilder();
+    msg.append(apiBaseUrl).append(": ").append(properties.get("requestCount"))
+        .append(" requests, ").append(properties.get("requestErrorCount")).append(" errors, ")
+        .append(properties.get("requestAverageMs")).append("ms average latency.");
+    return new PingTestResult(true, msg.toString(), properties);
+  }
+
+  /**
+   * Get statistics on the requests made by this client.
+   * 
+   * @return the statistics, never {@literal null}
+   */
+  protected Map<String, Object> requestStatistics() {
+    final long count = requestCount.get();
+    Map<String, Object> properties = new LinkedHashMap<>(8);
+    properties.put("requestCount", count);
+    properties.put("requestErrorCount", requestErrorCount.get());
+    properties.put("requestAverageMs",
+        count > 0 ? TimeUnit.NANOSECONDS.toMillis(requestTotalNanos.get() / count) : 0L);
+    properties.put("requestMaxMs", TimeUnit.NANOSECONDS.toMillis(requestMaxNanos.get()));
+    return properties;
+  }
+
   private URI apiUri(String path) {
     URI uri;
     try {
@@ -125,8 +182,7 @@ public class DefaultSolarNetClient extends HttpClientSupport implements SolarNet
     headers.setDate(dateHeaderName, authorizationDate);
     headers.set(HttpHeaders.AUTHORIZATION, authorization);
 
-    URLConnection conn = get(uri, MediaType.APPLICATION_JSON_VALUE, headers);
-    JsonNode node = MAPPER.readTree(getInputStreamFromURLConnection(conn));
+    JsonNode node = getJson(uri, headers, pendingInstructionsTimer);
     if (log.isTraceEnabled()) {
       log.trace("Got pending instructions JSON: {}", MAPPER.writeValueAsString(node));
     }
@@ -151,8 +207,7 @@ public class DefaultSolarNetClient extends HttpClientSupport implements SolarNet
     headers.setDate(dateHeaderName, authorizationDate);
     headers.set(HttpHeaders.AUTHORIZATION, authorization);
 
-    URLConnection conn = get(uri, MediaType.APPLICATION_JSON_VALUE, headers);
-    JsonNode node = MAPPER.readTree(getInputStreamFromURLConnection(conn));
+    JsonNode node = getJson(uri, headers, getInstructionTimer);
     if (log.isTraceEnabled()) {
       log.trace("Got instructions JSON: {}", MAPPER.writeValueAsString(node));
     }
@@ -176,9 +231,7 @@ public class DefaultSolarNetClient extends HttpClientSupport implements SolarNet
     headers.setDate(signedDateHeaderName(authorization), authorizationDate);
     headers.set(HttpHeaders.AUTHORIZATION, authorization);
     headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
-    URLConnection conn = postForm(uri, MediaType.APPLICATION_JSON_VALUE, headers, params);
-
-    JsonNode node = MAPPER.readTree(getInputStreamFromURLConnection(conn));
+    JsonNode node = postFormJson(uri, headers, params, queueInstructionTimer);
     if (log.isTraceEnabled()) {
       log.trace("Got pending instructions JSON: {}", MAPPER.writeValueAsString(node));
     }
@@ -196,8 +249,7 @@ public class DefaultSolarNetClient extends HttpClientSupport implements SolarNet
     headers.setDate(signedDateHeaderName(authorization), authorizationDate);
     headers.set(HttpHeaders.AUTHORIZATION, authorization);
 
-    URLConnection conn = get(uri, MediaType.APPLICATION_JSON_VALUE, headers);
-    JsonNode node = MAPPER.readTree(getInputStreamFromURLConnection(conn));
+    JsonNode node = getJson(uri, headers, getNodeMetadataTimer);
     if (log.isTraceEnabled()) {
       log.trace("Got node metadata JSON: {}", MAPPER.writeValueAsString(node));
     }
@@ -240,6 +292,98 @@ public class DefaultSolarNetClient extends HttpClientSupport implements SolarNet
     return dateHeaderName;
   }
 
+  private JsonNode getJson(URI uri, HttpHeaders headers, OperationTimer timer)
+      throws IOException {
+    final long start = System.nanoTime();
+    boolean success = false;
+    try {
+      JsonNode result = executeGetJson(uri, headers);
+      success = true;
+      return result;
+    } finally {
+      recordRequest(start, success, timer);
+    }
+  }
+
+  private JsonNode postFormJson(URI uri, HttpHeaders headers, Map<String, ?> data,
+      OperationTimer timer) throws IOException {
+    final long start = System.nanoTime();
+    boolean success = false;
+    try {
+      JsonNode result = executePostFormJson(uri, headers, data);
+      success = true;
+      return result;
+    } finally {
+      recordRequest(start, success, timer);
+    }
+  }
+
+  private void recordRequest(long start, boolean success, OperationTimer timer) {
+    final long duration = System.nanoTime() - start;
+    timer.record(start, success);
+    requestCount.incrementAndGet();
+    if (!success) {
+      requestErrorCount.incrementAndGet();
+    }
+    requestTotalNanos.addAndGet(duration);
+    requestMaxNanos.accumulateAndGet(duration, Math::max);
+  }
+
+  /**
+   * Execute a HTTP GET request for a JSON response.
+   * 
+   * @param uri
+   *        the URI to request
+   * @param headers
+   *        the request headers
+   * @return the parsed JSON response
+   * @throws IOException
+   *         if any communication error occurs
+   * @throws AuthorizationException
+   *         if the request is denied
+   * @since 1.2
+   */
+  protected JsonNode executeGetJson(URI uri, HttpHeaders headers) throws IOException {
+    URLConnection conn = get(uri, MediaType.APPLICATION_JSON_VALUE, headers);
+    return readJson(getInputStreamFromURLConnection(conn));
+  }
+
+  /**
+   * Execute a HTTP POST request with form-encoded data for a JSON response.
+   * 
+   * @param uri
+   *        the URI to request
+   * @param headers
+   *        the request headers
+   * @param data
+   *        the form data
+   * @return the parsed JSON response
+   * @throws IOException
+   *         if any communication error occurs
+   * @throws AuthorizationException
+   *         if the request is denied
+   * @since 1.2
+   */
+  protected JsonNode executePostFormJson(URI uri, HttpHeaders headers, Map<String, ?> data)
+      throws IOException {
+    URLConnection conn = postForm(uri, MediaType.APPLICATION_JSON_VALUE, headers, data);
+    return readJson(getInputStreamFromURLConnection(conn));
+  }
+
+  /**
+   * Parse a JSON response.
+   * 
+   * @param in
+   *        the input stream to parse
+   * @return the parsed JSON
+   * @throws IOException
+   *         if any parsing error occurs
+   * @since 1.2
+   */
+  protected JsonNode readJson(InputStream in) throws IOException {
+    return MAPPER.readTree(in);
+  }
+
   protected URLConnection postForm(URI uri, String accept, HttpHeaders headers, Map<String, ?> data)
       throws IOException {
     URLConnection conn = getURLConnection(uri.toString(), HTTP_METHOD_POST, accept);
@@ -307,4 +451,28 @@ public class DefaultSolarNetClient extends HttpClientSupport implements SolarNet
     this.getInstructionPath = getInstructionPath;
   }
 
+  /**
+   * Set a registry to record request timing metrics with.
+   * 
+   * <p>
+   * A {@literal solarssh.solarnet.requests} timer is registered for each API call, tagged with an
+   * {@literal operation} of the call's method name.
+   * </p>
+   * 
+   * @param meterRegistry
+   *        the registry, or {@literal null} to not record metrics
+   * @since 1.3
+   */
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    pendingInstructionsTimer = requestTimer(meterRegistry, "pendingInstructions");
+    getInstructionTimer = requestTimer(meterRegistry, "getInstruction");
+    queueInstructionTimer = requestTimer(meterRegistry, "queueInstruction");
+    getNodeMetadataTimer = requestTimer(meterRegistry, "getNodeMetadata");
+  }
+
+  private static OperationTimer requestTimer(MeterRegistry registry, String operation) {
+    return OperationTimer.of(registry, "solarssh.solarnet.requests",
+        "SolarNetwork API request time", "operation", operation);
+  }
+
 }
@@ -22,7 +22,9 @@
 
 package net.solarnetwork.solarssh.impl;
 
-import static net.solarnetwork.solarssh.Globals.AUDIT_LOG;
+import static net.solarnetwork.solarssh.Globals.logAuditEvent;
+import static net.solarnetwork.solarssh.impl.LoginPhaseRecorder.Phase.PENDING_INSTRUCTIONS;
+import static net.solarnetwork.solarssh.impl.LoginPhaseRecorder.Phase.PORT_ALLOCATION;
 import static net.solarnetwork.solarssh.service.SolarNetClient.INSTRUCTION_TOPIC_START_REMOTE_SSH;
 import static net.solarnetwork.solarssh.service.SolarNetClient.INSTRUCTION_TOPIC_STOP_REMOTE_SSH;
 import static net.solarnetwork.solarssh.service.SolarNetClient.REVERSE_PORT_PARAM;
@@ -30,17 +32,18 @@ import static net.solarnetwork.solarssh.service.SolarNetClient.REVERSE_PORT_PARA
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.SocketException;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.sshd.client.SshClient;
 import org.apache.sshd.client.channel.ChannelShell;
@@ -52,10 +55,13 @@ import org.apache.sshd.common.keyprovider.KeyIdentityProvider;
 import org.apache.sshd.common.session.Session;
 import org.apache.sshd.common.util.io.input.NoCloseInputStream;
 import org.apache.sshd.common.util.io.output.NoCloseOutputStream;
+import org.apache.sshd.core.CoreModuleProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
-import net.solarnetwork.codec.JsonUtils;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import net.solarnetwork.domain.datum.GeneralDatumMetadata;
 import net.solarnetwork.service.PingTest;
 import net.solarnetwork.service.PingTestResult;
@@ -65,7 +71,10 @@ import net.solarnetwork.solarssh.domain.SolarNetInstruction;
 import net.solarnetwork.solarssh.domain.SolarNodeInstructionState;
 import net.solarnetwork.solarssh.domain.SshCredentials;
 import net.solarnetwork.solarssh.domain.SshSession;
+import net.solarnetwork.solarssh.domain.SshSessionState;
+import net.solarnetwork.solarssh.domain.SshSessionStateListener;
 import net.solarnetwork.solarssh.domain.SshTerminalSettings;
+import net.solarnetwork.solarssh.service.ReversePortAllocator;
 import net.solarnetwork.solarssh.service.SolarNetClient;
 import net.solarnetwork.solarssh.service.SolarSshService;
 
@@ -73,7 +82,7 @@ import net.solarnetwork.solarssh.service.SolarSshService;
  * Default implementation of {@link SolarSshService}.
  * 
  * @author matt
- * @version 1.2
+ * @version 1.11
  */
 public class DefaultSolarSshService implements SolarSshService, SshSessionDao, PingTest {
 
@@ -84,10 +93,37 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
   private int minPort = 50000;
   private int maxPort = 65000;
   private int sessionExpireSeconds = 300;
+  private int clientNioWorkers = 0;
 
   private final SolarNetClient solarNetClient;
+  private ReversePortAllocator reversePortAllocator;
   private final ConcurrentMap<Integer, SshSession> portSessionMap = new ConcurrentHashMap<>();
   private final ConcurrentMap<String, SshSession> sessionMap = new ConcurrentHashMap<>();
+  // @formatter:off
+  private final ConcurrentMap<String, ScheduledFuture<?>> sessionExpirations
+      = new ConcurrentHashMap<>();
+  // @formatter:on
+  private final AtomicLong expiredCount = new AtomicLong();
+  private final AtomicLongArray stateCounts = new AtomicLongArray(
+      SshSessionState.values().length);
+  private final SshSessionStateListener stateCounter = (s, oldState, newState) -> {
+    stateCounts.decrementAndGet(oldState.ordinal());
+    if (newState != SshSessionState.CLOSED) {
+      // closed sessions are removed, so are no longer counted
+      stateCounts.incrementAndGet(newState.ordinal());
+    }
+  };
+  private final AtomicLong attachCount = new AtomicLong();
+  private final AtomicLong attachErrorCount = new AtomicLong();
+  private final AtomicLong attachTotalNanos = new AtomicLong();
+  private final AtomicLong attachMaxNanos = new AtomicLong();
+  private MeterRegistry meterRegistry;
+  private OperationTimer createSessionTimer = OperationTimer.NONE;
+  private OperationTimer startSessionTimer = OperationTimer.NONE;
+  private OperationTimer attachTerminalTimer = OperationTimer.NONE;
+  private LoginPhaseRecorder loginPhases = new LoginPhaseRecorder(null);
+  private SshClient client;
+  private ScheduledThreadPoolExecutor expireScheduler;
 
   /**
    * Constructor.
@@ -104,10 +140,69 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
    * Initialize the service after all properties configured.
    */
   public void init() {
+    if (reversePortAllocator == null) {
+      reversePortAllocator = new BitSetReversePortAllocator(minPort, maxPort);
+    }
+    client = SshClient.setUpDefaultClient();
+    client.setHostConfigEntryResolver(HostConfigEntryResolver.EMPTY); // no need
+    client.setKeyIdentityProvider(KeyIdentityProvider.EMPTY_KEYS_PROVIDER); // no need
+    if (clientNioWorkers > 0) {
+      CoreModuleProperties.NIO_WORKERS.set(client, clientNioWorkers);
+    }
+    client.start();
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+        new CustomizableThreadFactory("SolarSSH-SessionExpire-"));
+    scheduler.setRemoveOnCancelPolicy(true);
+    expireScheduler = scheduler;
+    if (meterRegistry != null) {
+      registerMeters(meterRegistry);
+    }
     log.info("SolarSshService configured as host {}:{} using local ports {}:{}", host, port,
         minPort, maxPort);
   }
 
+  /**
+   * Shut down the service, releasing any resources.
+   * 
+   * @since 1.4
+   */
+  public void destroy() {
+    if (expireScheduler != null) {
+      expireScheduler.shutdownNow();
+      expireScheduler = null;
+    }
+    sessionExpirations.clear();
+    if (client != null) {
+      try {
+        client.stop();
+      } catch (Exception e) {
+        log.warn("Error stopping SSH client: {}", e.toString());
+      }
+      client = null;
+    }
+  }
+
+  private void registerMeters(MeterRegistry registry) {
+    createSessionTimer = OperationTimer.of(registry, "solarssh.session.create",
+        "Time to create a new session");
+    startSessionTimer = OperationTimer.of(registry, "solarssh.session.start",
+        "Time to queue the StartRemoteSsh instruction for a session");
+    attachTerminalTimer = OperationTimer.of(registry, "solarssh.terminal.attach",
+        "Time to attach a web terminal to a session");
+    loginPhases = new LoginPhaseRecorder(registry);
+    for (SshSessionState state : SshSessionState.values()) {
+      if (state == SshSessionState.CLOSED) {
+        continue;
+      }
+      final int idx = state.ordinal();
+      Gauge.builder("solarssh.sessions", stateCounts, c -> c.get(idx))
+          .description("Sessions by state").tag("state", state.name()).register(registry);
+    }
+    Gauge.builder("solarssh.reverse.ports.allocated", this,
+        s -> s.reversePortAllocator.getAllocatedCount())
+        .description("Allocated reverse SSH ports").register(registry);
+  }
+
   @Override
   public String getPingTestId() {
     return "net.solarnetwork.solarssh.impl.DefaultSolarSshService";
@@ -128,16 +223,25 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
     Map<String, Object> properties = new LinkedHashMap<>(8);
     StringBuilder msg = new StringBuilder();
     msg.append(host).append(":").append(port).append(" listening.");
-    int sessionCount = 0;
-    int activeCount = 0;
-    for (SshSession session : sessionMap.values()) {
-      sessionCount++;
-      if (session.isEstablished()) {
-        activeCount++;
-      }
-    }
+    final int sessionCount = sessionMap.size();
+    final long activeCount = stateCounts.get(SshSessionState.NODE_CONNECTED.ordinal())
+        + stateCounts.get(SshSessionState.ATTACHED.ordinal());
     properties.put("sessionCount", sessionCount);
     properties.put("activeSessionCount", activeCount);
+    for (SshSessionState state : SshSessionState.values()) {
+      if (state != SshSessionState.CLOSED) {
+        properties.put(stateCountPropertyName(state), stateCounts.get(state.ordinal()));
+      }
+    }
+    properties.put("allocatedPortCount", reversePortAllocator.getAllocatedCount());
+    properties.put("pendingExpirationCount", sessionExpirations.size());
+    properties.put("expiredSessionCount", expiredCount.get());
+    final long attaches = attachCount.get();
+    properties.put("attachCount", attaches);
+    properties.put("attachErrorCount", attachErrorCount.get());
+    properties.put("attachAverageMs",
+        attaches > 0 ? TimeUnit.NANOSECONDS.toMillis(attachTotalNanos.get() / attaches) : 0L);
+    properties.put("attachMaxMs", TimeUnit.NANOSECONDS.toMillis(attachMaxNanos.get()));
     msg.append(" ").append(sessionCount).append(" sessions (").append(activeCount)
         .append(" active).");
     return new PingTestResult(true, msg.toString(), properties);
@@ -156,10 +260,13 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
     if (session == null) {
       throw new IllegalArgumentException("Null value not allowed.");
     }
-    return sessionMap.values().stream().filter(e -> {
-      return e.getServerSession() == session || e.getDirectServerSession() == session
-          || e.getClientSession() == session;
-    }).findAny().orElse(null);
+    // resolve via the session attribute maintained by SshSession, and verify still active
+    SshSession sess = session.getAttribute(SshSession.SSH_SESSION_ATTR);
+    if (sess == null || sess.getState().isClosed() || sessionMap.get(sess.getId()) != sess
+        || !sess.isAttachedTo(session)) {
+      return null;
+    }
+    return sess;
   }
 
   @Override
@@ -168,58 +275,78 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
       throw new IllegalArgumentException("Null value not allowed.");
     }
     endSession(sess);
-    portSessionMap.remove(sess.getReverseSshPort(), sess);
+    if (portSessionMap.remove(sess.getReverseSshPort(), sess)) {
+      reversePortAllocator.releasePort(sess.getReverseSshPort());
+    }
     sessionMap.remove(sess.getId(), sess);
+    ScheduledFuture<?> expiration = sessionExpirations.remove(sess.getId());
+    if (expiration != null) {
+      expiration.cancel(false);
+    }
   }
 
   @Override
   public SshSession createNewSession(Long nodeId, long authorizationDate, String authorization)
       throws IOException {
+    final long start = System.nanoTime();
+    boolean success = false;
+    try {
+      SshSession result = createSession(nodeId, authorizationDate, authorization);
+      success = true;
+      return result;
+    } finally {
+      createSessionTimer.record(start, success);
+    }
+  }
+
+  private SshSession createSession(Long nodeId, long authorizationDate, String authorization)
+      throws IOException {
     // see if instruction for StartRemoteSsh already pending, and if so can return session 
     // with that instruction ID
-    List<SolarNetInstruction> instructions = solarNetClient.pendingInstructions(nodeId,
-        authorizationDate, authorization);
+    final String sessionId = UUID.randomUUID().toString();
+    final LoginPhaseRecorder.Timing pendingPhase = loginPhases.start(PENDING_INSTRUCTIONS);
+    List<SolarNetInstruction> instructions;
+    try {
+      instructions = solarNetClient.pendingInstructions(nodeId, authorizationDate, authorization);
+    } catch (IOException | RuntimeException e) {
+      pendingPhase.end(sessionId, nodeId, false);
+      throw e;
+    }
     SolarNetInstruction pending = instructions.stream()
         .filter(instr -> nodeId.equals(instr.getNodeId())).findAny().orElse(null);
     if (pending != null) {
       SshSession sess = portSessionMap.values().stream()
           .filter(s -> pending.getId().equals(s.getStartInstructionId())).findAny().orElse(null);
       if (sess != null) {
+        pendingPhase.end(sess.getId(), nodeId, true);
         log.info("Returning existing SshSession {} already in {} state", sess.getId(),
             pending.getState());
         return sess;
       }
     }
 
-    String sessionId = UUID.randomUUID().toString();
-    Set<Integer> usedPorts = portSessionMap.keySet();
-
-    for (int rport = minPort; rport < maxPort; rport += 2) {
-      if (usedPorts.contains(rport)) {
-        continue;
-      }
-      try (ServerSocket socket = new ServerSocket(rport)) {
-        socket.setReuseAddress(true);
-        try (ServerSocket httpSocket = new ServerSocket(rport + 1)) {
-          httpSocket.setReuseAddress(true);
-          SshSession sess = new SshSession(System.currentTimeMillis(), sessionId, nodeId, host,
-              port, rport, rport + 1);
-          if (portSessionMap.putIfAbsent(rport, sess) == null) {
-            sessionMap.put(sessionId, sess);
-            log.info("SshSession {} created: node {}, rport {}", sessionId, nodeId, rport);
-            Map<String, Object> auditProps = sess.auditEventMap("NEW");
-            auditProps.put("date", sess.getCreated());
-            auditProps.put(REVERSE_PORT_PARAM, rport);
-            AUDIT_LOG.info(JsonUtils.getJSONString(auditProps, "{}"));
-            return sess;
-          }
-        } catch (SocketException e) {
-          // ignore this one
-        }
-      } catch (SocketException e) {
-        // ignore this one
+    pendingPhase.end(sessionId, nodeId, true);
+
+    final LoginPhaseRecorder.Timing portPhase = loginPhases.start(PORT_ALLOCATION);
+    int rport;
+    while ((rport = reversePortAllocator.allocatePort()) > 0) {
+      SshSession sess = new SshSession(System.currentTimeMillis(), sessionId, nodeId, host, port,
+          rport, rport + 1);
+      if (portSessionMap.putIfAbsent(rport, sess) == null) {
+        portPhase.end(sessionId, nodeId, true);
+        stateCounts.incrementAndGet(sess.getState().ordinal());
+        sess.addStateListener(stateCounter);
+        sessionMap.put(sessionId, sess);
+        scheduleExpiration(sess);
+        log.info("SshSession {} created: node {}, rport {}", sessionId, nodeId, rport);
+        Map<String, Object> auditProps = sess.auditEventMap("NEW");
+        auditProps.put("date", sess.getCreated());
+        auditProps.put(REVERSE_PORT_PARAM, rport);
+        logAuditEvent(auditProps);
+        return sess;
       }
     }
+    portPhase.end(sessionId, nodeId, false);
     throw new IOException("No available port found.");
   }
 
@@ -233,6 +360,19 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
   @Override
   public SshSession startSession(String sessionId, long authorizationDate, String authorization)
       throws IOException {
+    final long start = System.nanoTime();
+    boolean success = false;
+    try {
+      SshSession result = queueStartInstruction(sessionId, authorizationDate, authorization);
+      success = true;
+      return result;
+    } finally {
+      startSessionTimer.record(start, success);
+    }
+  }
+
+  private SshSession queueStartInstruction(String sessionId, long authorizationDate,
+      String authorization) throws IOException {
     SshSession sess = sessionMap.get(sessionId);
     if (sess == null) {
       throw new AuthorizationException("Session " + sessionId + " not available");
@@ -249,6 +389,7 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
     }
 
     sess.setStartInstructionId(instructionId);
+    sess.transitionTo(SshSessionState.STARTING);
     return sess;
   }
 
@@ -256,6 +397,21 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
   public SshSession attachTerminal(String sessionId, long authorizationDate, String authorization,
       SshCredentials nodeCredentials, SshTerminalSettings settings, InputStream in,
       OutputStream out) throws IOException {
+    final long start = System.nanoTime();
+    boolean success = false;
+    try {
+      SshSession result = attach(sessionId, authorizationDate, authorization, nodeCredentials,
+          settings, in, out);
+      success = true;
+      return result;
+    } finally {
+      attachTerminalTimer.record(start, success);
+    }
+  }
+
+  private SshSession attach(String sessionId, long authorizationDate, String authorization,
+      SshCredentials nodeCredentials, SshTerminalSettings settings, InputStream in,
+      OutputStream out) throws IOException {
     SshSession sess = sessionMap.get(sessionId);
     if (sess == null) {
       throw new AuthorizationException("Session " + sessionId + " not available");
@@ -267,27 +423,65 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
     // TODO: extract node public key? by doing nothing, we have at least verified the 
     //       caller has authorization as a user for this node...
 
-    ClientSession clientSession = createClient(sess, nodeCredentials, settings, in, out);
+    final long start = System.nanoTime();
+    boolean success = false;
+    ClientSession clientSession;
+    try {
+      clientSession = createClient(sess, nodeCredentials, settings, in, out);
+      success = true;
+    } finally {
+      recordAttach(start, success);
+    }
     sess.setClientSession(clientSession);
+    if (sess.transitionTo(SshSessionState.ATTACHED) == null && sess.getState().isClosed()) {
+      // the session ended while the terminal was connecting
+      clientSession.close(true);
+      throw new AuthorizationException("Session " + sessionId + " not available");
+    }
 
     Map<String, Object> auditProps = sess.auditEventMap("ATTACH-TERM");
     auditProps.put("date", System.currentTimeMillis());
     auditProps.put("connectAddress", clientSession.getConnectAddress());
-    AUDIT_LOG.info(JsonUtils.getJSONString(auditProps, "{}"));
+    logAuditEvent(auditProps);
 
     return sess;
   }
 
+  private void recordAttach(long start, boolean success) {
+    final long duration = System.nanoTime() - start;
+    attachCount.incrementAndGet();
+    if (!success) {
+      attachErrorCount.incrementAndGet();
+    }
+    attachTotalNanos.addAndGet(duration);
+    attachMaxNanos.accumulateAndGet(duration, Math::max);
+    if (log.isDebugEnabled()) {
+      log.debug("Terminal attach {} in {}ms", success ? "completed" : "failed",
+          TimeUnit.NANOSECONDS.toMillis(duration));
+    }
+  }
+
   private ClientSession createClient(SshSession sess, SshCredentials credentials,
       SshTerminalSettings settings, InputStream in, OutputStream out) throws IOException {
-    SshClient client = SshClient.setUpDefaultClient();
-    client.setHostConfigEntryResolver(HostConfigEntryResolver.EMPTY); // no need
-    client.setKeyIdentityProvider(KeyIdentityProvider.EMPTY_KEYS_PROVIDER); // no need
-    client.start();
-
+    final SshClient client = this.client;
+    if (client == null) {
+      throw new IOException("SSH client not available");
+    }
     ClientSession session = client
         .connect(credentials.getUsername(), "127.0.0.1", sess.getReverseSshPort())
         .verify(30, TimeUnit.SECONDS).getSession();
+    try {
+      openShell(sess, session, credentials, settings, in, out);
+    } catch (IOException | RuntimeException e) {
+      // the client is shared, so make sure a half-configured session is not left open
+      session.close(true);
+      throw e;
+    }
+    return session;
+  }
+
+  private void openShell(SshSession sess, ClientSession session, SshCredentials credentials,
+      SshTerminalSettings settings, InputStream in, OutputStream out) throws IOException {
     if (credentials.getPassword() != null) {
       session.addPasswordIdentity(credentials.getPassword());
     }
@@ -307,11 +501,17 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
       settings.getEnvironment().forEach((k, v) -> channel.setEnv(k, v));
     }
 
+    // set once the terminal is counted as attached, or when it closes before that
+    final AtomicBoolean counted = new AtomicBoolean();
     channel.addCloseFutureListener(new SshFutureListener<CloseFuture>() {
 
       @Override
       public void operationComplete(CloseFuture future) {
-        sess.setClientSession(null);
+        if (counted.getAndSet(true) && sess.terminalDetached() < 1) {
+          // the last terminal has detached
+          sess.setClientSession(null);
+          sess.compareAndSetState(SshSessionState.ATTACHED, SshSessionState.NODE_CONNECTED);
+        }
         try {
           out.close();
         } catch (IOException e) {
@@ -319,7 +519,7 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
         } finally {
           Map<String, Object> auditProps = sess.auditEventMap("DETACH-TERM");
           auditProps.put("date", System.currentTimeMillis());
-          AUDIT_LOG.info(JsonUtils.getJSONString(auditProps, "{}"));
+          logAuditEvent(auditProps);
         }
       }
     });
@@ -329,8 +529,11 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
     channel.setOut(channelOut);
     channel.setErr(channelOut);
     channel.open().verify(30, TimeUnit.SECONDS);
-
-    return session;
+    sess.terminalAttached();
+    if (!counted.compareAndSet(false, true)) {
+      sess.terminalDetached();
+      throw new IOException("Terminal closed while opening");
+    }
   }
 
   @Override
@@ -360,6 +563,12 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
     if (sess == null) {
       return;
     }
+    final SshSessionState prevState = sess.transitionTo(SshSessionState.CLOSING);
+    if (prevState == null) {
+      // already ending
+      return;
+    }
+    sess.getServerSessionFuture().cancel(false);
     ClientSession clientSession = sess.getClientSession();
     if (clientSession != null) {
       clientSession.close(false);
@@ -370,35 +579,84 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
       serverSession.close(false);
       sess.setServerSession(null);
     }
-    if (sess.isEstablished()) {
+    if (prevState.isEstablished()) {
       log.debug("Ended session {}", sess.getId());
       long now = System.currentTimeMillis();
       long secs = (long) Math.ceil((now - sess.getCreated()) / 1000.0);
       Map<String, Object> auditProps = sess.auditEventMap("END");
       auditProps.put("date", now);
       auditProps.put("duration", secs);
-      AUDIT_LOG.info(JsonUtils.getJSONString(auditProps, "{}"));
-      sess.setEstablished(false);
+      logAuditEvent(auditProps);
+    }
+    sess.transitionTo(SshSessionState.CLOSED);
+  }
+
+  private static String stateCountPropertyName(SshSessionState state) {
+    return switch (state) {
+      case NEW -> "newSessionCount";
+      case STARTING -> "startingSessionCount";
+      case NODE_CONNECTED -> "nodeConnectedSessionCount";
+      case ATTACHED -> "attachedSessionCount";
+      case CLOSING -> "closingSessionCount";
+      default -> "closedSessionCount";
+    };
+  }
+
+  private void scheduleExpiration(SshSession sess) {
+    final ScheduledThreadPoolExecutor scheduler = expireScheduler;
+    if (scheduler == null) {
+      return;
+    }
+    final long delay = sess.getCreated() + TimeUnit.SECONDS.toMillis(sessionExpireSeconds)
+        - System.currentTimeMillis();
+    sessionExpirations.put(sess.getId(),
+        scheduler.schedule(() -> expireSession(sess), delay, TimeUnit.MILLISECONDS));
+  }
+
+  private void expireSession(SshSession sess) {
+    sessionExpirations.remove(sess.getId());
+    if (sess.isEstablished() || isAwaitingDirectNode(sess)
+        || sessionMap.get(sess.getId()) != sess) {
+      return;
+    }
+    log.info("Expiring unestablished SshSession {}: node {}, rport {}", sess.getId(),
+        sess.getNodeId(), sess.getReverseSshPort());
+    expiredCount.incrementAndGet();
+    delete(sess);
+  }
+
+  /**
+   * Test if a session is waiting for its node to connect on behalf of a direct SSH login.
+   * 
+   * <p>
+   * Such sessions are not expired, as the direct SSH login waits for the node with its own timeout
+   * and deletes the session when the login ends.
+   * </p>
+   * 
+   * @param sess
+   *        the session
+   * @return {@literal true} if the session is starting with an open direct SSH session
+   */
+  private static boolean isAwaitingDirectNode(SshSession sess) {
+    if (sess.getState() != SshSessionState.STARTING) {
+      return false;
     }
+    Session direct = sess.getDirectServerSession();
+    return (direct != null && direct.isOpen());
   }
 
   /**
-   * Call periodically to free expired sessions.
+   * Free all expired sessions.
+   * 
+   * @deprecated since 1.5 sessions are expired individually when their expiration time is reached
    */
+  @Deprecated
   public void cleanupExpiredSessions() {
     final long expireTime = System.currentTimeMillis()
         - TimeUnit.SECONDS.toMillis(sessionExpireSeconds);
-    if (log.isDebugEnabled()) {
-      log.debug("Examining {} sessions for expiration", portSessionMap.size());
-    }
-    for (Iterator<SshSession> itr = portSessionMap.values().iterator(); itr.hasNext();) {
-      SshSession sess = itr.next();
+    for (SshSession sess : portSessionMap.values()) {
       if (!sess.isEstablished() && sess.getCreated() < expireTime) {
-        log.info("Expiring unestablished SshSession {}: node {}, rport {}", sess.getId(),
-            sess.getNodeId(), sess.getReverseSshPort());
-        endSession(sess);
-        itr.remove();
-        sessionMap.remove(sess.getId(), sess);
+        expireSession(sess);
       }
     }
   }
@@ -419,8 +677,49 @@ public class DefaultSolarSshService implements SolarSshService, SshSessionDao, P
     this.port = port;
   }
 
+  /**
+   * Set the number of NIO worker threads to use for the SSH client used to attach terminals.
+   * 
+   * @param clientNioWorkers
+   *        the number of workers, or {@literal 0} to use the SSH library default
+   * @since 1.4
+   */
+  public void setClientNioWorkers(int clientNioWorkers) {
+    this.clientNioWorkers = clientNioWorkers;
+  }
+
   public void setSessionExpireSeconds(int sessionExpireSeconds) {
     this.sessionExpireSeconds = sessionExpireSeconds;
   }
 
+  /**
+   * Set the reverse port allocator to use.
+   * 
+   * <p>
+   * If not configured, a {@link BitSetReversePortAllocator} using the configured {@code minPort}
+   * and {@code maxPort} will be created in {@link #init()}.
+   * </p>
+   * 
+   * @param reversePortAllocator
+   *        the allocator to use
+   */
+  public void setReversePortAllocator(ReversePortAllocator reversePortAllocator) {
+    this.reversePortAllocator = reversePortAllocator;
+  }
+
+  /**
+   * Set a registry to record metrics with.
+   * 
+   * <p>
+   * Must be configured before {@link #init()} is called.
+   * </p>
+   * 
+   * @param meterRegistry
+   *        the registry, or {@literal null} to not record metrics
+   * @since 1.7
+   */
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
 }
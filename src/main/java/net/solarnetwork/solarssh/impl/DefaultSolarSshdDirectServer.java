@@ -24,14 +24,15 @@ package net.solarnetwork.solarssh.impl;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.unmodifiableList;
-import static net.solarnetwork.codec.JsonUtils.getJSONString;
-import static net.solarnetwork.solarssh.Globals.AUDIT_LOG;
+import static net.solarnetwork.solarssh.Globals.logAuditEvent;
 import static net.solarnetwork.solarssh.service.SolarNetClient.INSTRUCTION_TOPIC_STOP_REMOTE_SSH;
 
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.time.Instant;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.sshd.common.io.IoSession;
 import org.apache.sshd.common.session.Session;
@@ -41,6 +42,7 @@ import org.apache.sshd.server.auth.password.PasswordAuthenticator;
 import org.apache.sshd.server.channel.ChannelSessionFactory;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import net.solarnetwork.security.Snws2AuthorizationBuilder;
 import net.solarnetwork.solarssh.dao.ActorDao;
@@ -53,7 +55,7 @@ import net.solarnetwork.solarssh.service.SolarSshService;
  * Default SSH server service.
  * 
  * @author matt
- * @version 1.1
+ * @version 1.8
  */
 public class DefaultSolarSshdDirectServer extends AbstractSshdServer {
 
@@ -64,15 +66,22 @@ public class DefaultSolarSshdDirectServer extends AbstractSshdServer {
   /** The default port to listen on. */
   public static final int DEFAULT_LISTEN_PORT = 9022;
 
+  /**
+   * The default value for the {@code nodeConnectThreads} property.
+   */
+  public static final int DEFAULT_NODE_CONNECT_THREADS = 4;
+
   private final SolarSshService solarSshService;
   private final ActorDao actorDao;
 
   // CHECKSTYLE OFF: LineLength
-  private long instructionCompletedWaitMs = SolarSshPasswordAuthenticator.DEFAULT_INSTRUCTION_COMPLETED_WAIT_MS;
   private long instructionIncompleteWaitMs = SolarSshPasswordAuthenticator.DEFAULT_INSTRUCTION_INCOMPLETED_WAIT_MS;
   // CHECKSTYLE OFF: LineLength
+  private int nodeConnectThreads = DEFAULT_NODE_CONNECT_THREADS;
+  private boolean inProcessBridge;
 
   private SshServer server;
+  private ScheduledExecutorService nodeConnectScheduler;
 
   /**
    * Constructor.
@@ -99,21 +108,26 @@ public class DefaultSolarSshdDirectServer extends AbstractSshdServer {
     }
     s = createServer();
 
-    s.setChannelFactories(unmodifiableList(
-        asList(ChannelSessionFactory.INSTANCE, new DynamicDirectTcpipFactory(sessionDao))));
+    DynamicDirectTcpipFactory directTcpipFactory = new DynamicDirectTcpipFactory(sessionDao);
+    directTcpipFactory.setInProcessBridge(inProcessBridge);
+    s.setChannelFactories(
+        unmodifiableList(asList(ChannelSessionFactory.INSTANCE, directTcpipFactory)));
 
+    nodeConnectScheduler = Executors.newScheduledThreadPool(nodeConnectThreads,
+        new CustomizableThreadFactory("SolarSSH-NodeConnect-"));
     SolarSshPasswordAuthenticator pwAuth = new SolarSshPasswordAuthenticator(solarSshService,
-        actorDao);
+        actorDao, nodeConnectScheduler);
     pwAuth.setSnHost(getSnHost());
-    pwAuth.setInstructionCompletedWaitMs(instructionCompletedWaitMs);
     pwAuth.setInstructionIncompleteWaitMs(instructionIncompleteWaitMs);
     pwAuth.setMaxNodeInstructionWaitSecs(getAuthTimeoutSecs());
+    pwAuth.setLoginPhases(new LoginPhaseRecorder(getMeterRegistry()));
 
     PasswordAuthenticator auth = pwAuth;
     if (getBruteForceDenyList() != null) {
       BruteForceDenyPasswordAuthenticator bf = new BruteForceDenyPasswordAuthenticator(pwAuth,
           getBruteForceDenyList());
       bf.setMaxFails(getBruteForceMaxTries());
+      bf.setBlockedCounter(bruteForceBlockedCounter("auth"));
       auth = bf;
     }
     s.setPasswordAuthenticator(auth);
@@ -141,6 +155,10 @@ public class DefaultSolarSshdDirectServer extends AbstractSshdServer {
         log.warn("Communication error stopping SSH server: {}", e.getMessage());
       }
     }
+    if (nodeConnectScheduler != null) {
+      nodeConnectScheduler.shutdownNow();
+      nodeConnectScheduler = null;
+    }
   }
 
   @Override
@@ -148,8 +166,8 @@ public class DefaultSolarSshdDirectServer extends AbstractSshdServer {
     if (event == SessionListener.Event.Authenticated) {
       SshSession sess = sessionDao.findOne(session);
       if (sess != null) {
-        if (!sess.isEstablished()) {
-          sess.setEstablished(true);
+        // the session moves to NODE_CONNECTED when the node connects, before this login completes
+        if (sess.getDirectServerSession() == null) {
           sess.setDirectServerSession(session);
         }
 
@@ -160,7 +178,7 @@ public class DefaultSolarSshdDirectServer extends AbstractSshdServer {
           auditProps.put("remoteAddress", ioSession.getRemoteAddress());
         }
         auditProps.put("rport", sess.getReverseSshPort());
-        AUDIT_LOG.info(getJSONString(auditProps, "{}"));
+        logAuditEvent(auditProps);
       }
     }
   }
@@ -242,19 +260,14 @@ public class DefaultSolarSshdDirectServer extends AbstractSshdServer {
    * Set the number of milliseconds to wait after a node instruction has completed before
    * continuing.
    * 
-   * <p>
-   * This is designed to give the node a bit of time to actually establish its SSH connection to the
-   * SolarSSH server after reporting that it has completed the {@literal StartRemoteSsh}
-   * instruction. It can take a few seconds for that to happen, especially on slow network
-   * connections.
-   * </p>
-   * 
    * @param instructionCompletedWaitMs
-   *        the wait time, in milliseconds; defaults to
-   *        {@link #DEFAULT_INSTRUCTION_COMPLETED_WAIT_MS}
+   *        the wait time, in milliseconds
+   * @deprecated since 1.2 this has no effect, as authentication completes as soon as the node
+   *             connection is established
    */
+  @Deprecated
   public void setInstructionCompletedWaitMs(long instructionCompletedWaitMs) {
-    this.instructionCompletedWaitMs = instructionCompletedWaitMs;
+    // not used
   }
 
   /**
@@ -269,4 +282,32 @@ public class DefaultSolarSshdDirectServer extends AbstractSshdServer {
     this.instructionIncompleteWaitMs = instructionIncompleteWaitMs;
   }
 
+  /**
+   * Set the number of threads to use for waiting on nodes to connect after authentication.
+   * 
+   * <p>
+   * These threads poll SolarNetwork for the {@literal StartRemoteSsh} instruction state and
+   * complete the authentication once the node has connected.
+   * </p>
+   * 
+   * @param nodeConnectThreads
+   *        the thread count; defaults to {@link #DEFAULT_NODE_CONNECT_THREADS}
+   */
+  public void setNodeConnectThreads(int nodeConnectThreads) {
+    this.nodeConnectThreads = nodeConnectThreads;
+  }
+
+  /**
+   * Set the in-process bridge mode for direct-tcpip channels.
+   * 
+   * @param inProcessBridge
+   *        {@literal true} to bridge direct-tcpip channels to the node's remote port forward
+   *        in-process, instead of connecting to the node's reverse SSH port over a loopback
+   *        socket
+   * @since 1.4
+   */
+  public void setInProcessBridge(boolean inProcessBridge) {
+    this.inProcessBridge = inProcessBridge;
+  }
+
 }
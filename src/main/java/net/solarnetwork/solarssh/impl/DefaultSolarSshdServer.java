@@ -22,33 +22,36 @@
 
 package net.solarnetwork.solarssh.impl;
 
-import static net.solarnetwork.codec.JsonUtils.getJSONString;
-import static net.solarnetwork.solarssh.Globals.AUDIT_LOG;
+import static net.solarnetwork.solarssh.Globals.logAuditEvent;
 
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.sshd.common.forward.PortForwardingEventListener;
 import org.apache.sshd.common.io.IoSession;
 import org.apache.sshd.common.session.Session;
 import org.apache.sshd.common.session.SessionListener;
 import org.apache.sshd.common.session.helpers.AbstractSession;
+import org.apache.sshd.common.util.net.SshdSocketAddress;
 import org.apache.sshd.server.SshServer;
 import org.apache.sshd.server.auth.pubkey.CachingPublicKeyAuthenticator;
 import org.apache.sshd.server.session.ServerSession;
 
 import net.solarnetwork.solarssh.dao.SshSessionDao;
 import net.solarnetwork.solarssh.domain.SshSession;
+import net.solarnetwork.solarssh.domain.SshSessionState;
 import net.solarnetwork.solarssh.service.SolarSshdService;
 
 /**
  * Service to manage the SSH server.
  * 
  * @author matt
- * @version 1.2
+ * @version 1.6
  */
-public class DefaultSolarSshdServer extends AbstractSshdServer implements SolarSshdService {
+public class DefaultSolarSshdServer extends AbstractSshdServer
+    implements SolarSshdService, PortForwardingEventListener {
 
   private static final String AUDIT_NODE_CONNECT = "NODE-CONNECT";
 
@@ -83,6 +86,7 @@ public class DefaultSolarSshdServer extends AbstractSshdServer implements SolarS
     // TODO: verify if CachingPublicKeyAuthenticator is appropriate
     s.setPublickeyAuthenticator(
         new CachingPublicKeyAuthenticator(new SolarSshPublicKeyAuthenticator(sessionDao)));
+    s.addPortForwardingEventListener(this);
 
     try {
       s.start();
@@ -102,6 +106,7 @@ public class DefaultSolarSshdServer extends AbstractSshdServer implements SolarS
       try {
         s.removeSessionListener(this);
         s.removeChannelListener(this);
+        s.removePortForwardingEventListener(this);
         s.stop();
       } catch (IOException e) {
         log.warn("Communication error stopping SSH server: {}", e.getMessage());
@@ -127,8 +132,15 @@ public class DefaultSolarSshdServer extends AbstractSshdServer implements SolarS
       String sessionId = session.getUsername();
       SshSession sess = sessionDao.findOne(sessionId);
       if (sess != null) {
-        sess.setEstablished(true);
         sess.setServerSession(session);
+        if (sess.transitionTo(SshSessionState.NODE_CONNECTED) == null
+            && sess.getState().isClosed()) {
+          // the session ended while the node was connecting
+          log.info("Closing node connection for ended session {}", sessionId);
+          session.close(false);
+          return;
+        }
+        sess.getServerSessionFuture().complete(session);
 
         Map<String, Object> auditProps = sess.auditEventMap(AUDIT_NODE_CONNECT);
         auditProps.put("date", System.currentTimeMillis());
@@ -137,11 +149,38 @@ public class DefaultSolarSshdServer extends AbstractSshdServer implements SolarS
           auditProps.put("remoteAddress", ioSession.getRemoteAddress());
         }
         auditProps.put("rport", sess.getReverseSshPort());
-        AUDIT_LOG.info(getJSONString(auditProps, "{}"));
+        logAuditEvent(auditProps);
       }
     }
   }
 
+  @Override
+  public void establishedExplicitTunnel(Session session, SshdSocketAddress local,
+      SshdSocketAddress remote, boolean localForwarding, SshdSocketAddress boundAddress,
+      Throwable reason) throws IOException {
+    // a node's remote port forward request is handled as a local forward on this side
+    if (reason != null || remote != null || local == null || boundAddress == null) {
+      return;
+    }
+    SshSession sess = sessionDao.findOne(session);
+    if (sess != null && boundAddress.getPort() == sess.getReverseSshPort()) {
+      sess.setReverseSshForwardHost(local.getHostName());
+    }
+  }
+
+  @Override
+  public void tornDownExplicitTunnel(Session session, SshdSocketAddress address,
+      boolean localForwarding, SshdSocketAddress remoteAddress, Throwable reason)
+      throws IOException {
+    if (address == null) {
+      return;
+    }
+    SshSession sess = sessionDao.findOne(session);
+    if (sess != null && address.getPort() == sess.getReverseSshPort()) {
+      sess.setReverseSshForwardHost(null);
+    }
+  }
+
   @Override
   public void sessionException(Session session, Throwable t) {
     String msg = t.getMessage();
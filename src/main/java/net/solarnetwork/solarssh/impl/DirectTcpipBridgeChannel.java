@@ -0,0 +1,410 @@
+/* ==================================================================
+ * DirectTcpipBridgeChannel.java - 16/10/2026 6:02:17 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+
+import org.apache.sshd.client.channel.AbstractClientChannel;
+import org.apache.sshd.client.future.DefaultOpenFuture;
+import org.apache.sshd.client.future.OpenFuture;
+import org.apache.sshd.common.Closeable;
+import org.apache.sshd.common.SshConstants;
+import org.apache.sshd.common.SshException;
+import org.apache.sshd.common.channel.AbstractChannel;
+import org.apache.sshd.common.channel.ChannelAsyncOutputStream;
+import org.apache.sshd.common.channel.exception.SshChannelOpenException;
+import org.apache.sshd.common.session.ConnectionService;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.common.util.buffer.ByteArrayBuffer;
+import org.apache.sshd.common.util.net.SshdSocketAddress;
+import org.apache.sshd.common.util.threads.CloseableExecutorService;
+import org.apache.sshd.server.channel.AbstractServerChannel;
+import org.apache.sshd.server.forward.TcpForwardingFilter;
+import org.apache.sshd.server.forward.TcpForwardingFilter.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.solarnetwork.solarssh.domain.SshSession;
+
+/**
+ * A direct-tcpip channel that is bridged in-process to a forwarded-tcpip channel on the node's
+ * server session, instead of connecting to the node's reverse SSH port over a loopback socket.
+ * 
+ * <p>
+ * Data received on one channel is written to the other channel, and the receiving channel's local
+ * window is only released once that write has completed. This way each side's SSH flow control
+ * applies end to end, just as it would with the loopback socket between them.
+ * </p>
+ * 
+ * <p>
+ * The forwarded channel is opened with the address the node requested its remote port forward
+ * with, as provided by {@link SshSession#getReverseSshForwardHost()}.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class DirectTcpipBridgeChannel extends AbstractServerChannel {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DirectTcpipBridgeChannel.class);
+
+  /** The channel type. */
+  public static final String DIRECT_TCPIP_CHANNEL_TYPE = "direct-tcpip";
+
+  /** The forwarded channel type. */
+  public static final String FORWARDED_TCPIP_CHANNEL_TYPE = "forwarded-tcpip";
+
+  private final SshSession sshSession;
+  private final String fixedDestinationHost;
+  private ChannelAsyncOutputStream out;
+  private ForwardedChannel forwarded;
+  private DataPump toNode;
+
+  /**
+   * Constructor.
+   * 
+   * @param sshSession
+   *        the session to bridge to the node of
+   * @param fixedDestinationHost
+   *        the fixed destination host, used for the forwarding filter check
+   * @param executor
+   *        the executor
+   */
+  public DirectTcpipBridgeChannel(SshSession sshSession, String fixedDestinationHost,
+      CloseableExecutorService executor) {
+    super(DIRECT_TCPIP_CHANNEL_TYPE, Collections.emptyList(), executor);
+    this.sshSession = sshSession;
+    this.fixedDestinationHost = fixedDestinationHost;
+  }
+
+  @Override
+  protected OpenFuture doInit(Buffer buffer) {
+    final String hostToConnect = buffer.getString();
+    final int portToConnect = buffer.getInt();
+    final String originatorHost = buffer.getString();
+    final int originatorPort = buffer.getInt();
+
+    final DefaultOpenFuture f = new DefaultOpenFuture(this, futureLock);
+    final int port = sshSession.getReverseSshPort();
+    final Session session = getSession();
+    final TcpForwardingFilter filter = session.getFactoryManager().getTcpForwardingFilter();
+    if (filter == null || !filter.canConnect(Type.Direct,
+        new SshdSocketAddress(fixedDestinationHost, port), session)) {
+      f.setException(new SshChannelOpenException(getChannelId(),
+          SshConstants.SSH_OPEN_ADMINISTRATIVELY_PROHIBITED, "Connection denied"));
+      return f;
+    }
+
+    final Session nodeSession = sshSession.getServerSession();
+    final String forwardHost = sshSession.getReverseSshForwardHost();
+    if (nodeSession == null || !nodeSession.isOpen() || forwardHost == null) {
+      f.setException(new SshChannelOpenException(getChannelId(),
+          SshConstants.SSH_OPEN_CONNECT_FAILED, "Node not connected for port " + port));
+      return f;
+    }
+    final SshdSocketAddress forwardAddress = new SshdSocketAddress(forwardHost, port);
+
+    log.debug("Client requested dest {}:{} will be bridged to node {} forward {}", hostToConnect,
+        portToConnect, sshSession.getNodeId(), forwardAddress);
+
+    out = new ChannelAsyncOutputStream(this, SshConstants.SSH_MSG_CHANNEL_DATA);
+    forwarded = new ForwardedChannel(forwardAddress,
+        new SshdSocketAddress(originatorHost, originatorPort));
+    try {
+      nodeSession.getService(ConnectionService.class).registerChannel(forwarded);
+      toNode = new DataPump(this, forwarded.dataStream(), forwarded::forwardEof);
+      forwarded.open().addListener(of -> {
+        if (of.isOpened()) {
+          signalChannelOpenSuccess();
+          f.setOpened();
+        } else {
+          Throwable t = of.getException();
+          if (t == null) {
+            t = new SshException("Node channel not opened");
+          }
+          signalChannelOpenFailure(t);
+          f.setException(t);
+        }
+      });
+    } catch (IOException | RuntimeException e) {
+      forwarded.close(true);
+      f.setException(e);
+      return f;
+    }
+
+    // close each channel after the other closes, once any pending data has been written
+    forwarded.addCloseFutureListener(cf -> forwarded.toClient.finish(true));
+    addCloseFutureListener(cf -> toNode.finish(true));
+    return f;
+  }
+
+  @Override
+  protected Closeable getInnerCloseable() {
+    return builder().close(out).close(super.getInnerCloseable()).build();
+  }
+
+  @Override
+  protected void doWriteData(byte[] data, int off, long len) throws IOException {
+    toNode.write(data, off, (int) len);
+  }
+
+  @Override
+  protected void doWriteExtendedData(byte[] data, int off, long len) throws IOException {
+    throw new UnsupportedOperationException(
+        DIRECT_TCPIP_CHANNEL_TYPE + " channel does not support extended data");
+  }
+
+  @Override
+  public void handleEof() throws IOException {
+    super.handleEof();
+    toNode.finish(false);
+  }
+
+  @Override
+  public void handleWindowAdjust(Buffer buffer) throws IOException {
+    super.handleWindowAdjust(buffer);
+    if (out != null) {
+      out.onWindowExpanded();
+    }
+  }
+
+  private void forwardEof() {
+    try {
+      sendEof();
+    } catch (IOException e) {
+      log.debug("Error sending EOF on {}: {}", this, e.toString());
+    }
+  }
+
+  /**
+   * The forwarded-tcpip channel opened on the node's session.
+   */
+  private final class ForwardedChannel extends AbstractClientChannel {
+
+    private final SshdSocketAddress connected;
+    private final SshdSocketAddress originator;
+    private final DataPump toClient;
+
+    private ForwardedChannel(SshdSocketAddress connected, SshdSocketAddress originator) {
+      super(FORWARDED_TCPIP_CHANNEL_TYPE);
+      this.connected = connected;
+      this.originator = originator;
+      this.toClient = new DataPump(this, DirectTcpipBridgeChannel.this.out,
+          DirectTcpipBridgeChannel.this::forwardEof);
+    }
+
+    // the stream can only be created once this channel has been registered with its session
+    private ChannelAsyncOutputStream dataStream() {
+      asyncIn = new ChannelAsyncOutputStream(this, SshConstants.SSH_MSG_CHANNEL_DATA);
+      return asyncIn;
+    }
+
+    @Override
+    public synchronized OpenFuture open() throws IOException {
+      if (closeFuture.isClosed()) {
+        throw new SshException("Session has been closed");
+      }
+      openFuture = new DefaultOpenFuture(this, futureLock);
+      final String type = getChannelType();
+      final String connectedHost = connected.getHostName();
+      final String originatorHost = originator.getHostName();
+      Buffer buffer = getSession().createBuffer(SshConstants.SSH_MSG_CHANNEL_OPEN,
+          type.length() + connectedHost.length() + originatorHost.length() + Long.SIZE);
+      buffer.putString(type);
+      buffer.putUInt(getChannelId());
+      buffer.putUInt(getLocalWindow().getSize());
+      buffer.putUInt(getLocalWindow().getPacketSize());
+      buffer.putString(connectedHost);
+      buffer.putUInt(connected.getPort());
+      buffer.putString(originatorHost);
+      buffer.putUInt(originator.getPort());
+      writePacket(buffer);
+      return openFuture;
+    }
+
+    @Override
+    protected void doOpen() throws IOException {
+      // nothing to set up: data is written directly to the bridged channel
+    }
+
+    @Override
+    protected void doWriteData(byte[] data, int off, long len) throws IOException {
+      toClient.write(data, off, (int) len);
+    }
+
+    @Override
+    protected void doWriteExtendedData(byte[] data, int off, long len) throws IOException {
+      throw new UnsupportedOperationException(
+          FORWARDED_TCPIP_CHANNEL_TYPE + " channel does not support extended data");
+    }
+
+    @Override
+    public void handleEof() throws IOException {
+      super.handleEof();
+      toClient.finish(false);
+    }
+
+    private void forwardEof() {
+      try {
+        sendEof();
+      } catch (IOException e) {
+        log.debug("Error sending EOF on {}: {}", this, e.toString());
+      }
+    }
+
+  }
+
+  /**
+   * Writes data received on one channel to another channel, one write at a time.
+   * 
+   * <p>
+   * The source channel's local window is released as each write completes, so the amount of
+   * pending data is bounded by the source channel's window size.
+   * </p>
+   */
+  private static final class DataPump {
+
+    private final AbstractChannel source;
+    private final ChannelAsyncOutputStream target;
+    private final Runnable eofAction;
+    private final Deque<Buffer> pending = new ArrayDeque<>(4);
+    private boolean writing;
+    private boolean finished;
+    private boolean close;
+
+    private DataPump(AbstractChannel source, ChannelAsyncOutputStream target,
+        Runnable eofAction) {
+      super();
+      this.source = source;
+      this.target = target;
+      this.eofAction = eofAction;
+    }
+
+    private void write(byte[] data, int off, int len) {
+      Buffer buf = ByteArrayBuffer.getCompactClone(data, off, len);
+      synchronized (this) {
+        if (finished) {
+          return;
+        }
+        if (writing) {
+          pending.add(buf);
+          return;
+        }
+        writing = true;
+      }
+      writeBuffer(buf);
+    }
+
+    /**
+     * Signal that no more data will be written.
+     * 
+     * @param close
+     *        {@literal true} to close the target channel once pending data has been written,
+     *        {@literal false} to only send an EOF
+     */
+    private void finish(boolean close) {
+      final boolean closeTarget;
+      synchronized (this) {
+        if (close) {
+          this.close = true;
+        } else if (finished) {
+          return;
+        }
+        finished = true;
+        if (writing) {
+          return;
+        }
+        closeTarget = this.close;
+      }
+      done(closeTarget);
+    }
+
+    private void writeBuffer(Buffer buf) {
+      final int len = buf.available();
+      try {
+        target.writeBuffer(buf).addListener(wf -> {
+          if (wf.isWritten()) {
+            written(len);
+          } else {
+            abort(wf.getException());
+          }
+        });
+      } catch (IOException | RuntimeException e) {
+        abort(e);
+      }
+    }
+
+    private void written(int len) {
+      try {
+        if (source.getLocalWindow().isOpen()) {
+          source.getLocalWindow().release(len);
+        }
+      } catch (IOException e) {
+        abort(e);
+        return;
+      }
+      final Buffer next;
+      final boolean closeTarget;
+      synchronized (this) {
+        next = pending.poll();
+        if (next == null) {
+          writing = false;
+          if (!finished) {
+            return;
+          }
+        }
+        closeTarget = close;
+      }
+      if (next != null) {
+        writeBuffer(next);
+      } else {
+        done(closeTarget);
+      }
+    }
+
+    private void done(boolean close) {
+      if (close) {
+        target.getChannel().close(false);
+      } else {
+        eofAction.run();
+      }
+    }
+
+    private void abort(Throwable t) {
+      LOG.debug("Closing bridged channels {} and {} after write error: {}", source,
+          target.getChannel(), t != null ? t.toString() : null);
+      synchronized (this) {
+        finished = true;
+        pending.clear();
+      }
+      source.close(true);
+      target.getChannel().close(true);
+    }
+
+  }
+
+}
@@ -0,0 +1,322 @@
+/* ==================================================================
+ * InMemoryBruteForceDenyList.java - 16/10/2026 6:18:02 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.solarnetwork.solarssh.service.BruteForceDenyList;
+
+/**
+ * In-memory {@link BruteForceDenyList} using atomic counters with a time-to-live.
+ * 
+ * <p>
+ * Addresses are stored as a pair of {@code long} values (IPv4 addresses in their IPv4-mapped IPv6
+ * form) and each count expires {@code ttlSeconds} after it was first recorded. If a
+ * {@code snapshotPath} is configured, the counts are loaded from that file in {@link #init()} and
+ * can be saved back to it by calling {@link #snapshot()}, so they survive restarts.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class InMemoryBruteForceDenyList implements BruteForceDenyList {
+
+  /**
+   * The default value for the {@code ttlSeconds} property.
+   */
+  public static final long DEFAULT_TTL_SECONDS = TimeUnit.HOURS.toSeconds(24);
+
+  /**
+   * The default value for the {@code maxEntries} property.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+  private static final int SNAPSHOT_MAGIC = 0x534E4246; // SNBF
+  private static final int SNAPSHOT_VERSION = 1;
+  private static final long IPV4_MAPPED_PREFIX = 0xFFFF_0000_0000L;
+
+  private static final Logger log = LoggerFactory.getLogger(InMemoryBruteForceDenyList.class);
+
+  private final ConcurrentMap<AddressKey, Counter> counters = new ConcurrentHashMap<>();
+  private final AtomicBoolean dirty = new AtomicBoolean();
+  private long ttlSeconds = DEFAULT_TTL_SECONDS;
+  private int maxEntries = DEFAULT_MAX_ENTRIES;
+  private Path snapshotPath;
+
+  private record AddressKey(long hi, long lo) {
+
+  }
+
+  private static final class Counter extends AtomicInteger {
+
+    private static final long serialVersionUID = -3063963402536620108L;
+
+    private final long expires;
+
+    private Counter(int count, long expires) {
+      super(count);
+      this.expires = expires;
+    }
+
+    private boolean isExpired(long now) {
+      return now >= expires;
+    }
+
+  }
+
+  /**
+   * Initialize after all properties configured.
+   * 
+   * <p>
+   * If a {@code snapshotPath} is configured and exists, the counts saved there are loaded.
+   * </p>
+   */
+  public void init() {
+    if (snapshotPath == null || !Files.isReadable(snapshotPath)) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    int loaded = 0;
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+        log.warn("Ignoring unsupported brute force deny list snapshot {}", snapshotPath);
+        return;
+      }
+      final int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        AddressKey key = new AddressKey(in.readLong(), in.readLong());
+        int value = in.readUnsignedByte();
+        long expires = in.readLong();
+        if (expires > now) {
+          counters.put(key, new Counter(value, expires));
+          loaded++;
+        }
+      }
+      log.info("Loaded {} brute force deny list entries from {}", loaded, snapshotPath);
+    } catch (IOException e) {
+      log.warn("Error loading brute force deny list snapshot {}: {}", snapshotPath, e.toString());
+    }
+  }
+
+  /**
+   * Save a final snapshot.
+   */
+  public void destroy() {
+    snapshot();
+  }
+
+  @Override
+  public int getCount(InetAddress address) {
+    final AddressKey key = key(address);
+    final Counter c = counters.get(key);
+    if (c == null) {
+      return 0;
+    }
+    if (c.isExpired(System.currentTimeMillis())) {
+      counters.remove(key, c);
+      return 0;
+    }
+    return c.get();
+  }
+
+  @Override
+  public int incrementCount(InetAddress address) {
+    final AddressKey key = key(address);
+    while (true) {
+      final long now = System.currentTimeMillis();
+      Counter c = counters.get(key);
+      if (c == null || c.isExpired(now)) {
+        Counter n = new Counter(1, now + TimeUnit.SECONDS.toMillis(ttlSeconds));
+        boolean added = (c == null ? counters.putIfAbsent(key, n) == null
+            : counters.replace(key, c, n));
+        if (added) {
+          dirty.set(true);
+          if (c == null && counters.size() > maxEntries) {
+            trim();
+          }
+          return 1;
+        }
+        continue;
+      }
+      int count = c.accumulateAndGet(1, (curr, inc) -> Math.min(curr + inc, MAX_COUNT));
+      dirty.set(true);
+      return count;
+    }
+  }
+
+  /**
+   * Get the number of tracked addresses.
+   * 
+   * @return the number of addresses, which may include expired entries not yet purged
+   */
+  public int size() {
+    return counters.size();
+  }
+
+  /**
+   * Remove all expired entries.
+   * 
+   * @return the number of entries removed
+   */
+  public int purgeExpired() {
+    final long now = System.currentTimeMillis();
+    int removed = 0;
+    for (Iterator<Counter> itr = counters.values().iterator(); itr.hasNext();) {
+      if (itr.next().isExpired(now)) {
+        itr.remove();
+        removed++;
+      }
+    }
+    if (removed > 0) {
+      dirty.set(true);
+    }
+    return removed;
+  }
+
+  /**
+   * Remove expired entries, then the entries closest to expiring, to bring the size back under
+   * {@code maxEntries}.
+   */
+  private synchronized void trim() {
+    if (counters.size() <= maxEntries) {
+      return;
+    }
+    purgeExpired();
+    if (counters.size() <= maxEntries) {
+      return;
+    }
+    List<Map.Entry<AddressKey, Counter>> entries = new ArrayList<>(counters.entrySet());
+    entries.sort(Comparator.comparingLong(e -> e.getValue().expires));
+
+    // remove an extra 10% to avoid trimming on every new address
+    int toRemove = entries.size() - maxEntries + (maxEntries / 10);
+    for (int i = 0; i < toRemove && i < entries.size(); i++) {
+      Map.Entry<AddressKey, Counter> e = entries.get(i);
+      counters.remove(e.getKey(), e.getValue());
+    }
+    log.warn("Brute force deny list exceeded {} entries; removed {} oldest entries", maxEntries,
+        toRemove);
+  }
+
+  /**
+   * Purge expired entries and save the current counts to the {@code snapshotPath}, if any changes
+   * have been made since the last snapshot.
+   */
+  public void snapshot() {
+    purgeExpired();
+    if (snapshotPath == null || !dirty.getAndSet(false)) {
+      return;
+    }
+    List<Map.Entry<AddressKey, Counter>> entries = new ArrayList<>(counters.entrySet());
+    try {
+      Path dir = snapshotPath.toAbsolutePath().getParent();
+      if (dir != null) {
+        Files.createDirectories(dir);
+      }
+      Path tmp = Files.createTempFile(dir, snapshotPath.getFileName().toString(), ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeInt(entries.size());
+        for (Map.Entry<AddressKey, Counter> e : entries) {
+          out.writeLong(e.getKey().hi());
+          out.writeLong(e.getKey().lo());
+          out.writeByte(e.getValue().get());
+          out.writeLong(e.getValue().expires);
+        }
+      }
+      Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      log.debug("Saved {} brute force deny list entries to {}", entries.size(), snapshotPath);
+    } catch (IOException e) {
+      dirty.set(true);
+      log.warn("Error saving brute force deny list snapshot {}: {}", snapshotPath, e.toString());
+    }
+  }
+
+  private static AddressKey key(InetAddress address) {
+    byte[] data = address.getAddress();
+    if (address instanceof Inet4Address) {
+      long ipv4 = ByteBuffer.wrap(data).getInt() & 0xFFFFFFFFL;
+      return new AddressKey(0L, IPV4_MAPPED_PREFIX | ipv4);
+    }
+    ByteBuffer buf = ByteBuffer.wrap(data);
+    return new AddressKey(buf.getLong(), buf.getLong());
+  }
+
+  /**
+   * Set the number of seconds after an address is first tracked that its count expires.
+   * 
+   * @param ttlSeconds
+   *        the seconds; defaults to {@link #DEFAULT_TTL_SECONDS}
+   */
+  public void setTtlSeconds(long ttlSeconds) {
+    this.ttlSeconds = ttlSeconds;
+  }
+
+  /**
+   * Set the maximum number of addresses to track.
+   * 
+   * @param maxEntries
+   *        the maximum; defaults to {@link #DEFAULT_MAX_ENTRIES}
+   */
+  public void setMaxEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Set the path to save snapshots to.
+   * 
+   * @param snapshotPath
+   *        the path, or {@literal null} to not save snapshots
+   */
+  public void setSnapshotPath(Path snapshotPath) {
+    this.snapshotPath = snapshotPath;
+  }
+
+}
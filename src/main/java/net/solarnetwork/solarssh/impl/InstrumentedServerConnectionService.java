@@ -0,0 +1,118 @@
+/* ==================================================================
+ * InstrumentedServerConnectionService.java - 16/10/2026 9:52:10 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.io.IOException;
+
+import org.apache.sshd.common.Service;
+import org.apache.sshd.common.channel.Channel;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.util.ValidateUtils;
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.server.session.AbstractServerSession;
+import org.apache.sshd.server.session.ServerConnectionService;
+import org.apache.sshd.server.session.ServerConnectionServiceFactory;
+
+/**
+ * Server connection service that reports inbound channel data to a {@link ChannelInstrumentation}.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class InstrumentedServerConnectionService extends ServerConnectionService {
+
+  private final ChannelInstrumentation instrumentation;
+
+  /**
+   * Constructor.
+   * 
+   * @param session
+   *        the session
+   * @param instrumentation
+   *        the instrumentation to report to
+   * @throws IOException
+   *         if any error occurs
+   */
+  protected InstrumentedServerConnectionService(AbstractServerSession session,
+      ChannelInstrumentation instrumentation) throws IOException {
+    super(session);
+    this.instrumentation = instrumentation;
+  }
+
+  @Override
+  public void channelData(Buffer buffer) throws IOException {
+    dataReceived(buffer, false);
+    super.channelData(buffer);
+  }
+
+  @Override
+  public void channelExtendedData(Buffer buffer) throws IOException {
+    dataReceived(buffer, true);
+    super.channelExtendedData(buffer);
+  }
+
+  private void dataReceived(Buffer buffer, boolean extended) {
+    if (buffer.available() < (extended ? 12 : 8)) {
+      // leave malformed messages for the default handling
+      return;
+    }
+    final int rpos = buffer.rpos();
+    final long id = buffer.getUInt();
+    buffer.rpos(rpos);
+    Channel channel = channels.get(id);
+    if (channel != null) {
+      instrumentation.dataReceived(channel, ChannelInstrumentation.dataLength(buffer, extended));
+    }
+  }
+
+  /**
+   * Factory for {@link InstrumentedServerConnectionService} instances.
+   */
+  public static class Factory extends ServerConnectionServiceFactory {
+
+    private final ChannelInstrumentation instrumentation;
+
+    /**
+     * Constructor.
+     * 
+     * @param instrumentation
+     *        the instrumentation to report to
+     */
+    public Factory(ChannelInstrumentation instrumentation) {
+      super();
+      this.instrumentation = instrumentation;
+    }
+
+    @Override
+    public Service create(Session session) throws IOException {
+      AbstractServerSession abstractSession = ValidateUtils.checkInstanceOf(session,
+          AbstractServerSession.class, "Not a server session: %s", session);
+      InstrumentedServerConnectionService service = new InstrumentedServerConnectionService(
+          abstractSession, instrumentation);
+      service.addPortForwardingEventListenerManager(this);
+      return service;
+    }
+
+  }
+
+}
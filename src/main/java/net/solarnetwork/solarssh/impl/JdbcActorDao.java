@@ -26,16 +26,33 @@ import static java.time.Instant.now;
 import static net.solarnetwork.solarssh.Globals.DEFAULT_SN_HOST;
 import static net.solarnetwork.util.StringUtils.delimitedStringToMap;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.cache.Cache;
+import javax.cache.configuration.CompleteConfiguration;
+import javax.cache.expiry.Duration;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,8 +60,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import net.solarnetwork.security.Snws2AuthorizationBuilder;
+import net.solarnetwork.service.PingTest;
+import net.solarnetwork.service.PingTestResult;
 import net.solarnetwork.solarssh.dao.ActorDao;
 import net.solarnetwork.solarssh.domain.Actor;
 import net.solarnetwork.solarssh.domain.SnTokenDetails;
@@ -53,9 +74,9 @@ import net.solarnetwork.solarssh.domain.SnTokenDetails;
  * JDBC implementation of {@link ActorDao}.
  * 
  * @author matt
- * @version 1.2
+ * @version 1.8
  */
-public class JdbcActorDao implements ActorDao {
+public class JdbcActorDao implements ActorDao, PingTest {
 
   /**
    * The default value for the {@code snHost} property.
@@ -79,16 +100,80 @@ public class JdbcActorDao implements ActorDao {
    */
   public static final String DEFAULT_AUTHORIZE_CALL = "SELECT user_id,token_type,jpolicy,node_ids FROM solaruser.user_auth_token_node_ids WHERE auth_token = ?";
 
+  /**
+   * A combined authenticate and authorize call, suitable for the {@code authenticateAuthorizeCall}
+   * property.
+   * 
+   * @since 1.4
+   */
+  public static final String DEFAULT_AUTHENTICATE_AUTHORIZE_CALL = "SELECT a.user_id,a.token_type,a.jpolicy,a.node_ids FROM solaruser.user_auth_token_node_ids a WHERE a.auth_token = ? AND EXISTS (SELECT 1 FROM solaruser.snws2_find_verified_token_details(a.auth_token,?,?,?,?))";
+
   // CHECKSTYLE ON: LineLength
 
   private static final Logger log = LoggerFactory.getLogger(JdbcActorDao.class);
 
+  /**
+   * The default value for the {@code refreshAheadQueueSize} property.
+   * 
+   * @since 1.4
+   */
+  public static final int DEFAULT_REFRESH_AHEAD_QUEUE_SIZE = 100;
+
+  /**
+   * The default value for the {@code asyncThreads} property.
+   * 
+   * @since 1.4
+   */
+  public static final int DEFAULT_ASYNC_THREADS = 4;
+
+  /**
+   * The default value for the {@code asyncQueueSize} property.
+   * 
+   * @since 1.4
+   */
+  public static final int DEFAULT_ASYNC_QUEUE_SIZE = 100;
+
+  private static final String TOKEN_CACHE_KEY_ALG = "HmacSHA256";
+
   private final JdbcOperations jdbcOps;
   private String authenticateCall = DEFAULT_AUTHENTICATE_CALL;
   private String authorizeCall = DEFAULT_AUTHORIZE_CALL;
+  private String authenticateAuthorizeCall;
   private String snHost = DEFAULT_SN_HOST;
   private String snPath = DEFAULT_SN_PATH;
   private Cache<String, Actor> actorCache;
+  private Cache<String, SnTokenDetails> tokenCache;
+  private Cache<String, Boolean> negativeCache;
+  private CacheEntryCounter tokenCacheCounter;
+  private CacheEntryCounter negativeCacheCounter;
+  private int refreshAheadSeconds;
+  private double refreshAheadRatio;
+  private int refreshAheadQueueSize = DEFAULT_REFRESH_AHEAD_QUEUE_SIZE;
+  private int asyncThreads = DEFAULT_ASYNC_THREADS;
+  private int asyncQueueSize = DEFAULT_ASYNC_QUEUE_SIZE;
+
+  private ThreadPoolExecutor refreshExecutor;
+  private ThreadPoolExecutor asyncExecutor;
+  private final AtomicLong asyncRejectedCount = new AtomicLong();
+  private final Map<String, Long> actorLoadTimes = new ConcurrentHashMap<>(64, 0.9f, 4);
+  private final Set<String> actorRefreshes = ConcurrentHashMap.newKeySet();
+  private final AtomicLong actorEvictionSequence = new AtomicLong();
+  private final AtomicLong actorRefreshCount = new AtomicLong();
+  private final AtomicLong actorRefreshRemovals = new AtomicLong();
+  private final AtomicLong actorEvictions = new AtomicLong();
+
+  private final byte[] tokenCacheKeySalt;
+  private final AtomicLong tokenCacheHits = new AtomicLong();
+  private final AtomicLong tokenCacheMisses = new AtomicLong();
+  private final AtomicLong tokenCacheEvictions = new AtomicLong();
+  private final AtomicLong actorCacheHits = new AtomicLong();
+  private final AtomicLong actorCacheMisses = new AtomicLong();
+  private final AtomicLong negativeCacheHits = new AtomicLong();
+  private final AtomicLong negativeCacheMisses = new AtomicLong();
+  private final AtomicLong tokenGenerationSequence = new AtomicLong();
+  private final Map<String, TokenGeneration> tokenGenerations = new ConcurrentHashMap<>(16, 0.9f,
+      4);
+  private OperationTimer authenticateTimer = OperationTimer.NONE;
 
   /**
    * Constructor.
@@ -99,25 +184,327 @@ public class JdbcActorDao implements ActorDao {
   public JdbcActorDao(JdbcOperations jdbcOps) {
     super();
     this.jdbcOps = jdbcOps;
+    this.tokenCacheKeySalt = new byte[32];
+    new SecureRandom().nextBytes(tokenCacheKeySalt);
+  }
+
+  /**
+   * Initialize after properties configured.
+   * 
+   * <p>
+   * If {@link #getAsyncThreads()} is greater than {@literal 0} a thread pool is created for
+   * {@link #getAuthenticatedActorAsync(Long, String, String)}. If
+   * {@link #getRefreshAheadSeconds()} is greater than {@literal 0}, or is derived from
+   * {@link #getRefreshAheadRatio()} and the actor cache expiry policy, a background thread is
+   * started to refresh actor cache entries.
+   * </p>
+   * 
+   * @since 1.4
+   */
+  public synchronized void init() {
+    if (refreshAheadSeconds < 1 && refreshAheadRatio > 0 && refreshAheadRatio < 1) {
+      refreshAheadSeconds = (int) (actorCacheTtlSeconds() * refreshAheadRatio);
+    }
+    if (asyncExecutor == null && asyncThreads > 0) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60L,
+          TimeUnit.SECONDS, new ArrayBlockingQueue<>(asyncQueueSize),
+          new CustomizableThreadFactory("SolarSSH-ActorDao-"));
+      executor.allowCoreThreadTimeOut(true);
+      asyncExecutor = executor;
+    }
+    if (refreshExecutor == null && refreshAheadSeconds > 0) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<>(refreshAheadQueueSize),
+          new CustomizableThreadFactory("SolarSSH-ActorRefresh-"));
+      executor.allowCoreThreadTimeOut(true);
+      refreshExecutor = executor;
+    }
+  }
+
+  /**
+   * Get the time-to-live of entries in the actor cache, from the cache's expiry policy.
+   * 
+   * @return the TTL, in seconds, or {@literal 0} if not known
+   */
+  private long actorCacheTtlSeconds() {
+    return cacheTtlSeconds(getActorCache());
+  }
+
+  /**
+   * Get the time-to-live of entries in a cache, from the cache's expiry policy.
+   * 
+   * @param cache
+   *        the cache
+   * @return the TTL, in seconds, or {@literal 0} if not known
+   */
+  private static long cacheTtlSeconds(Cache<?, ?> cache) {
+    if (cache == null) {
+      return 0;
+    }
+    @SuppressWarnings("unchecked")
+    CompleteConfiguration<?, ?> conf = cache.getConfiguration(CompleteConfiguration.class);
+    Duration ttl = conf.getExpiryPolicyFactory().create().getExpiryForCreation();
+    if (ttl == null || ttl.isEternal() || ttl.getTimeUnit() == null) {
+      return 0;
+    }
+    return ttl.getTimeUnit().toSeconds(ttl.getDurationAmount());
+  }
+
+  /**
+   * Shut down the background threads.
+   * 
+   * @since 1.4
+   */
+  public synchronized void destroy() {
+    if (asyncExecutor != null) {
+      asyncExecutor.shutdownNow();
+      asyncExecutor = null;
+    }
+    if (refreshExecutor != null) {
+      refreshExecutor.shutdownNow();
+      refreshExecutor = null;
+    }
+    actorRefreshes.clear();
+  }
+
+  @Override
+  public String getPingTestId() {
+    return getClass().getName();
+  }
+
+  @Override
+  public String getPingTestName() {
+    return "SolarSSH Actor DAO";
+  }
+
+  @Override
+  public long getPingTestMaximumExecutionMilliseconds() {
+    return 1000;
+  }
+
+  @Override
+  public Result performPingTest() throws Exception {
+    Map<String, Object> properties = new LinkedHashMap<>(16);
+    addCacheStatistics(properties, "actorCache", actorCache, null, actorCacheHits,
+        actorCacheMisses);
+    properties.put("actorCacheRefreshes", actorRefreshCount.get());
+    properties.put("actorCacheRefreshRemovals", actorRefreshRemovals.get());
+    properties.put("actorCacheEvictions", actorEvictions.get());
+    final ThreadPoolExecutor executor = refreshExecutor;
+    if (executor != null) {
+      properties.put("actorCacheRefreshQueueSize", executor.getQueue().size());
+    }
+    final ThreadPoolExecutor async = asyncExecutor;
+    if (async != null) {
+      properties.put("asyncActiveCount", async.getActiveCount());
+      properties.put("asyncQueueSize", async.getQueue().size());
+      properties.put("asyncCompletedCount", async.getCompletedTaskCount());
+      properties.put("asyncRejectedCount", asyncRejectedCount.get());
+    }
+    addCacheStatistics(properties, "tokenCache", tokenCache, tokenCacheCounter, tokenCacheHits,
+        tokenCacheMisses);
+    properties.put("tokenCacheEvictions", tokenCacheEvictions.get());
+    addCacheStatistics(properties, "negativeCache", negativeCache, negativeCacheCounter,
+        negativeCacheHits, negativeCacheMisses);
+    final SecurityPolicyCache policyCache = SecurityPolicyCache.sharedInstance();
+    properties.put("policyCacheHits", policyCache.getHitCount());
+    properties.put("policyCacheMisses", policyCache.getMissCount());
+    String msg = String.format("Token cache %d hits, %d misses; negative cache %d hits.",
+        tokenCacheHits.get(), tokenCacheMisses.get(), negativeCacheHits.get());
+    return new PingTestResult(true, msg, properties);
+  }
+
+  private static void addCacheStatistics(Map<String, Object> properties, String prefix,
+      Cache<?, ?> cache, CacheEntryCounter counter, AtomicLong hitCount, AtomicLong missCount) {
+    if (cache == null) {
+      return;
+    }
+    if (counter != null) {
+      properties.put(prefix + "Size", counter.getCount());
+    }
+    final long hits = hitCount.get();
+    final long total = hits + missCount.get();
+    properties.put(prefix + "Hits", hits);
+    properties.put(prefix + "Misses", total - hits);
+    properties.put(prefix + "HitRate", total > 0 ? (double) hits / total : 0.0);
   }
 
   @Override
   public Actor getAuthenticatedActor(final Long nodeId, final String tokenId,
       final String tokenSecret) {
-    SnTokenDetails authentication = authenticateToken(tokenId, tokenSecret);
+    final long start = System.nanoTime();
+    boolean success = false;
+    try {
+      Actor result = authenticatedActor(nodeId, tokenId, tokenSecret);
+      success = true;
+      return result;
+    } finally {
+      authenticateTimer.record(start, success);
+    }
+  }
+
+  private Actor authenticatedActor(final Long nodeId, final String tokenId,
+      final String tokenSecret) {
+    final Cache<String, Boolean> negCache = getNegativeCache();
+    final String credKey = (negCache != null || getTokenCache() != null
+        ? tokenCacheKey(tokenId, tokenSecret)
+        : null);
+    final String nodeKey = (negCache != null ? negativeNodeCacheKey(tokenId, nodeId) : null);
+    if (negCache != null) {
+      if ((nodeKey != null && negCache.containsKey(nodeKey))
+          || (credKey != null && negCache.containsKey(credKey))) {
+        negativeCacheHits.incrementAndGet();
+        return null;
+      }
+      negativeCacheMisses.incrementAndGet();
+    }
+    SnTokenDetails authentication = cachedVerifiedToken(credKey);
+    Actor actor = null;
     if (authentication == null) {
-      return null;
+      if (authenticateAuthorizeCall != null && !isActorCached(tokenId)) {
+        actor = authenticateAndAuthorize(tokenId, tokenSecret, credKey);
+      } else {
+        authentication = authenticateToken(tokenId, tokenSecret);
+        cacheVerifiedToken(credKey, authentication);
+      }
+      if (authentication == null && actor == null) {
+        if (negCache != null && credKey != null) {
+          negCache.put(credKey, Boolean.TRUE);
+        }
+        return null;
+      }
     }
-    Actor actor = actor(tokenId);
-    if (actor.getAllowedNodeIds() == null || !actor.getAllowedNodeIds().contains(nodeId)) {
+    if (actor == null) {
+      actor = actor(tokenId);
+    }
+    if (actor == null || nodeId == null || actor.getAllowedNodeIds() == null
+        || !actor.getAllowedNodeIds().contains(nodeId.longValue())) {
+      if (negCache != null && nodeKey != null) {
+        negCache.put(nodeKey, Boolean.TRUE);
+      }
       return null;
     }
     return actor;
   }
 
-  private SnTokenDetails authenticateToken(String tokenId, String tokenSecret) {
-    log.debug("Authenticating [{}] @ {}{}", tokenId, snHost, snPath);
-    List<SnTokenDetails> results = jdbcOps.query(new PreparedStatementCreator() {
+  /**
+   * {@inheritDoc}
+   * 
+   * <p>
+   * This implementation runs {@link #getAuthenticatedActor(Long, String, String)} on a bounded
+   * thread pool, if {@link #getAsyncThreads()} is greater than {@literal 0}. If the pool queue is
+   * full, the returned future fails with a {@link RejectedExecutionException}.
+   * </p>
+   */
+  @Override
+  public CompletableFuture<Actor> getAuthenticatedActorAsync(Long nodeId, String tokenId,
+      String tokenSecret) {
+    final ThreadPoolExecutor executor = asyncExecutor;
+    if (executor == null) {
+      return ActorDao.super.getAuthenticatedActorAsync(nodeId, tokenId, tokenSecret);
+    }
+    try {
+      return CompletableFuture
+          .supplyAsync(() -> getAuthenticatedActor(nodeId, tokenId, tokenSecret), executor);
+    } catch (RejectedExecutionException e) {
+      asyncRejectedCount.incrementAndGet();
+      log.warn("Actor DAO queue full, rejecting authentication for token [{}]", tokenId);
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private String negativeNodeCacheKey(String tokenId, Long nodeId) {
+    if (tokenId == null || nodeId == null) {
+      return null;
+    }
+    return "Node-" + tokenId + ':' + tokenGeneration(tokenId) + ':' + nodeId;
+  }
+
+  /**
+   * An eviction generation for a token.
+   * 
+   * @param generation
+   *        the generation, which is included in the token's cache keys
+   * @param evicted
+   *        the time the token was evicted, in milliseconds since the epoch
+   */
+  private static record TokenGeneration(long generation, long evicted) {
+  }
+
+  /**
+   * Get the current eviction generation of a token.
+   * 
+   * @param tokenId
+   *        the token ID
+   * @return the generation, or {@literal 0} if the token has not been evicted
+   */
+  private long tokenGeneration(String tokenId) {
+    final TokenGeneration gen = tokenGenerations.get(tokenId);
+    return (gen != null ? gen.generation() : 0L);
+  }
+
+  private SnTokenDetails cachedVerifiedToken(String credKey) {
+    final Cache<String, SnTokenDetails> cache = getTokenCache();
+    if (cache == null || credKey == null) {
+      return null;
+    }
+    SnTokenDetails details = cache.get(credKey);
+    if (details == null) {
+      tokenCacheMisses.incrementAndGet();
+      return null;
+    }
+    if (details.getPolicy() != null && !details.getPolicy().isValidAt(now())) {
+      // policy has expired since verified
+      cache.remove(credKey);
+      tokenCacheEvictions.incrementAndGet();
+      return null;
+    }
+    tokenCacheHits.incrementAndGet();
+    return details;
+  }
+
+  private void cacheVerifiedToken(String credKey, SnTokenDetails details) {
+    final Cache<String, SnTokenDetails> cache = getTokenCache();
+    if (cache != null && credKey != null && details != null) {
+      cache.put(credKey, details);
+    }
+  }
+
+  /**
+   * Get a token cache key.
+   * 
+   * <p>
+   * The key is the token ID combined with a salted HMAC of the token secret, so the secret itself
+   * is never stored. The token's eviction generation is included, so that entries cached before
+   * the token was evicted no longer match.
+   * </p>
+   * 
+   * @param tokenId
+   *        the token ID
+   * @param tokenSecret
+   *        the token secret
+   * @return the key, or {@literal null} if a key cannot be generated
+   */
+  private String tokenCacheKey(String tokenId, String tokenSecret) {
+    if (tokenId == null || tokenSecret == null) {
+      return null;
+    }
+    try {
+      Mac mac = Mac.getInstance(TOKEN_CACHE_KEY_ALG);
+      mac.init(new SecretKeySpec(tokenCacheKeySalt, TOKEN_CACHE_KEY_ALG));
+      mac.update(tokenId.getBytes(StandardCharsets.UTF_8));
+      mac.update((byte) 0);
+      byte[] digest = mac.doFinal(tokenSecret.getBytes(StandardCharsets.UTF_8));
+      return tokenId + ':' + tokenGeneration(tokenId) + ':' + HexFormat.of().formatHex(digest);
+    } catch (GeneralSecurityException e) {
+      log.warn("Unable to generate token cache key: {}", e.toString());
+      return null;
+    }
+  }
+
+  private PreparedStatementCreator authenticateStatement(String sql, String tokenId,
+      String tokenSecret) {
+    return new PreparedStatementCreator() {
 
       @Override
       public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
@@ -128,18 +515,25 @@ public class JdbcActorDao implements ActorDao {
         final Map<String, String> authTokens = delimitedStringToMap(auth, ",", "=");
         final Timestamp ts = Timestamp.from(now);
 
-        PreparedStatement stmt = con.prepareStatement(authenticateCall, ResultSet.TYPE_FORWARD_ONLY,
+        PreparedStatement stmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
             ResultSet.CONCUR_READ_ONLY);
         stmt.setString(1, tokenId);
         stmt.setTimestamp(2, ts);
         stmt.setString(3, snHost);
         stmt.setString(4, snPath);
         stmt.setString(5, authTokens.get(SIGNATURE_TOKEN));
-        log.debug("Authenticating with SQL: {} [{},{},{},{},{}]", authenticateCall, tokenId, ts,
-            snHost, snPath, authTokens.get(SIGNATURE_TOKEN));
+        log.debug("Authenticating with SQL: {} [{},{},{},{},{}]", sql, tokenId, ts, snHost, snPath,
+            authTokens.get(SIGNATURE_TOKEN));
         return stmt;
       }
-    }, new SnTokenDetailsRowMapper(tokenId));
+    };
+  }
+
+  private SnTokenDetails authenticateToken(String tokenId, String tokenSecret) {
+    log.debug("Authenticating [{}] @ {}{}", tokenId, snHost, snPath);
+    List<SnTokenDetails> results = jdbcOps.query(
+        authenticateStatement(authenticateCall, tokenId, tokenSecret),
+        new SnTokenDetailsRowMapper(tokenId));
 
     if (results == null || results.isEmpty()) {
       return null;
@@ -154,15 +548,55 @@ public class JdbcActorDao implements ActorDao {
     return details;
   }
 
+  private Actor authenticateAndAuthorize(String tokenId, String tokenSecret, String credKey) {
+    log.debug("Authenticating and authorizing [{}] @ {}{}", tokenId, snHost, snPath);
+    final long evictionSequence = actorEvictionSequence.get();
+    final SnTokenDetailsRowMapper tokenMapper = new SnTokenDetailsRowMapper(tokenId);
+    final ActorDetailsRowMapper actorMapper = new ActorDetailsRowMapper(tokenId);
+    List<VerifiedActor> results = jdbcOps.query(
+        authenticateStatement(authenticateAuthorizeCall, tokenId, tokenSecret),
+        (rs, rowNum) -> new VerifiedActor(tokenMapper.mapRow(rs, rowNum),
+            actorMapper.mapRow(rs, rowNum)));
+
+    if (results == null || results.isEmpty()) {
+      return null;
+    }
+
+    // verify not expired
+    VerifiedActor result = results.get(0);
+    SnTokenDetails details = result.details();
+    if (details.getPolicy() != null && !details.getPolicy().isValidAt(now())) {
+      return null;
+    }
+
+    cacheVerifiedToken(credKey, details);
+    cacheActor(getActorCache(), cacheKeyForTokenId(tokenId), result.actor(), evictionSequence);
+    return result.actor();
+  }
+
+  /**
+   * The results of a combined authenticate and authorize query.
+   */
+  private static record VerifiedActor(SnTokenDetails details, Actor actor) {
+  }
+
   private Actor actor(String tokenId) {
     final Cache<String, Actor> cache = getActorCache();
     final String actorCacheKey = cacheKeyForTokenId(tokenId);
     if (cache != null && actorCacheKey != null) {
       Actor actor = cache.get(actorCacheKey);
       if (actor != null) {
+        actorCacheHits.incrementAndGet();
+        refreshAheadIfNeeded(cache, tokenId, actorCacheKey);
         return actor;
       }
+      actorCacheMisses.incrementAndGet();
     }
+    return loadActor(cache, tokenId, actorCacheKey);
+  }
+
+  private Actor loadActor(Cache<String, Actor> cache, String tokenId, String actorCacheKey) {
+    final long evictionSequence = actorEvictionSequence.get();
     List<Actor> results = jdbcOps.query(new PreparedStatementCreator() {
 
       @Override
@@ -176,14 +610,171 @@ public class JdbcActorDao implements ActorDao {
 
     if (results != null && !results.isEmpty()) {
       Actor actor = results.get(0);
-      if (cache != null && actorCacheKey != null) {
-        cache.put(actorCacheKey, actor);
-      }
+      cacheActor(cache, actorCacheKey, actor, evictionSequence);
       return actor;
     }
     return null;
   }
 
+  private void cacheActor(Cache<String, Actor> cache, String actorCacheKey, Actor actor,
+      long evictionSequence) {
+    // skip caching if an eviction happened while querying, as the results might be stale
+    if (cache != null && actorCacheKey != null && actor != null
+        && evictionSequence == actorEvictionSequence.get()) {
+      cache.put(actorCacheKey, actor);
+      if (refreshAheadSeconds > 0) {
+        actorLoadTimes.put(actorCacheKey, System.currentTimeMillis());
+      }
+      if (evictionSequence != actorEvictionSequence.get()) {
+        // an eviction raced with the put, which might have restored a stale entry
+        cache.remove(actorCacheKey, actor);
+        actorLoadTimes.remove(actorCacheKey);
+      }
+    }
+  }
+
+  private void refreshAheadIfNeeded(Cache<String, Actor> cache, String tokenId,
+      String actorCacheKey) {
+    final ThreadPoolExecutor executor = refreshExecutor;
+    if (executor == null) {
+      return;
+    }
+    final Long loaded = actorLoadTimes.get(actorCacheKey);
+    if (loaded == null
+        || loaded + TimeUnit.SECONDS.toMillis(refreshAheadSeconds) > System.currentTimeMillis()
+        || !actorRefreshes.add(actorCacheKey)) {
+      return;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          refreshActor(cache, tokenId, actorCacheKey);
+        } finally {
+          actorRefreshes.remove(actorCacheKey);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // queue full; entry will be refreshed on a later hit, or reloaded when it expires
+      actorRefreshes.remove(actorCacheKey);
+    }
+  }
+
+  private void refreshActor(Cache<String, Actor> cache, String tokenId, String actorCacheKey) {
+    final long evictionSequence = actorEvictionSequence.get();
+    try {
+      Actor actor = loadActor(cache, tokenId, actorCacheKey);
+      if (actor != null) {
+        actorRefreshCount.incrementAndGet();
+      } else if (evictionSequence == actorEvictionSequence.get()) {
+        // token no longer exists
+        cache.remove(actorCacheKey);
+        actorLoadTimes.remove(actorCacheKey);
+        actorRefreshRemovals.incrementAndGet();
+      }
+      log.debug("Refreshed actor cache for token [{}]: {}", tokenId,
+          actor != null ? "updated" : "removed");
+    } catch (RuntimeException e) {
+      log.warn("Error refreshing actor cache for token [{}]: {}", tokenId, e.toString());
+    }
+  }
+
+  /**
+   * Evict all cached data for a specific token.
+   * 
+   * <p>
+   * This evicts the token's actor, along with any verified or failed authentication results for
+   * the token. It is meant to be called when a token is known to have changed, for example when a
+   * token is deleted or its policy is updated.
+   * </p>
+   * 
+   * <p>
+   * Authentication results are not removed from their caches individually. Instead the token's
+   * eviction generation, which is part of their cache keys, is advanced so existing entries no
+   * longer match and are left to expire.
+   * </p>
+   * 
+   * @param tokenId
+   *        the ID of the token to evict, or {@literal null} or an empty string to evict all tokens
+   * @since 1.4
+   */
+  public void evictToken(String tokenId) {
+    actorEvictionSequence.incrementAndGet();
+    actorEvictions.incrementAndGet();
+    final Cache<String, Actor> actors = getActorCache();
+    if (tokenId == null || tokenId.isEmpty()) {
+      if (actors != null) {
+        actors.removeAll();
+      }
+      actorLoadTimes.clear();
+      if (tokenCache != null) {
+        tokenCache.removeAll();
+      }
+      if (negativeCache != null) {
+        negativeCache.removeAll();
+      }
+      tokenGenerations.clear();
+      log.info("Evicted all cached tokens");
+      return;
+    }
+    final String actorCacheKey = cacheKeyForTokenId(tokenId);
+    if (actors != null) {
+      actors.remove(actorCacheKey);
+    }
+    actorLoadTimes.remove(actorCacheKey);
+    tokenGenerations.put(tokenId, new TokenGeneration(tokenGenerationSequence.incrementAndGet(),
+        System.currentTimeMillis()));
+    log.info("Evicted cached token [{}]", tokenId);
+  }
+
+  /**
+   * Forget the eviction generations of tokens evicted long enough ago that all entries cached
+   * under an earlier generation have expired.
+   * 
+   * <p>
+   * A generation is kept for twice the longest token or negative cache TTL. If either cache has
+   * no expiry, generations are kept until all tokens are evicted. This method should be called
+   * periodically.
+   * </p>
+   * 
+   * @since 1.7
+   */
+  public void cleanupTokenGenerations() {
+    final Cache<String, SnTokenDetails> tokens = getTokenCache();
+    final Cache<String, Boolean> negatives = getNegativeCache();
+    final long tokenTtl = cacheTtlSeconds(tokens);
+    final long negativeTtl = cacheTtlSeconds(negatives);
+    if ((tokens != null && tokenTtl < 1) || (negatives != null && negativeTtl < 1)) {
+      return;
+    }
+    final long expired = System.currentTimeMillis()
+        - TimeUnit.SECONDS.toMillis(2 * Math.max(tokenTtl, negativeTtl));
+    tokenGenerations.values().removeIf(g -> g.evicted() < expired);
+  }
+
+  /**
+   * Remove refresh-ahead tracking for actors that are no longer cached.
+   * 
+   * <p>
+   * This method should be called periodically when refresh-ahead is enabled.
+   * </p>
+   * 
+   * @since 1.4
+   */
+  public void cleanupRefreshAheadTracking() {
+    final Cache<String, Actor> cache = getActorCache();
+    if (cache == null) {
+      actorLoadTimes.clear();
+      return;
+    }
+    actorLoadTimes.keySet().removeIf(k -> !cache.containsKey(k));
+  }
+
+  private boolean isActorCached(String tokenId) {
+    final Cache<String, Actor> cache = getActorCache();
+    final String actorCacheKey = cacheKeyForTokenId(tokenId);
+    return (cache != null && actorCacheKey != null && cache.containsKey(actorCacheKey));
+  }
+
   private String cacheKeyForTokenId(String tokenId) {
     if (tokenId == null) {
       return null;
@@ -294,6 +885,36 @@ public class JdbcActorDao implements ActorDao {
     this.authorizeCall = jdbcCall;
   }
 
+  /**
+   * Get the combined authenticate and authorize JDBC call to use.
+   * 
+   * @return the JDBC call, or {@literal null} if separate authenticate and authorize calls are used
+   * @since 1.4
+   */
+  public String getAuthenticateAuthorizeCall() {
+    return authenticateAuthorizeCall;
+  }
+
+  /**
+   * Set a combined authenticate and authorize JDBC call to use.
+   * 
+   * <p>
+   * When configured, this JDBC statement is used in place of the separate authenticate and
+   * authorize calls when neither the verified token nor the actor are cached, so a login needs only
+   * one database round trip. The statement is expected to take the same parameters as
+   * {@link #setAuthenticateCall(String)} and return the same result set as
+   * {@link #setAuthorizeCall(String)}. If the credentials do not match, an empty result set is
+   * expected. See {@link #DEFAULT_AUTHENTICATE_AUTHORIZE_CALL} for an example.
+   * </p>
+   * 
+   * @param jdbcCall
+   *        the JDBC call, or {@literal null} to use separate authenticate and authorize calls
+   * @since 1.4
+   */
+  public void setAuthenticateAuthorizeCall(String jdbcCall) {
+    this.authenticateAuthorizeCall = jdbcCall;
+  }
+
   /**
    * Get the configured SolarNetwork host.
    * 
@@ -363,4 +984,257 @@ public class JdbcActorDao implements ActorDao {
     this.actorCache = actorCache;
   }
 
+  /**
+   * Get the configured verified token cache.
+   * 
+   * @return the token cache
+   * @since 1.3
+   */
+  public Cache<String, SnTokenDetails> getTokenCache() {
+    return tokenCache;
+  }
+
+  /**
+   * Configure a verified token cache.
+   * 
+   * <p>
+   * This cache holds successfully verified token details, so repeated authentication with the same
+   * token credentials does not need to query the database.
+   * </p>
+   * 
+   * @param tokenCache
+   *        the cache to use for verified tokens
+   * @since 1.3
+   */
+  @Autowired(required = false)
+  @Qualifier("token-verification")
+  public void setTokenCache(Cache<String, SnTokenDetails> tokenCache) {
+    this.tokenCache = tokenCache;
+  }
+
+  /**
+   * Get the configured negative result cache.
+   * 
+   * @return the negative result cache
+   * @since 1.3
+   */
+  public Cache<String, Boolean> getNegativeCache() {
+    return negativeCache;
+  }
+
+  /**
+   * Configure a negative result cache.
+   * 
+   * <p>
+   * This cache holds failed authentication results, so repeated attempts with the same failing
+   * credentials do not need to query the database. Token credentials that fail to verify are
+   * cached by token ID and a salted HMAC of the token secret, while tokens that are not authorized
+   * for a node are cached by token ID and node ID.
+   * </p>
+   * 
+   * @param negativeCache
+   *        the cache to use for failed authentication results
+   * @since 1.3
+   */
+  @Autowired(required = false)
+  @Qualifier("actor-negative")
+  public void setNegativeCache(Cache<String, Boolean> negativeCache) {
+    this.negativeCache = negativeCache;
+  }
+
+  /**
+   * Configure an entry counter for the verified token cache.
+   * 
+   * <p>
+   * When configured, the count is reported as the {@literal tokenCacheSize} ping test property.
+   * </p>
+   * 
+   * @param tokenCacheCounter
+   *        the counter registered on the token cache, or {@literal null} for none
+   * @since 1.8
+   */
+  @Autowired(required = false)
+  @Qualifier("token-verification")
+  public void setTokenCacheCounter(CacheEntryCounter tokenCacheCounter) {
+    this.tokenCacheCounter = tokenCacheCounter;
+  }
+
+  /**
+   * Configure an entry counter for the negative result cache.
+   * 
+   * <p>
+   * When configured, the count is reported as the {@literal negativeCacheSize} ping test
+   * property.
+   * </p>
+   * 
+   * @param negativeCacheCounter
+   *        the counter registered on the negative result cache, or {@literal null} for none
+   * @since 1.8
+   */
+  @Autowired(required = false)
+  @Qualifier("actor-negative")
+  public void setNegativeCacheCounter(CacheEntryCounter negativeCacheCounter) {
+    this.negativeCacheCounter = negativeCacheCounter;
+  }
+
+  /**
+   * Get the actor cache refresh-ahead age.
+   * 
+   * @return the age, in seconds, after which a cached actor is refreshed in the background when
+   *         accessed; {@literal 0} if refresh-ahead is disabled
+   * @since 1.4
+   */
+  public int getRefreshAheadSeconds() {
+    return refreshAheadSeconds;
+  }
+
+  /**
+   * Set the actor cache refresh-ahead age.
+   * 
+   * <p>
+   * When a cached actor older than this many seconds is accessed, it is returned from the cache and
+   * also reloaded in the background, so frequently used actors do not expire from the cache. This
+   * should be less than the actor cache TTL. Set to {@literal 0} to disable. Must be configured
+   * before {@link #init()} is called.
+   * </p>
+   * 
+   * @param refreshAheadSeconds
+   *        the age, in seconds, or {@literal 0} to disable
+   * @since 1.4
+   */
+  public void setRefreshAheadSeconds(int refreshAheadSeconds) {
+    this.refreshAheadSeconds = refreshAheadSeconds;
+  }
+
+  /**
+   * Get the actor cache refresh-ahead ratio.
+   * 
+   * @return the ratio of the actor cache TTL
+   * @since 1.6
+   */
+  public double getRefreshAheadRatio() {
+    return refreshAheadRatio;
+  }
+
+  /**
+   * Set the actor cache refresh-ahead age as a ratio of the actor cache TTL.
+   * 
+   * <p>
+   * If {@code refreshAheadSeconds} is not configured, it is derived from this ratio and the actor
+   * cache expiry policy when {@link #init()} is called. Must be between {@literal 0} and
+   * {@literal 1} to take effect.
+   * </p>
+   * 
+   * @param refreshAheadRatio
+   *        the ratio, or {@literal 0} to disable
+   * @since 1.6
+   */
+  public void setRefreshAheadRatio(double refreshAheadRatio) {
+    this.refreshAheadRatio = refreshAheadRatio;
+  }
+
+  /**
+   * Get the maximum number of pending actor refresh tasks.
+   * 
+   * @return the queue size; defaults to {@link #DEFAULT_REFRESH_AHEAD_QUEUE_SIZE}
+   * @since 1.4
+   */
+  public int getRefreshAheadQueueSize() {
+    return refreshAheadQueueSize;
+  }
+
+  /**
+   * Set the maximum number of pending actor refresh tasks.
+   * 
+   * <p>
+   * When the queue is full, refreshes are skipped. Must be configured before {@link #init()} is
+   * called.
+   * </p>
+   * 
+   * @param refreshAheadQueueSize
+   *        the queue size
+   * @throws IllegalArgumentException
+   *         if {@code refreshAheadQueueSize} is less than {@literal 1}
+   * @since 1.4
+   */
+  public void setRefreshAheadQueueSize(int refreshAheadQueueSize) {
+    if (refreshAheadQueueSize < 1) {
+      throw new IllegalArgumentException("refreshAheadQueueSize must be at least 1");
+    }
+    this.refreshAheadQueueSize = refreshAheadQueueSize;
+  }
+
+  /**
+   * Get the number of threads to use for asynchronous actor lookups.
+   * 
+   * @return the thread count; defaults to {@link #DEFAULT_ASYNC_THREADS}
+   * @since 1.4
+   */
+  public int getAsyncThreads() {
+    return asyncThreads;
+  }
+
+  /**
+   * Set the number of threads to use for asynchronous actor lookups.
+   * 
+   * <p>
+   * Must be configured before {@link #init()} is called.
+   * </p>
+   * 
+   * @param asyncThreads
+   *        the thread count, or {@literal 0} to perform lookups on the calling thread
+   * @since 1.4
+   */
+  public void setAsyncThreads(int asyncThreads) {
+    this.asyncThreads = asyncThreads;
+  }
+
+  /**
+   * Get the maximum number of pending asynchronous actor lookups.
+   * 
+   * @return the queue size; defaults to {@link #DEFAULT_ASYNC_QUEUE_SIZE}
+   * @since 1.4
+   */
+  public int getAsyncQueueSize() {
+    return asyncQueueSize;
+  }
+
+  /**
+   * Set the maximum number of pending asynchronous actor lookups.
+   * 
+   * <p>
+   * Lookups submitted when the queue is full fail. Must be configured before {@link #init()} is
+   * called.
+   * </p>
+   * 
+   * @param asyncQueueSize
+   *        the queue size
+   * @throws IllegalArgumentException
+   *         if {@code asyncQueueSize} is less than {@literal 1}
+   * @since 1.4
+   */
+  public void setAsyncQueueSize(int asyncQueueSize) {
+    if (asyncQueueSize < 1) {
+      throw new IllegalArgumentException("asyncQueueSize must be at least 1");
+    }
+    this.asyncQueueSize = asyncQueueSize;
+  }
+
+  /**
+   * Set a registry to record metrics with.
+   * 
+   * <p>
+   * A {@literal solarssh.actor.authenticate} timer is registered for
+   * {@link #getAuthenticatedActor(Long, String, String)}.
+   * </p>
+   * 
+   * @param meterRegistry
+   *        the registry, or {@literal null} to not record metrics
+   * @since 1.5
+   */
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    authenticateTimer = OperationTimer.of(meterRegistry, "solarssh.actor.authenticate",
+        "Direct SSH token authentication and authorization time");
+  }
+
 }
@@ -0,0 +1,66 @@
+/* ==================================================================
+ * LoginPhaseEvent.java - 16/10/2026 8:14:52 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event for one phase of setting up a SolarSSH session.
+ * 
+ * <p>
+ * The event duration is the duration of the phase. Events are committed by
+ * {@link LoginPhaseRecorder}.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Name(LoginPhaseEvent.NAME)
+@Label("Login Phase")
+@Category("SolarSSH")
+@Description("A phase of a SolarSSH login, such as verifying credentials or waiting for the node "
+    + "to connect.")
+@StackTrace(false)
+public class LoginPhaseEvent extends Event {
+
+  /** The event name. */
+  public static final String NAME = "net.solarnetwork.solarssh.LoginPhase";
+
+  @Label("Session ID")
+  String sessionId;
+
+  @Label("Node ID")
+  long nodeId;
+
+  @Label("Phase")
+  String phase;
+
+  @Label("Success")
+  boolean success;
+
+}
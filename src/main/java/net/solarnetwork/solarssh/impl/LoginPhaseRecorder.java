@@ -0,0 +1,190 @@
+/* ==================================================================
+ * LoginPhaseRecorder.java - 16/10/2026 8:21:07 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Record the duration of the phases of a SolarSSH login.
+ * 
+ * <p>
+ * Each phase is emitted as a {@link LoginPhaseEvent} JDK Flight Recorder event, and recorded to a
+ * {@literal solarssh.login.phase} timer tagged with the phase name when a {@link MeterRegistry} is
+ * available. The events are only recorded while a flight recording that enables them is running.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public final class LoginPhaseRecorder {
+
+  /** The timer name. */
+  public static final String TIMER_NAME = "solarssh.login.phase";
+
+  /** The tag name used for the phase. */
+  public static final String PHASE_TAG = "phase";
+
+  /**
+   * The login phases.
+   */
+  public enum Phase {
+
+    /** The entire direct login, from receiving the credentials to the node connecting. */
+    LOGIN("login"),
+
+    /** Verifying the token credentials. */
+    CREDENTIALS("credentials"),
+
+    /**
+     * Looking for a pending {@literal StartRemoteSsh} instruction.
+     */
+    PENDING_INSTRUCTIONS("pending-instructions"),
+
+    /** Allocating the reverse SSH ports. */
+    PORT_ALLOCATION("port-allocation"),
+
+    /**
+     * Queuing the {@literal StartRemoteSsh} instruction.
+     */
+    INSTRUCTION_QUEUE("instruction-queue"),
+
+    /** Polling the instruction state until the instruction completes. */
+    INSTRUCTION_POLL("instruction-poll"),
+
+    /** Waiting for the node to connect, after queuing the instruction. */
+    NODE_CONNECT("node-connect");
+
+    private final String key;
+
+    Phase(String key) {
+      this.key = key;
+    }
+
+    /**
+     * Get the phase key, used for the timer tag and event phase.
+     * 
+     * @return the key
+     */
+    public String getKey() {
+      return key;
+    }
+
+  }
+
+  private final Map<Phase, OperationTimer> timers;
+
+  /**
+   * Constructor.
+   * 
+   * @param registry
+   *        the registry to register timers with, or {@literal null} to record only flight
+   *        recorder events
+   */
+  public LoginPhaseRecorder(MeterRegistry registry) {
+    super();
+    Map<Phase, OperationTimer> m = new EnumMap<>(Phase.class);
+    for (Phase phase : Phase.values()) {
+      m.put(phase, OperationTimer.of(registry, TIMER_NAME, "Duration of a SolarSSH login phase",
+          PHASE_TAG, phase.getKey()));
+    }
+    this.timers = m;
+  }
+
+  /**
+   * Start timing a phase.
+   * 
+   * @param phase
+   *        the phase
+   * @return the timing, to end when the phase completes
+   */
+  public Timing start(Phase phase) {
+    return new Timing(phase);
+  }
+
+  /**
+   * The timing of a single phase.
+   * 
+   * <p>
+   * A phase can be stopped before it is ended, for phases that complete before the session ID is
+   * known. Once ended, further calls to {@link #stop()} or {@link #end(String, Long, boolean)} have
+   * no effect.
+   * </p>
+   */
+  public final class Timing {
+
+    private final Phase phase;
+    private final LoginPhaseEvent event;
+    private final long start;
+    private long duration = -1;
+    private boolean ended;
+
+    private Timing(Phase phase) {
+      super();
+      this.phase = phase;
+      this.event = new LoginPhaseEvent();
+      event.begin();
+      this.start = System.nanoTime();
+    }
+
+    /**
+     * Stop timing the phase, without recording it yet.
+     */
+    public synchronized void stop() {
+      if (duration < 0) {
+        duration = System.nanoTime() - start;
+        event.end();
+      }
+    }
+
+    /**
+     * Stop timing the phase, if not already stopped, and record it.
+     * 
+     * @param sessionId
+     *        the session ID, or {@literal null} if not known
+     * @param nodeId
+     *        the node ID
+     * @param succeeded
+     *        {@literal true} if the phase succeeded
+     */
+    public synchronized void end(String sessionId, Long nodeId, boolean succeeded) {
+      if (ended) {
+        return;
+      }
+      stop();
+      ended = true;
+      timers.get(phase).recordDuration(duration, succeeded);
+      if (event.shouldCommit()) {
+        event.sessionId = sessionId;
+        event.nodeId = (nodeId != null ? nodeId : 0L);
+        event.phase = phase.getKey();
+        event.success = succeeded;
+        event.commit();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,118 @@
+/* ==================================================================
+ * OperationTimer.java - 16/10/2026 11:02:41 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * A pair of timers for recording the duration of successful and failed executions of an
+ * operation.
+ * 
+ * <p>
+ * The timers share a name and are distinguished by an {@literal outcome} tag of either
+ * {@literal success} or {@literal error}. The {@link #NONE} instance records nothing, so it can be
+ * used when no {@link MeterRegistry} is available.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.1
+ */
+public final class OperationTimer {
+
+  /** An instance that does not record anything. */
+  public static final OperationTimer NONE = new OperationTimer(null, null);
+
+  /** The tag name used to distinguish successful and failed operations. */
+  public static final String OUTCOME_TAG = "outcome";
+
+  private final Timer success;
+  private final Timer error;
+
+  private OperationTimer(Timer success, Timer error) {
+    super();
+    this.success = success;
+    this.error = error;
+  }
+
+  /**
+   * Create a new timer.
+   * 
+   * @param registry
+   *        the registry to register the timers with, or {@literal null} for {@link #NONE}
+   * @param name
+   *        the timer name
+   * @param description
+   *        the timer description
+   * @param tags
+   *        optional additional tag key/value pairs
+   * @return the timer, never {@literal null}
+   */
+  public static OperationTimer of(MeterRegistry registry, String name, String description,
+      String... tags) {
+    if (registry == null) {
+      return NONE;
+    }
+    Tags t = Tags.of(tags);
+    return new OperationTimer(
+        Timer.builder(name).description(description).tags(t).tag(OUTCOME_TAG, "success")
+            .register(registry),
+        Timer.builder(name).description(description).tags(t).tag(OUTCOME_TAG, "error")
+            .register(registry));
+  }
+
+  /**
+   * Record an operation execution.
+   * 
+   * @param start
+   *        the operation start time, from {@link System#nanoTime()}
+   * @param succeeded
+   *        {@literal true} if the operation succeeded
+   */
+  public void record(long start, boolean succeeded) {
+    Timer t = (succeeded ? success : error);
+    if (t != null) {
+      t.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Record an operation execution with a known duration.
+   * 
+   * @param nanos
+   *        the operation duration, in nanoseconds
+   * @param succeeded
+   *        {@literal true} if the operation succeeded
+   * @since 1.1
+   */
+  public void recordDuration(long nanos, boolean succeeded) {
+    Timer t = (succeeded ? success : error);
+    if (t != null) {
+      t.record(nanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+}
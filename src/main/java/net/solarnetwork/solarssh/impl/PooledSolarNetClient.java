@@ -0,0 +1,205 @@
+/* ==================================================================
+ * PooledSolarNetClient.java - 16/10/2026 11:02:17 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import net.solarnetwork.solarssh.AuthorizationException;
+
+/**
+ * Extension of {@link DefaultSolarNetClient} that uses a shared, keep-alive {@link HttpClient}.
+ * 
+ * <p>
+ * Connections are kept open and re-used between requests, and HTTP/2 is used when supported by
+ * the server so concurrent requests can be multiplexed over a single connection. The number of
+ * concurrent requests is limited by {@code maxConcurrentRequests}.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PooledSolarNetClient extends DefaultSolarNetClient {
+
+  /**
+   * The default value for the {@code maxConcurrentRequests} property.
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 32;
+
+  /**
+   * The default value for the {@code connectTimeoutSeconds} property.
+   */
+  public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 15;
+
+  /**
+   * The default value for the {@code requestTimeoutSeconds} property.
+   */
+  public static final int DEFAULT_REQUEST_TIMEOUT_SECONDS = 30;
+
+  private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+  private int connectTimeoutSeconds = DEFAULT_CONNECT_TIMEOUT_SECONDS;
+  private int requestTimeoutSeconds = DEFAULT_REQUEST_TIMEOUT_SECONDS;
+
+  private final AtomicInteger activeRequests = new AtomicInteger();
+  private final AtomicInteger peakActiveRequests = new AtomicInteger();
+  private HttpClient httpClient;
+  private Semaphore requestPermits;
+
+  @Override
+  public void init() {
+    super.init();
+    requestPermits = new Semaphore(maxConcurrentRequests, true);
+    // @formatter:off
+    httpClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds))
+        .followRedirects(HttpClient.Redirect.NEVER)
+        .build();
+    // @formatter:on
+    log.info("SolarNetClient using pooled HTTP client with max {} concurrent requests",
+        maxConcurrentRequests);
+  }
+
+  @Override
+  protected Map<String, Object> requestStatistics() {
+    Map<String, Object> properties = super.requestStatistics();
+    final int active = activeRequests.get();
+    properties.put("activeRequests", active);
+    properties.put("peakActiveRequests", peakActiveRequests.get());
+    properties.put("maxConcurrentRequests", maxConcurrentRequests);
+    properties.put("utilisation", (double) active / maxConcurrentRequests);
+    return properties;
+  }
+
+  @Override
+  protected JsonNode executeGetJson(URI uri, HttpHeaders headers) throws IOException {
+    HttpRequest req = newRequest(uri, headers).GET().build();
+    return send(req);
+  }
+
+  @Override
+  protected JsonNode executePostFormJson(URI uri, HttpHeaders headers, Map<String, ?> data)
+      throws IOException {
+    String body = xWWWFormURLEncoded(data);
+    log.trace("Encoded HTTP POST data {} for {} as {}", data, uri, body);
+    HttpRequest req = newRequest(uri, headers)
+        .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8)).build();
+    return send(req);
+  }
+
+  private HttpRequest.Builder newRequest(URI uri, HttpHeaders headers) {
+    HttpRequest.Builder b = HttpRequest.newBuilder(uri)
+        .timeout(Duration.ofSeconds(requestTimeoutSeconds))
+        .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+    if (headers != null) {
+      log.trace("Adding HTTP headers {}", headers);
+      for (Map.Entry<String, String> me : headers.toSingleValueMap().entrySet()) {
+        // the Host header is derived from the request URI
+        if (!HttpHeaders.HOST.equalsIgnoreCase(me.getKey())) {
+          b.header(me.getKey(), me.getValue());
+        }
+      }
+    }
+    return b;
+  }
+
+  private JsonNode send(HttpRequest req) throws IOException {
+    try {
+      if (!requestPermits.tryAcquire(requestTimeoutSeconds, TimeUnit.SECONDS)) {
+        throw new IOException("Timeout waiting for available HTTP connection to " + req.uri());
+      }
+      try {
+        peakActiveRequests.accumulateAndGet(activeRequests.incrementAndGet(), Math::max);
+        HttpResponse<InputStream> res = httpClient.send(req,
+            HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = res.body()) {
+          int status = res.statusCode();
+          if (status == 401 || status == 403) {
+            throw new AuthorizationException("HTTP request denied.");
+          } else if (status < 200 || status > 299) {
+            throw new IOException("HTTP result status not in the 200-299 range: " + status);
+          }
+          return readJson(in);
+        }
+      } finally {
+        activeRequests.decrementAndGet();
+        requestPermits.release();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted making HTTP request to " + req.uri());
+    }
+  }
+
+  /**
+   * Set the maximum number of concurrent HTTP requests to allow.
+   * 
+   * @param maxConcurrentRequests
+   *        the maximum count; defaults to {@link #DEFAULT_MAX_CONCURRENT_REQUESTS}
+   */
+  public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  /**
+   * Set the HTTP connection timeout.
+   * 
+   * @param connectTimeoutSeconds
+   *        the timeout, in seconds; defaults to {@link #DEFAULT_CONNECT_TIMEOUT_SECONDS}
+   */
+  public void setConnectTimeoutSeconds(int connectTimeoutSeconds) {
+    this.connectTimeoutSeconds = connectTimeoutSeconds;
+  }
+
+  /**
+   * Set the HTTP request timeout.
+   * 
+   * <p>
+   * This is also the maximum amount of time to wait for a request to start when
+   * {@code maxConcurrentRequests} requests are already active.
+   * </p>
+   * 
+   * @param requestTimeoutSeconds
+   *        the timeout, in seconds; defaults to {@link #DEFAULT_REQUEST_TIMEOUT_SECONDS}
+   */
+  public void setRequestTimeoutSeconds(int requestTimeoutSeconds) {
+    this.requestTimeoutSeconds = requestTimeoutSeconds;
+  }
+
+}
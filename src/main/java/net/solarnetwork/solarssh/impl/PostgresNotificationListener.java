@@ -0,0 +1,304 @@
+/* ==================================================================
+ * PostgresNotificationListener.java - 16/10/2026 9:12:44 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.solarnetwork.service.PingTest;
+import net.solarnetwork.service.PingTestResult;
+
+/**
+ * Listen for notifications on a Postgres channel and pass their payloads to a handler.
+ * 
+ * <p>
+ * A dedicated connection is taken from the configured {@link DataSource} and held while the
+ * listener is running. If the connection fails, a new one is obtained after
+ * {@link #getReconnectDelayMs()} milliseconds. Notifications sent while disconnected are lost, so
+ * after reconnecting the handler is passed a {@literal null} payload, which should be treated as
+ * "everything might have changed".
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class PostgresNotificationListener implements Runnable, PingTest {
+
+  /**
+   * The default value for the {@code pollMs} property.
+   */
+  public static final int DEFAULT_POLL_MS = 5000;
+
+  /**
+   * The default value for the {@code reconnectDelayMs} property.
+   */
+  public static final long DEFAULT_RECONNECT_DELAY_MS = 10000L;
+
+  private static final Pattern CHANNEL_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+  private static final Logger log = LoggerFactory.getLogger(PostgresNotificationListener.class);
+
+  private final DataSource dataSource;
+  private final String channel;
+  private final Consumer<String> handler;
+  private int pollMs = DEFAULT_POLL_MS;
+  private long reconnectDelayMs = DEFAULT_RECONNECT_DELAY_MS;
+
+  private final AtomicLong notificationCount = new AtomicLong();
+  private final AtomicLong connectCount = new AtomicLong();
+  private volatile boolean running;
+  private volatile boolean listening;
+  private Thread thread;
+
+  /**
+   * Constructor.
+   * 
+   * @param dataSource
+   *        the data source to obtain the listen connection from
+   * @param channel
+   *        the notification channel to listen on
+   * @param handler
+   *        the handler to pass notification payloads to
+   * @throws IllegalArgumentException
+   *         if any argument is {@literal null} or {@code channel} is not a valid channel name
+   */
+  public PostgresNotificationListener(DataSource dataSource, String channel,
+      Consumer<String> handler) {
+    super();
+    if (dataSource == null) {
+      throw new IllegalArgumentException("The dataSource argument must not be null.");
+    }
+    if (channel == null || !CHANNEL_NAME.matcher(channel).matches()) {
+      throw new IllegalArgumentException("The channel argument must be a valid channel name.");
+    }
+    if (handler == null) {
+      throw new IllegalArgumentException("The handler argument must not be null.");
+    }
+    this.dataSource = dataSource;
+    this.channel = channel;
+    this.handler = handler;
+  }
+
+  /**
+   * Start listening for notifications.
+   */
+  public synchronized void start() {
+    if (thread != null) {
+      return;
+    }
+    running = true;
+    Thread t = new Thread(this, "SolarSSH-PgNotify-" + channel);
+    t.setDaemon(true);
+    t.start();
+    thread = t;
+  }
+
+  /**
+   * Stop listening for notifications.
+   */
+  public synchronized void stop() {
+    running = false;
+    Thread t = thread;
+    thread = null;
+    if (t != null) {
+      t.interrupt();
+      try {
+        t.join(pollMs + 1000L);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      try (Connection conn = dataSource.getConnection()) {
+        listen(conn);
+      } catch (SQLException | RuntimeException e) {
+        if (running) {
+          log.warn("Error listening for notifications on channel [{}]: {}", channel, e.toString());
+        }
+      } finally {
+        listening = false;
+      }
+      if (running) {
+        try {
+          Thread.sleep(reconnectDelayMs);
+        } catch (InterruptedException e) {
+          // stopped
+        }
+      }
+    }
+    log.info("Stopped listening for notifications on channel [{}]", channel);
+  }
+
+  private void listen(Connection conn) throws SQLException {
+    PGConnection pgConn = conn.unwrap(PGConnection.class);
+    conn.setAutoCommit(true);
+    try (Statement stmt = conn.createStatement()) {
+      stmt.execute("LISTEN " + channel);
+    }
+    listening = true;
+    log.info("Listening for notifications on channel [{}]", channel);
+    if (connectCount.incrementAndGet() > 1) {
+      // notifications might have been missed while disconnected
+      handler.accept(null);
+    }
+    try {
+      receive(pgConn);
+    } finally {
+      // the connection is returned to the pool, so stop listening on it
+      try (Statement stmt = conn.createStatement()) {
+        stmt.execute("UNLISTEN " + channel);
+      } catch (SQLException e) {
+        log.debug("Error removing listener on channel [{}]: {}", channel, e.toString());
+      }
+    }
+  }
+
+  private void receive(PGConnection pgConn) throws SQLException {
+    while (running) {
+      PGNotification[] notifications = pgConn.getNotifications(pollMs);
+      if (Thread.interrupted()) {
+        break;
+      }
+      if (notifications == null) {
+        continue;
+      }
+      for (PGNotification n : notifications) {
+        notificationCount.incrementAndGet();
+        log.debug("Notification received on channel [{}]: {}", channel, n.getParameter());
+        try {
+          handler.accept(n.getParameter());
+        } catch (RuntimeException e) {
+          log.warn("Error handling notification [{}] on channel [{}]: {}", n.getParameter(),
+              channel, e.toString());
+        }
+      }
+    }
+  }
+
+  @Override
+  public String getPingTestId() {
+    return getClass().getName() + "-" + channel;
+  }
+
+  @Override
+  public String getPingTestName() {
+    return "Postgres Notification Listener (" + channel + ")";
+  }
+
+  @Override
+  public long getPingTestMaximumExecutionMilliseconds() {
+    return 1000;
+  }
+
+  @Override
+  public Result performPingTest() throws Exception {
+    Map<String, Object> properties = new LinkedHashMap<>(4);
+    properties.put("listening", listening);
+    properties.put("connectCount", connectCount.get());
+    properties.put("notificationCount", notificationCount.get());
+    if (!listening) {
+      return new PingTestResult(false, "Not listening on channel " + channel + ".", properties);
+    }
+    return new PingTestResult(true,
+        String.format("Listening on channel %s; %d notifications received.", channel,
+            notificationCount.get()),
+        properties);
+  }
+
+  /**
+   * Get the notification channel.
+   * 
+   * @return the channel
+   */
+  public String getChannel() {
+    return channel;
+  }
+
+  /**
+   * Get the notification poll time.
+   * 
+   * @return the maximum number of milliseconds to wait for notifications in one poll; defaults to
+   *         {@link #DEFAULT_POLL_MS}
+   */
+  public int getPollMs() {
+    return pollMs;
+  }
+
+  /**
+   * Set the notification poll time.
+   * 
+   * <p>
+   * This is the maximum number of milliseconds to block waiting for notifications, which also
+   * limits how long {@link #stop()} can take.
+   * </p>
+   * 
+   * @param pollMs
+   *        the poll time, in milliseconds
+   * @throws IllegalArgumentException
+   *         if {@code pollMs} is less than {@literal 1}
+   */
+  public void setPollMs(int pollMs) {
+    if (pollMs < 1) {
+      throw new IllegalArgumentException("pollMs must be at least 1");
+    }
+    this.pollMs = pollMs;
+  }
+
+  /**
+   * Get the reconnect delay.
+   * 
+   * @return the number of milliseconds to wait before reconnecting after a connection error;
+   *         defaults to {@link #DEFAULT_RECONNECT_DELAY_MS}
+   */
+  public long getReconnectDelayMs() {
+    return reconnectDelayMs;
+  }
+
+  /**
+   * Set the reconnect delay.
+   * 
+   * @param reconnectDelayMs
+   *        the number of milliseconds to wait before reconnecting after a connection error
+   */
+  public void setReconnectDelayMs(long reconnectDelayMs) {
+    this.reconnectDelayMs = reconnectDelayMs;
+  }
+
+}
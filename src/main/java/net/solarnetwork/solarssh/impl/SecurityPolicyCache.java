@@ -0,0 +1,144 @@
+/* ==================================================================
+ * SecurityPolicyCache.java - 16/10/2026 11:21:37 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.solarnetwork.central.security.BasicSecurityPolicy;
+import net.solarnetwork.codec.JsonUtils;
+
+/**
+ * Small cache of parsed security policies, keyed by their JSON content.
+ * 
+ * <p>
+ * The same token policy JSON is parsed once when a token is authenticated and again when it is
+ * authorized. Policies are immutable, so parsed instances can be shared. This cache is a
+ * fixed-size, direct-mapped table indexed by the JSON string hash; a slot holds the most recently
+ * parsed policy for that hash and is only used if its JSON is equal to the requested JSON.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class SecurityPolicyCache {
+
+  /**
+   * The default cache size.
+   */
+  public static final int DEFAULT_SIZE = 256;
+
+  private static final SecurityPolicyCache SHARED = new SecurityPolicyCache(DEFAULT_SIZE);
+
+  private final AtomicReferenceArray<Entry> entries;
+  private final int mask;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private static final class Entry {
+
+    private final String json;
+    private final BasicSecurityPolicy policy;
+
+    private Entry(String json, BasicSecurityPolicy policy) {
+      super();
+      this.json = json;
+      this.policy = policy;
+    }
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param size
+   *        the maximum number of policies to cache; will be rounded up to a power of 2
+   * @throws IllegalArgumentException
+   *         if {@code size} is less than {@literal 1}
+   */
+  public SecurityPolicyCache(int size) {
+    super();
+    if (size < 1) {
+      throw new IllegalArgumentException("The size argument must be at least 1.");
+    }
+    int cap = Integer.highestOneBit(size);
+    if (cap < size) {
+      cap <<= 1;
+    }
+    this.entries = new AtomicReferenceArray<>(cap);
+    this.mask = cap - 1;
+  }
+
+  /**
+   * Get the shared instance.
+   * 
+   * @return the shared instance
+   */
+  public static SecurityPolicyCache sharedInstance() {
+    return SHARED;
+  }
+
+  /**
+   * Get a policy from its JSON value.
+   * 
+   * @param json
+   *        the policy JSON
+   * @return the policy, or {@literal null} if {@code json} is {@literal null} or cannot be parsed
+   */
+  public BasicSecurityPolicy policy(String json) {
+    if (json == null) {
+      return null;
+    }
+    final int h = json.hashCode();
+    final int idx = (h ^ (h >>> 16)) & mask;
+    final Entry e = entries.get(idx);
+    if (e != null && e.json.equals(json)) {
+      hits.incrementAndGet();
+      return e.policy;
+    }
+    misses.incrementAndGet();
+    BasicSecurityPolicy policy = JsonUtils.getObjectFromJSON(json, BasicSecurityPolicy.class);
+    if (policy != null) {
+      entries.set(idx, new Entry(json, policy));
+    }
+    return policy;
+  }
+
+  /**
+   * Get the number of cache hits.
+   * 
+   * @return the hit count
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Get the number of cache misses.
+   * 
+   * @return the miss count
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+}
@@ -22,16 +22,14 @@ import java.sql.SQLException;
 
 import org.springframework.jdbc.core.RowMapper;
 
-import net.solarnetwork.central.security.BasicSecurityPolicy;
 import net.solarnetwork.central.security.SecurityPolicy;
-import net.solarnetwork.codec.JsonUtils;
 import net.solarnetwork.solarssh.domain.SnTokenDetails;
 
 /**
  * {@link RowMapper} for {@link SnTokenDetails}.
  * 
  * @author matt
- * @version 1.1
+ * @version 1.2
  */
 public class SnTokenDetailsRowMapper implements RowMapper<SnTokenDetails> {
 
@@ -90,10 +88,7 @@ public class SnTokenDetailsRowMapper implements RowMapper<SnTokenDetails> {
     Long userId = rs.getLong(userIdCol);
     String tokenType = rs.getString(tokenTypeCol);
     String policyJson = rs.getString(policyCol);
-    SecurityPolicy policy = null;
-    if (policyJson != null) {
-      policy = JsonUtils.getObjectFromJSON(policyJson, BasicSecurityPolicy.class);
-    }
+    SecurityPolicy policy = SecurityPolicyCache.sharedInstance().policy(policyJson);
     // @formatter:off
     return SnTokenDetails.builder()
         .withTokenId(this.tokenId)
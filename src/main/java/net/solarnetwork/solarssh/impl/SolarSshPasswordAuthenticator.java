@@ -24,14 +24,26 @@ package net.solarnetwork.solarssh.impl;
 
 import static java.util.Collections.singletonMap;
 import static net.solarnetwork.solarssh.Globals.DEFAULT_SN_HOST;
+import static net.solarnetwork.solarssh.impl.LoginPhaseRecorder.Phase.CREDENTIALS;
+import static net.solarnetwork.solarssh.impl.LoginPhaseRecorder.Phase.INSTRUCTION_POLL;
+import static net.solarnetwork.solarssh.impl.LoginPhaseRecorder.Phase.INSTRUCTION_QUEUE;
+import static net.solarnetwork.solarssh.impl.LoginPhaseRecorder.Phase.LOGIN;
+import static net.solarnetwork.solarssh.impl.LoginPhaseRecorder.Phase.NODE_CONNECT;
 import static net.solarnetwork.solarssh.service.SolarNetClient.INSTRUCTION_TOPIC_START_REMOTE_SSH;
 import static net.solarnetwork.solarssh.service.SolarNetClient.INSTRUCTION_TOPIC_STOP_REMOTE_SSH;
 
 import java.io.IOException;
 import java.time.Instant;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.sshd.common.RuntimeSshException;
+import org.apache.sshd.common.session.Session;
 import org.apache.sshd.server.auth.AsyncAuthException;
 import org.apache.sshd.server.auth.password.PasswordAuthenticator;
 import org.apache.sshd.server.auth.password.PasswordChangeRequiredException;
@@ -54,8 +66,28 @@ import net.solarnetwork.solarssh.service.SolarSshService;
 /**
  * {@link PasswordAuthenticator} for direct SolarSSH connections.
  * 
+ * <p>
+ * Once the token credentials are verified and the {@literal StartRemoteSsh} instruction has been
+ * queued, this authenticator throws an {@link AsyncAuthException} rather than waiting for the node
+ * to connect. The instruction state is then polled on the configured scheduler, and the
+ * authentication completes when the node's server session authenticates, as signalled by
+ * {@link SshSession#getServerSessionFuture()}.
+ * </p>
+ * 
+ * <p>
+ * If the {@link ActorDao} verifies the token credentials asynchronously, an
+ * {@link AsyncCredentialsAuthException} is thrown right away so the SSH IO thread is not blocked by
+ * the database, and the rest of the authentication continues on the configured scheduler once the
+ * credentials are verified.
+ * </p>
+ * 
+ * <p>
+ * The duration of each phase of the login is recorded with the configured
+ * {@link LoginPhaseRecorder}.
+ * </p>
+ * 
  * @author matt
- * @version 1.1
+ * @version 1.6
  */
 public class SolarSshPasswordAuthenticator implements PasswordAuthenticator {
 
@@ -66,7 +98,10 @@ public class SolarSshPasswordAuthenticator implements PasswordAuthenticator {
 
   /**
    * The default value for the {@code instructionCompletedWaitMs} property.
+   * 
+   * @deprecated since 1.2 the {@code instructionCompletedWaitMs} property is not used
    */
+  @Deprecated
   public static final long DEFAULT_INSTRUCTION_COMPLETED_WAIT_MS = 1000L;
 
   /**
@@ -78,10 +113,11 @@ public class SolarSshPasswordAuthenticator implements PasswordAuthenticator {
 
   private final SolarSshService solarSshService;
   private final ActorDao actorDao;
+  private final ScheduledExecutorService scheduler;
   private String snHost = DEFAULT_SN_HOST;
   private int maxNodeInstructionWaitSecs = DEFAULT_MAX_NODE_INSTRUCTION_WAIT_SECS;
-  private long instructionCompletedWaitMs = DEFAULT_INSTRUCTION_COMPLETED_WAIT_MS;
   private long instructionIncompleteWaitMs = DEFAULT_INSTRUCTION_INCOMPLETED_WAIT_MS;
+  private LoginPhaseRecorder loginPhases = new LoginPhaseRecorder(null);
 
   /**
    * Constructor.
@@ -90,11 +126,15 @@ public class SolarSshPasswordAuthenticator implements PasswordAuthenticator {
    *        the SolarSSH service
    * @param actorDao
    *        the authentication DAO
+   * @param scheduler
+   *        the scheduler to poll instruction states and complete authentication with
    */
-  public SolarSshPasswordAuthenticator(SolarSshService solarSshService, ActorDao actorDao) {
+  public SolarSshPasswordAuthenticator(SolarSshService solarSshService, ActorDao actorDao,
+      ScheduledExecutorService scheduler) {
     super();
     this.solarSshService = solarSshService;
     this.actorDao = actorDao;
+    this.scheduler = scheduler;
   }
 
   @Override
@@ -108,9 +148,59 @@ public class SolarSshPasswordAuthenticator implements PasswordAuthenticator {
       return false;
     }
     final Long nodeId = directUsername.getNodeId();
+    final LoginPhaseRecorder.Timing login = loginPhases.start(LOGIN);
+    final LoginPhaseRecorder.Timing credentials = loginPhases.start(CREDENTIALS);
+    final CompletableFuture<Actor> actorFuture = actorDao.getAuthenticatedActorAsync(
+        directUsername.getNodeId(), directUsername.getTokenId(), password);
+    if (actorFuture.isDone()) {
+      credentials.stop();
+      final Actor actor;
+      try {
+        actor = actorFuture.join();
+      } catch (CompletionException e) {
+        loginFailed(null, nodeId, login, credentials, false);
+        if (e.getCause() instanceof RuntimeException re) {
+          throw re;
+        }
+        throw e;
+      }
+      return authenticateActor(username, directUsername, password, session, actor, login,
+          credentials);
+    }
+    final AsyncCredentialsAuthException asyncAuth = new AsyncCredentialsAuthException();
+    actorFuture.whenCompleteAsync((actor, t) -> {
+      credentials.stop();
+      if (t != null) {
+        log.warn("Error verifying credentials for {}: {}", username, t.toString());
+        loginFailed(null, nodeId, login, credentials, false);
+        asyncAuth.setAuthed(false);
+        return;
+      }
+      if (actor == null) {
+        loginFailed(null, nodeId, login, credentials, false);
+        asyncAuth.credentialsRejected();
+        return;
+      }
+      try {
+        asyncAuth.setAuthed(authenticateActor(username, directUsername, password, session, actor,
+            login, credentials));
+      } catch (AsyncAuthException e) {
+        e.addListener(asyncAuth::setAuthed);
+      } catch (RuntimeException e) {
+        log.info("Error authenticating {}: {}", username, e.toString());
+        loginFailed(null, nodeId, login, credentials, true);
+        asyncAuth.setAuthed(false);
+      }
+    }, scheduler);
+    throw asyncAuth;
+  }
+
+  private boolean authenticateActor(String username, DirectSshUsername directUsername,
+      String password, ServerSession session, Actor actor, LoginPhaseRecorder.Timing login,
+      LoginPhaseRecorder.Timing credentials) throws AsyncAuthException {
+    final Long nodeId = directUsername.getNodeId();
     final String tokenId = directUsername.getTokenId();
     SshSession sshSession = null;
-    Actor actor = actorDao.getAuthenticatedActor(nodeId, tokenId, password);
     if (actor != null) {
       // node + token checks out; create new node SSH session now
       Instant now = Instant.now();
@@ -122,9 +212,9 @@ public class SolarSshPasswordAuthenticator implements PasswordAuthenticator {
       try {
         sshSession = solarSshService.createNewSession(nodeId, now.toEpochMilli(),
             authBuilder.build());
+        credentials.end(sshSession.getId(), nodeId, true);
         sshSession.setDirectServerSession(session);
         sshSession.setTokenSecret(password);
-        sshSession.setEstablished(true);
 
         instructionParams = SolarNetClient.createRemoteSshInstructionParams(sshSession);
         // CHECKSTYLE OFF: LineLength
@@ -139,81 +229,164 @@ public class SolarSshPasswordAuthenticator implements PasswordAuthenticator {
             .path("/solaruser/api/v1/sec/instr/add")
             .contentType(MediaType.APPLICATION_FORM_URLENCODED_VALUE)
             .queryParams(instructionParams);
-        sshSession = solarSshService.startSession(sshSession.getId(), now.toEpochMilli(),
-            authBuilder.build());
-        return waitForNodeInstructionToComplete(sshSession.getId(), nodeId, tokenId,
-            INSTRUCTION_TOPIC_START_REMOTE_SSH, sshSession.getStartInstructionId(), authBuilder);
+        final String sessionId = sshSession.getId();
+        final LoginPhaseRecorder.Timing queue = loginPhases.start(INSTRUCTION_QUEUE);
+        boolean queued = false;
+        try {
+          sshSession = solarSshService.startSession(sessionId, now.toEpochMilli(),
+              authBuilder.build());
+          queued = true;
+        } finally {
+          queue.end(sessionId, nodeId, queued);
+        }
+        throw waitForNodeToConnect(sshSession, directUsername, password, session,
+            instructionParams, authBuilder, login);
       } catch (AuthorizationException e) {
         log.info("Authorization failed creating new SshSession for {}", username);
       } catch (IOException e) {
         log.info("Communication error creating new SshSession: {}", e.toString());
         // if we started the node remote SSH, stop it now
         if (sshSession != null) {
-          instructionParams.put("topic", INSTRUCTION_TOPIC_STOP_REMOTE_SSH);
-          now = Instant.now();
-          authBuilder.reset().method(HttpMethod.POST.toString()).date(now).host(snHost)
-              .path("/solaruser/api/v1/sec/instr/add")
-              .contentType(MediaType.APPLICATION_FORM_URLENCODED_VALUE)
-              .queryParams(instructionParams);
-          try {
-            solarSshService.stopSession(sshSession.getId(), now.toEpochMilli(),
-                authBuilder.build());
-          } catch (Exception e2) {
-            // ignore
-          }
-          log.info("Issued {} instruction for token {} node {} with parameters {}",
-              INSTRUCTION_TOPIC_STOP_REMOTE_SSH, tokenId, nodeId, instructionParams);
+          stopRemoteSsh(sshSession, tokenId, nodeId, instructionParams, authBuilder);
         }
+        loginFailed(sshSession, nodeId, login, credentials, true);
         throw new RuntimeSshException("Communication error creating new SshSession", e);
       }
     }
+    loginFailed(sshSession, nodeId, login, credentials, actor != null);
     return false;
   }
 
-  private boolean waitForNodeInstructionToComplete(String sessionId, Long nodeId, String tokenId,
-      String topic, Long instructionId, Snws2AuthorizationBuilder authBuilder) throws IOException {
-    final long expire = System.currentTimeMillis() + (1000L * this.maxNodeInstructionWaitSecs);
-    while (System.currentTimeMillis() < expire) {
-      Instant now = Instant.now();
-      authBuilder.reset().date(now).host(snHost).path("/solaruser/api/v1/sec/instr/view")
-          .queryParams(singletonMap("id", instructionId.toString()));
-      SolarNodeInstructionState state = solarSshService.getInstructionState(instructionId,
-          now.toEpochMilli(), authBuilder.build());
+  private static void loginFailed(SshSession sshSession, Long nodeId,
+      LoginPhaseRecorder.Timing login, LoginPhaseRecorder.Timing credentials, boolean verified) {
+    final String sessionId = (sshSession != null ? sshSession.getId() : null);
+    credentials.end(sessionId, nodeId, verified);
+    login.end(sessionId, nodeId, false);
+  }
+
+  private AsyncAuthException waitForNodeToConnect(SshSession sshSession,
+      DirectSshUsername directUsername, String password, ServerSession session,
+      Map<String, String> instructionParams, Snws2AuthorizationBuilder authBuilder,
+      LoginPhaseRecorder.Timing login) {
+    final AsyncAuthException asyncAuth = new AsyncAuthException();
+    final String sessionId = sshSession.getId();
+    final Long nodeId = directUsername.getNodeId();
+    final String tokenId = directUsername.getTokenId();
+    final Long instructionId = sshSession.getStartInstructionId();
+    final CompletableFuture<Session> nodeConnect = sshSession.getServerSessionFuture().copy()
+        .orTimeout(maxNodeInstructionWaitSecs, TimeUnit.SECONDS);
+    final LoginPhaseRecorder.Timing poll = loginPhases.start(INSTRUCTION_POLL);
+    final LoginPhaseRecorder.Timing connect = loginPhases.start(NODE_CONNECT);
+    final InstructionStatePoller poller = new InstructionStatePoller(tokenId, password, sessionId,
+        nodeId, instructionId, nodeConnect, poll);
+    nodeConnect.whenCompleteAsync((s, t) -> {
+      // the node may connect before the instruction is seen to complete
+      poll.end(sessionId, nodeId, t == null);
+      connect.end(sessionId, nodeId, t == null);
+      login.end(sessionId, nodeId, t == null);
+      if (t == null) {
+        log.info("Session {} node {} connected", sessionId, nodeId);
+        asyncAuth.setAuthed(true);
+        return;
+      }
+      Throwable cause = (t instanceof CompletionException && t.getCause() != null ? t.getCause()
+          : t);
+      if (cause instanceof TimeoutException) {
+        log.info("Timeout waiting {}s for session {} node {} to connect after instruction {}",
+            maxNodeInstructionWaitSecs, sessionId, nodeId, instructionId);
+        stopRemoteSsh(sshSession, tokenId, nodeId, instructionParams, authBuilder);
+      } else if (!(cause instanceof CancellationException)) {
+        log.info("Session {} node {} connection failed: {}", sessionId, nodeId, cause.getMessage());
+      }
+      asyncAuth.setAuthed(false);
+      session.close(false);
+    }, scheduler);
+    scheduler.schedule(poller, instructionIncompleteWaitMs, TimeUnit.MILLISECONDS);
+    return asyncAuth;
+  }
+
+  private void stopRemoteSsh(SshSession sshSession, String tokenId, Long nodeId,
+      Map<String, String> instructionParams, Snws2AuthorizationBuilder authBuilder) {
+    instructionParams.put("topic", INSTRUCTION_TOPIC_STOP_REMOTE_SSH);
+    Instant now = Instant.now();
+    authBuilder.reset().method(HttpMethod.POST.toString()).date(now).host(snHost)
+        .path("/solaruser/api/v1/sec/instr/add")
+        .contentType(MediaType.APPLICATION_FORM_URLENCODED_VALUE).queryParams(instructionParams);
+    try {
+      solarSshService.stopSession(sshSession.getId(), now.toEpochMilli(), authBuilder.build());
+    } catch (Exception e2) {
+      // ignore
+    }
+    log.info("Issued {} instruction for token {} node {} with parameters {}",
+        INSTRUCTION_TOPIC_STOP_REMOTE_SSH, tokenId, nodeId, instructionParams);
+  }
+
+  /**
+   * Task to poll the state of the {@literal StartRemoteSsh} instruction until it completes.
+   * 
+   * <p>
+   * The task re-schedules itself while the instruction is incomplete and the node has not connected
+   * yet. If the instruction is declined, the node connect future is completed exceptionally.
+   * </p>
+   */
+  private final class InstructionStatePoller implements Runnable {
+
+    private final Snws2AuthorizationBuilder authBuilder;
+    private final String tokenId;
+    private final String sessionId;
+    private final Long nodeId;
+    private final Long instructionId;
+    private final CompletableFuture<Session> nodeConnect;
+    private final LoginPhaseRecorder.Timing poll;
+
+    private InstructionStatePoller(String tokenId, String tokenSecret, String sessionId,
+        Long nodeId, Long instructionId, CompletableFuture<Session> nodeConnect,
+        LoginPhaseRecorder.Timing poll) {
+      super();
+      this.authBuilder = new Snws2AuthorizationBuilder(tokenId).saveSigningKey(tokenSecret);
+      this.tokenId = tokenId;
+      this.sessionId = sessionId;
+      this.nodeId = nodeId;
+      this.instructionId = instructionId;
+      this.nodeConnect = nodeConnect;
+      this.poll = poll;
+    }
+
+    @Override
+    public void run() {
+      if (nodeConnect.isDone()) {
+        return;
+      }
+      SolarNodeInstructionState state = null;
+      try {
+        Instant now = Instant.now();
+        authBuilder.reset().date(now).host(snHost).path("/solaruser/api/v1/sec/instr/view")
+            .queryParams(singletonMap("id", instructionId.toString()));
+        state = solarSshService.getInstructionState(instructionId, now.toEpochMilli(),
+            authBuilder.build());
+      } catch (IOException | RuntimeException e) {
+        log.info("Error checking session {} node {} instruction {} state: {}", sessionId, nodeId,
+            instructionId, e.toString());
+      }
       if (state == SolarNodeInstructionState.Completed) {
-        log.info("Token {} {} instruction {} completed", tokenId, topic, instructionId);
-        while (System.currentTimeMillis() < expire) {
-          SshSession sess = solarSshService.findOne(sessionId);
-          if (sess == null) {
-            break;
-          }
-          if (sess.getServerSession() != null) {
-            // node has connected; good to go!
-            return true;
-          }
-          // wait a few ticks for node SSH connection to actually be established
-          try {
-            Thread.sleep(instructionCompletedWaitMs);
-          } catch (InterruptedException e) {
-            break;
-          }
-        }
-        throw new IOException("Timeout waiting " + this.maxNodeInstructionWaitSecs
-            + "s for session " + sessionId + " node " + nodeId + " connection after instruction "
-            + instructionId + " completed.");
+        // now just wait for the node SSH connection to actually be established
+        poll.end(sessionId, nodeId, true);
+        log.info("Token {} {} instruction {} completed", tokenId,
+            INSTRUCTION_TOPIC_START_REMOTE_SSH, instructionId);
+        return;
       } else if (state == SolarNodeInstructionState.Declined) {
-        log.info("Token {} {} instruction {} was declined.", tokenId, topic, instructionId);
-        throw new RuntimeSshException("Session " + sessionId + " node " + nodeId + " instruction "
-            + instructionId + " was declined.");
+        poll.end(sessionId, nodeId, false);
+        log.info("Token {} {} instruction {} was declined.", tokenId,
+            INSTRUCTION_TOPIC_START_REMOTE_SSH, instructionId);
+        nodeConnect.completeExceptionally(new RuntimeSshException("Session " + sessionId
+            + " node " + nodeId + " instruction " + instructionId + " was declined."));
+        return;
       }
-      // wait a few ticks
-      try {
-        Thread.sleep(instructionIncompleteWaitMs);
-      } catch (InterruptedException e) {
-        break;
+      if (!nodeConnect.isDone()) {
+        scheduler.schedule(this, instructionIncompleteWaitMs, TimeUnit.MILLISECONDS);
       }
     }
-    throw new IOException("Timeout waiting " + this.maxNodeInstructionWaitSecs + "s for session "
-        + sessionId + " node " + nodeId + " instruction {}" + instructionId + " to complete.");
+
   }
 
   /**
@@ -254,19 +427,14 @@ public class SolarSshPasswordAuthenticator implements PasswordAuthenticator {
    * Set the number of milliseconds to wait after a node instruction has completed before
    * continuing.
    * 
-   * <p>
-   * This is designed to give the node a bit of time to actually establish its SSH connection to the
-   * SolarSSH server after reporting that it has completed the {@literal StartRemoteSsh}
-   * instruction. It can take a few seconds for that to happen, especially on slow network
-   * connections.
-   * </p>
-   * 
    * @param instructionCompletedWaitMs
-   *        the wait time, in milliseconds; defaults to
-   *        {@link #DEFAULT_INSTRUCTION_COMPLETED_WAIT_MS}
+   *        the wait time, in milliseconds
+   * @deprecated since 1.2 this has no effect, as authentication completes as soon as the node
+   *             connection is established
    */
+  @Deprecated
   public void setInstructionCompletedWaitMs(long instructionCompletedWaitMs) {
-    this.instructionCompletedWaitMs = instructionCompletedWaitMs;
+    // not used
   }
 
   /**
@@ -281,4 +449,20 @@ public class SolarSshPasswordAuthenticator implements PasswordAuthenticator {
     this.instructionIncompleteWaitMs = instructionIncompleteWaitMs;
   }
 
+  /**
+   * Set the recorder to record the duration of each login phase with.
+   * 
+   * @param loginPhases
+   *        the recorder
+   * @throws IllegalArgumentException
+   *         if {@code loginPhases} is {@literal null}
+   * @since 1.5
+   */
+  public void setLoginPhases(LoginPhaseRecorder loginPhases) {
+    if (loginPhases == null) {
+      throw new IllegalArgumentException("loginPhases must not be null");
+    }
+    this.loginPhases = loginPhases;
+  }
+
 }
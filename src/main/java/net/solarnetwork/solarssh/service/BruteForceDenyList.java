@@ -0,0 +1,60 @@
+/* ==================================================================
+ * BruteForceDenyList.java - 16/10/2026 6:10:31 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.service;
+
+import java.net.InetAddress;
+
+/**
+ * API for tracking authentication failures by remote IP address, for brute force mitigation.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface BruteForceDenyList {
+
+  /** The maximum failure count tracked for any address. */
+  int MAX_COUNT = 0xFF;
+
+  /**
+   * Get the current failure count for an address.
+   * 
+   * @param address
+   *        the address to get the count for
+   * @return the failure count, or {@literal 0} if none
+   */
+  int getCount(InetAddress address);
+
+  /**
+   * Atomically increment the failure count for an address.
+   * 
+   * <p>
+   * The count will not be incremented past {@link #MAX_COUNT}.
+   * </p>
+   * 
+   * @param address
+   *        the address to increment the count for
+   * @return the resulting failure count
+   */
+  int incrementCount(InetAddress address);
+
+}
@@ -0,0 +1,64 @@
+/* ==================================================================
+ * ReversePortAllocator.java - 16/10/2026 9:12:03 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.service;
+
+/**
+ * API for allocating reverse SSH ports to sessions.
+ * 
+ * <p>
+ * Ports are allocated in pairs: the returned port is used for the reverse SSH connection and the
+ * port immediately following it is used for the reverse HTTP connection.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public interface ReversePortAllocator {
+
+  /**
+   * Allocate an unused reverse SSH port.
+   * 
+   * @return the allocated port, or {@literal -1} if no port is available
+   */
+  int allocatePort();
+
+  /**
+   * Release a port previously returned from {@link #allocatePort()}.
+   * 
+   * <p>
+   * Releasing a port that is not allocated has no effect.
+   * </p>
+   * 
+   * @param port
+   *        the port to release
+   */
+  void releasePort(int port);
+
+  /**
+   * Get the count of currently allocated ports.
+   * 
+   * @return the allocated port count
+   */
+  int getAllocatedCount();
+
+}
@@ -0,0 +1,414 @@
+/* ==================================================================
+ * AbstractAsyncFrameOutputStream.java - 16/10/2026 4:05:22 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.CloseReason.CloseCodes;
+import jakarta.websocket.RemoteEndpoint.Async;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+
+/**
+ * Base class for writing websocket messages as an OutputStream, coalescing writes into frames.
+ * 
+ * <p>
+ * Calling {@link #flush()} schedules the pending data to be sent after {@code flushDelayMs}, so
+ * many small writes within that window are sent as a single frame. A frame is sent immediately
+ * once {@code maxFrameSize} units of data are pending, although frames may be larger than this
+ * when data accumulates while a previous frame is being sent. Only one frame is sent at a time;
+ * data written while a frame is being sent is coalesced into the next frame.
+ * </p>
+ * 
+ * <p>
+ * Writes never block, as they are made from the SSH client's I/O threads. If the websocket client
+ * cannot keep up and more than {@code maxPendingBytes} of data accumulate, the pending data is
+ * discarded, the write fails, and the websocket session is closed with a
+ * {@link CloseCodes#TRY_AGAIN_LATER} code.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.1
+ */
+public abstract class AbstractAsyncFrameOutputStream extends OutputStream {
+
+  /**
+   * The default value for the {@code maxFrameSize} property.
+   */
+  public static final int DEFAULT_MAX_FRAME_SIZE = 8192;
+
+  /**
+   * The default value for the {@code flushDelayMs} property.
+   */
+  public static final long DEFAULT_FLUSH_DELAY_MS = 10L;
+
+  /**
+   * The default value for the {@code maxPendingBytes} property.
+   * 
+   * @since 1.1
+   */
+  public static final int DEFAULT_MAX_PENDING_BYTES = 262144;
+
+  /** The maximum time to wait for pending data to be sent after closing, before giving up. */
+  private static final long CLOSE_WAIT_MS = 1000L;
+
+  private final Session session;
+  private final Async remote;
+  private final ScheduledExecutorService scheduler;
+  private final int maxPendingBytes;
+  private final long flushDelayMs;
+  private final TerminalOutputStatistics statistics;
+
+  /** The number of pending units that causes a frame to be sent immediately. */
+  protected final int maxFrameSize;
+
+  private int pendingBytes;
+  private boolean sending;
+  private boolean closed;
+  private boolean sessionClosed;
+  private ScheduledFuture<?> flushTask;
+  private ScheduledFuture<?> closeTask;
+  private boolean closeTaskImmediate;
+  private CloseReason closeReason;
+
+  /**
+   * Constructor.
+   * 
+   * @param session
+   *        the session to wrap
+   * @param scheduler
+   *        the scheduler to use for delayed flushes and closing the session, or {@literal null}
+   *        to send pending data immediately when {@link #flush()} is called
+   * @param maxFrameSize
+   *        the number of pending units that causes a frame to be sent without waiting for the
+   *        flush delay
+   * @param maxPendingBytes
+   *        the maximum number of written bytes to hold while waiting for the websocket client,
+   *        before closing the session
+   * @param flushDelayMs
+   *        the maximum number of milliseconds to delay sending data after {@link #flush()} is
+   *        called
+   * @param statistics
+   *        optional statistics to record sent frames to
+   * @since 1.1
+   */
+  public AbstractAsyncFrameOutputStream(Session session, ScheduledExecutorService scheduler,
+      int maxFrameSize, int maxPendingBytes, long flushDelayMs,
+      TerminalOutputStatistics statistics) {
+    super();
+    this.session = session;
+    this.remote = session.getAsyncRemote();
+    this.scheduler = scheduler;
+    this.maxFrameSize = Math.max(1, maxFrameSize);
+    this.maxPendingBytes = Math.max(this.maxFrameSize, maxPendingBytes);
+    this.flushDelayMs = (scheduler != null ? Math.max(0, flushDelayMs) : 0);
+    this.statistics = statistics;
+  }
+
+  /**
+   * Add data to the pending frame.
+   * 
+   * <p>
+   * This method is called while holding this object's monitor.
+   * </p>
+   * 
+   * @param b
+   *        the data
+   * @param off
+   *        the offset within {@code b} to start from
+   * @param len
+   *        the number of bytes to add
+   */
+  protected abstract void buffer(byte[] b, int off, int len);
+
+  /**
+   * Get the size of the pending frame.
+   * 
+   * <p>
+   * This method is called while holding this object's monitor.
+   * </p>
+   * 
+   * @return the pending size, in the units of {@code maxFrameSize}
+   */
+  protected abstract int pendingSize();
+
+  /**
+   * Send the pending frame and reset the pending data.
+   * 
+   * <p>
+   * This method is called while holding this object's monitor, and only when
+   * {@link #pendingSize()} is greater than {@literal 0}.
+   * </p>
+   * 
+   * @param remote
+   *        the remote to send the frame with
+   * @param handler
+   *        the handler to pass to the remote
+   */
+  protected abstract void sendFrame(Async remote, SendHandler handler);
+
+  /**
+   * Discard all pending data, releasing any memory held for it.
+   * 
+   * <p>
+   * This method is called while holding this object's monitor.
+   * </p>
+   * 
+   * @since 1.1
+   */
+  protected abstract void discardPending();
+
+  /**
+   * Handle the end of the input, before the final frame is sent.
+   * 
+   * <p>
+   * This method is called while holding this object's monitor. This implementation does nothing.
+   * </p>
+   */
+  protected void endOfInput() {
+    // extending classes can override
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b) throws IOException {
+    write(b, 0, b.length);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    while (len > 0) {
+      int n = Math.min(len, maxFrameSize);
+      buffer(b, off, n);
+      pendingBytes += n;
+      off += n;
+      len -= n;
+      if (pendingBytes > maxPendingBytes) {
+        overflow();
+        throw new IOException("Websocket output overflow");
+      }
+      if (pendingSize() >= maxFrameSize) {
+        sendPending();
+      }
+    }
+  }
+
+  /**
+   * Drop all pending data and close the session, because the client is not keeping up.
+   */
+  private void overflow() {
+    closed = true;
+    discardPending();
+    pendingBytes = 0;
+    if (statistics != null) {
+      statistics.outputOverflowed();
+    }
+    closeSessionLater(new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Terminal output overflow"),
+        0);
+  }
+
+  /**
+   * Send the pending data as a single frame, unless a frame is already being sent.
+   * 
+   * <p>
+   * If a frame is already being sent, the pending data will be sent when that completes.
+   * </p>
+   */
+  private void sendPending() {
+    if (flushTask != null) {
+      flushTask.cancel(false);
+      flushTask = null;
+    }
+    if (sending || pendingSize() < 1 || !session.isOpen()) {
+      return;
+    }
+    final int frameBytes = pendingBytes;
+    pendingBytes = 0;
+    sending = true;
+    try {
+      sendFrame(remote, result -> sendComplete(result, frameBytes));
+    } catch (RuntimeException e) {
+      // the session is closing; drop the frame
+      sending = false;
+      if (statistics != null) {
+        statistics.frameFailed();
+      }
+    }
+  }
+
+  private synchronized void sendComplete(SendResult result, int frameBytes) {
+    sending = false;
+    if (statistics != null) {
+      if (result.isOK()) {
+        statistics.frameSent(frameBytes);
+      } else {
+        statistics.frameFailed();
+      }
+    }
+    if (pendingSize() > 0 && (closed || flushTask == null)) {
+      // data accumulated while sending; send it now, as the send itself acted as a delay
+      sendPending();
+    }
+    if (closed && !sending) {
+      // all data sent after closing
+      closeSessionLater(normalClosure(), 0);
+    }
+  }
+
+  private synchronized void flushTimerExpired() {
+    flushTask = null;
+    sendPending();
+  }
+
+  /**
+   * Request the pending data be sent.
+   * 
+   * <p>
+   * If a flush delay is configured the data will be sent once that delay has elapsed, otherwise
+   * it will be sent immediately.
+   * </p>
+   */
+  @Override
+  public synchronized void flush() throws IOException {
+    if (closed || pendingSize() < 1) {
+      return;
+    }
+    if (flushDelayMs < 1) {
+      sendPending();
+    } else if (flushTask == null && !sending) {
+      try {
+        flushTask = scheduler.schedule(this::flushTimerExpired, flushDelayMs,
+            TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // shutting down
+        sendPending();
+      }
+    }
+  }
+
+  /**
+   * Close the output stream, and close the websocket session.
+   * 
+   * <p>
+   * This method does not block. Any pending data is sent before the session is closed, unless
+   * that takes longer than one second.
+   * </p>
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    endOfInput();
+    sendPending();
+    if (sending) {
+      // the session is closed once the final frame has been sent, or after a timeout
+      closeSessionLater(normalClosure(), CLOSE_WAIT_MS);
+    } else {
+      closeSessionLater(normalClosure(), 0);
+    }
+  }
+
+  private static CloseReason normalClosure() {
+    return new CloseReason(CloseCodes.NORMAL_CLOSURE, "Connection closed");
+  }
+
+  /**
+   * Close the session on the scheduler, or immediately if no scheduler is available.
+   * 
+   * <p>
+   * This method is called while holding this object's monitor. The first reason provided is the
+   * one the session is closed with.
+   * </p>
+   * 
+   * @param reason
+   *        the close reason
+   * @param delayMs
+   *        the delay before closing, in milliseconds
+   */
+  private void closeSessionLater(CloseReason reason, long delayMs) {
+    if (sessionClosed) {
+      return;
+    }
+    if (closeReason == null) {
+      closeReason = reason;
+    }
+    if (closeTask != null) {
+      if (delayMs > 0 || closeTaskImmediate) {
+        return;
+      }
+      closeTask.cancel(false);
+      closeTask = null;
+    }
+    if (scheduler != null) {
+      try {
+        closeTask = scheduler.schedule(this::closeSession, delayMs, TimeUnit.MILLISECONDS);
+        closeTaskImmediate = (delayMs < 1);
+        return;
+      } catch (RejectedExecutionException e) {
+        // shutting down; close now
+      }
+    } else if (delayMs > 0) {
+      // without a scheduler the session is closed when the final frame has been sent
+      return;
+    }
+    closeSession();
+  }
+
+  private void closeSession() {
+    final CloseReason reason;
+    synchronized (this) {
+      if (sessionClosed) {
+        return;
+      }
+      sessionClosed = true;
+      reason = closeReason;
+      closeTask = null;
+      if (flushTask != null) {
+        flushTask.cancel(false);
+        flushTask = null;
+      }
+    }
+    try {
+      session.close(reason);
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+}
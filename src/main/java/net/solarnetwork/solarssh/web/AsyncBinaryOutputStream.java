@@ -0,0 +1,104 @@
+/* ==================================================================
+ * AsyncBinaryOutputStream.java - 16/10/2026 4:21:09 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.web;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+
+import jakarta.websocket.RemoteEndpoint.Async;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.Session;
+
+/**
+ * Write websocket binary messages as an OutputStream.
+ * 
+ * <p>
+ * Bytes are sent as-is, coalesced into frames as described in
+ * {@link AbstractAsyncFrameOutputStream}, with {@code maxFrameSize} expressed in bytes.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.1
+ */
+public class AsyncBinaryOutputStream extends AbstractAsyncFrameOutputStream {
+
+  private byte[] pending;
+  private int count;
+
+  /**
+   * Constructor.
+   * 
+   * @param session
+   *        the session to wrap
+   * @param scheduler
+   *        the scheduler to use for delayed flushes and closing the session, or {@literal null}
+   *        to send pending data immediately when {@link #flush()} is called
+   * @param maxFrameSize
+   *        the number of pending bytes that causes a frame to be sent without waiting for the
+   *        flush delay
+   * @param maxPendingBytes
+   *        the maximum number of written bytes to hold while waiting for the websocket client,
+   *        before closing the session
+   * @param flushDelayMs
+   *        the maximum number of milliseconds to delay sending data after {@link #flush()} is
+   *        called
+   * @param statistics
+   *        optional statistics to record sent frames to
+   * @since 1.1
+   */
+  public AsyncBinaryOutputStream(Session session, ScheduledExecutorService scheduler,
+      int maxFrameSize, int maxPendingBytes, long flushDelayMs,
+      TerminalOutputStatistics statistics) {
+    super(session, scheduler, maxFrameSize, maxPendingBytes, flushDelayMs, statistics);
+    this.pending = new byte[Math.min(this.maxFrameSize, 1024)];
+  }
+
+  @Override
+  protected void buffer(byte[] b, int off, int len) {
+    if (count + len > pending.length) {
+      pending = Arrays.copyOf(pending, Math.max(pending.length * 2, count + len));
+    }
+    System.arraycopy(b, off, pending, count, len);
+    count += len;
+  }
+
+  @Override
+  protected int pendingSize() {
+    return count;
+  }
+
+  @Override
+  protected void sendFrame(Async remote, SendHandler handler) {
+    final ByteBuffer frame = ByteBuffer.wrap(Arrays.copyOf(pending, count));
+    count = 0;
+    remote.sendBinary(frame, handler);
+  }
+
+  @Override
+  protected void discardPending() {
+    pending = new byte[Math.min(maxFrameSize, 1024)];
+    count = 0;
+  }
+
+}
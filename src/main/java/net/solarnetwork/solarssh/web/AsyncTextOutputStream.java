@@ -23,28 +23,46 @@
 package net.solarnetwork.solarssh.web;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledExecutorService;
 
-import jakarta.websocket.CloseReason;
 import jakarta.websocket.RemoteEndpoint.Async;
+import jakarta.websocket.SendHandler;
 import jakarta.websocket.Session;
 
 /**
  * Write websocket text messages as an OutputStream.
  * 
+ * <p>
+ * Bytes written to this stream are decoded as UTF-8 with a stateful decoder, so multi-byte
+ * sequences split across writes are preserved. Decoded text is coalesced into frames as described
+ * in {@link AbstractAsyncFrameOutputStream}, with {@code maxFrameSize} expressed in characters.
+ * </p>
+ * 
  * @author matt
- * @version 1.0
+ * @version 2.1
  */
-public class AsyncTextOutputStream extends OutputStream {
+public class AsyncTextOutputStream extends AbstractAsyncFrameOutputStream {
 
-  private final Session session;
-  private final Async remote;
-  private final Charset charset = Charset.forName("UTF-8");
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final ByteBuffer inBuf = ByteBuffer.allocate(1024);
+  private final CharBuffer outBuf = CharBuffer.allocate(1024);
+  private final StringBuilder pending;
 
   /**
-   * Wraps a websocket {@code Session} as a text-oriented {@link OutputStream} using the socket's
-   * {@code RemoteEndpoint.Async} API.
+   * Wraps a websocket {@code Session} as a text-oriented {@link java.io.OutputStream} using the
+   * socket's {@code RemoteEndpoint.Async} API.
+   * 
+   * <p>
+   * Pending text is sent immediately when {@link #flush()} is called.
+   * </p>
    * 
    * @param session
    *        the session to wrap
@@ -52,39 +70,104 @@ public class AsyncTextOutputStream extends OutputStream {
    *         if a communication error occurs
    */
   public AsyncTextOutputStream(Session session) throws IOException {
-    super();
-    this.session = session;
-    this.remote = session.getAsyncRemote();
-    remote.setBatchingAllowed(true);
+    this(session, null, DEFAULT_MAX_FRAME_SIZE, DEFAULT_MAX_PENDING_BYTES, 0, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param session
+   *        the session to wrap
+   * @param scheduler
+   *        the scheduler to use for delayed flushes and closing the session, or {@literal null}
+   *        to send pending text immediately when {@link #flush()} is called
+   * @param maxFrameSize
+   *        the number of pending characters that causes a frame to be sent without waiting for
+   *        the flush delay
+   * @param maxPendingBytes
+   *        the maximum number of written bytes to hold while waiting for the websocket client,
+   *        before closing the session
+   * @param flushDelayMs
+   *        the maximum number of milliseconds to delay sending text after {@link #flush()} is
+   *        called
+   * @param statistics
+   *        optional statistics to record sent frames to
+   * @throws IOException
+   *         if a communication error occurs
+   * @since 2.1
+   */
+  public AsyncTextOutputStream(Session session, ScheduledExecutorService scheduler,
+      int maxFrameSize, int maxPendingBytes, long flushDelayMs,
+      TerminalOutputStatistics statistics) throws IOException {
+    super(session, scheduler, maxFrameSize, maxPendingBytes, flushDelayMs, statistics);
+    this.pending = new StringBuilder(Math.min(this.maxFrameSize, 1024));
   }
 
   @Override
-  public void write(int b) throws IOException {
-    remote.sendText(new String(new byte[] { (byte) (b & 0xFF) }, charset));
+  protected void buffer(byte[] b, int off, int len) {
+    while (len > 0) {
+      int n = Math.min(len, inBuf.remaining());
+      inBuf.put(b, off, n);
+      off += n;
+      len -= n;
+      decode(false);
+    }
+  }
 
+  @Override
+  protected int pendingSize() {
+    return pending.length();
   }
 
   @Override
-  public void write(byte[] b) throws IOException {
-    remote.sendText(new String(b, charset));
+  protected void sendFrame(Async remote, SendHandler handler) {
+    final String frame = pending.toString();
+    pending.setLength(0);
+    remote.sendText(frame, handler);
   }
 
   @Override
-  public void write(byte[] b, int off, int len) throws IOException {
-    remote.sendText(new String(b, off, len, charset));
+  protected void discardPending() {
+    pending.setLength(0);
+    pending.trimToSize();
+    inBuf.clear();
+    decoder.reset();
   }
 
   @Override
-  public void flush() throws IOException {
-    remote.flushBatch();
+  protected void endOfInput() {
+    decode(true);
   }
 
   /**
-   * Close the output stream, and close the websocket session.
+   * Decode buffered bytes into the pending text buffer.
+   * 
+   * <p>
+   * Any incomplete multi-byte sequence at the end of the input is kept in the input buffer, unless
+   * {@code endOfInput} is {@literal true}.
+   * </p>
    */
-  @Override
-  public void close() throws IOException {
-    session.close(new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, "Connection closed"));
+  private void decode(boolean endOfInput) {
+    inBuf.flip();
+    while (true) {
+      CoderResult result = decoder.decode(inBuf, outBuf, endOfInput);
+      drainOutBuf();
+      if (!result.isOverflow()) {
+        break;
+      }
+    }
+    if (endOfInput) {
+      decoder.flush(outBuf);
+      drainOutBuf();
+      decoder.reset();
+    }
+    inBuf.compact();
+  }
+
+  private void drainOutBuf() {
+    outBuf.flip();
+    pending.append(outBuf);
+    outBuf.clear();
   }
 
 }
@@ -0,0 +1,85 @@
+/* ==================================================================
+ * ChannelStatisticsEndpoint.java - 17/10/2026 10:04:17 AM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.web;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import net.solarnetwork.solarssh.domain.NodeChannelStatistics;
+import net.solarnetwork.solarssh.impl.ChannelInstrumentation;
+
+/**
+ * Management endpoint for per-node channel traffic statistics.
+ * 
+ * <p>
+ * The statistics reveal which nodes are connected, so they are published as the
+ * {@literal channels} actuator endpoint on the management port rather than on the public
+ * application port.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Component
+@Endpoint(id = "channels")
+public class ChannelStatisticsEndpoint {
+
+  private final ChannelInstrumentation channelInstrumentation;
+
+  /**
+   * Constructor.
+   * 
+   * @param channelInstrumentation
+   *        the instrumentation to get the statistics from
+   */
+  public ChannelStatisticsEndpoint(ChannelInstrumentation channelInstrumentation) {
+    super();
+    this.channelInstrumentation = channelInstrumentation;
+  }
+
+  /**
+   * Get channel traffic statistics, per node.
+   * 
+   * @param nodeId
+   *        an optional node ID to get the statistics for
+   * @param max
+   *        the maximum number of nodes to return, ordered by total bytes transferred
+   * @return the statistics
+   */
+  @ReadOperation
+  public List<NodeChannelStatistics> channelStatistics(@Nullable Long nodeId,
+      @Nullable Integer max) {
+    if (nodeId != null) {
+      NodeChannelStatistics stats = channelInstrumentation.getNodeStatistics(nodeId);
+      return (stats != null ? Collections.singletonList(stats)
+          : Collections.<NodeChannelStatistics>emptyList());
+    }
+    return channelInstrumentation.getNodeStatistics(max != null ? max : 0);
+  }
+
+}
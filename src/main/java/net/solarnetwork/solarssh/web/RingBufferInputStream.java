@@ -0,0 +1,281 @@
+/* ==================================================================
+ * RingBufferInputStream.java - 16/10/2026 1:48:05 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer, single-consumer byte pipe backed by a fixed-size ring buffer.
+ * 
+ * <p>
+ * This is designed as a replacement for {@link java.io.PipedInputStream} where one thread writes
+ * to the {@link OutputStream} returned by {@link #getSink()} and another thread reads from this
+ * stream. Unlike {@code PipedInputStream}, threads waiting for data or space are woken directly by
+ * the opposite side rather than polling, and neither side depends on the other thread remaining
+ * alive. Only one thread may write and one thread may read at a time.
+ * </p>
+ * 
+ * <p>
+ * When the buffer is full, writes block until the reader consumes data, up to a configurable
+ * timeout. Closing the sink causes reads to return {@literal -1} once all buffered data has been
+ * consumed; closing this stream causes writes to fail.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.0
+ */
+public class RingBufferInputStream extends InputStream {
+
+  /** The default capacity, in bytes. */
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  /** The default write timeout, in milliseconds. */
+  public static final long DEFAULT_WRITE_TIMEOUT_MS = 30_000L;
+
+  private final byte[] buffer;
+  private final int mask;
+  private final long writeTimeoutNanos;
+  private final Sink sink;
+
+  // the read position, only updated by the reader
+  private final AtomicLong head = new AtomicLong();
+
+  // the write position, only updated by the writer
+  private final AtomicLong tail = new AtomicLong();
+
+  private volatile boolean readerClosed;
+  private volatile boolean writerClosed;
+  private volatile Thread waitingReader;
+  private volatile Thread waitingWriter;
+
+  /**
+   * Constructor.
+   * 
+   * <p>
+   * The {@link #DEFAULT_CAPACITY} and {@link #DEFAULT_WRITE_TIMEOUT_MS} will be used.
+   * </p>
+   */
+  public RingBufferInputStream() {
+    this(DEFAULT_CAPACITY, DEFAULT_WRITE_TIMEOUT_MS);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param capacity
+   *        the buffer capacity, in bytes; will be rounded up to the next power of 2
+   * @param writeTimeoutMs
+   *        the maximum number of milliseconds a write will wait for buffer space to become
+   *        available, or {@literal 0} to wait forever
+   * @throws IllegalArgumentException
+   *         if {@code capacity} is less than {@literal 1} or greater than {@literal 2^30}
+   */
+  public RingBufferInputStream(int capacity, long writeTimeoutMs) {
+    super();
+    if (capacity < 1 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+    }
+    int size = (capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1);
+    this.buffer = new byte[size];
+    this.mask = size - 1;
+    this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, writeTimeoutMs));
+    this.sink = new Sink();
+  }
+
+  /**
+   * Get the output stream that writes into this stream's buffer.
+   * 
+   * @return the sink, never {@literal null}
+   */
+  public OutputStream getSink() {
+    return sink;
+  }
+
+  /**
+   * Get the buffer capacity.
+   * 
+   * @return the capacity, in bytes
+   */
+  public int getCapacity() {
+    return buffer.length;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    int n = read(b, 0, 1);
+    return (n < 0 ? -1 : b[0] & 0xFF);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (len == 0) {
+      return 0;
+    }
+    while (true) {
+      if (readerClosed) {
+        throw new IOException("Stream closed");
+      }
+      final long h = head.get();
+      final long t = tail.get();
+      final int avail = (int) (t - h);
+      if (avail > 0) {
+        final int n = Math.min(len, avail);
+        final int idx = (int) (h & mask);
+        final int first = Math.min(n, buffer.length - idx);
+        System.arraycopy(buffer, idx, b, off, first);
+        if (first < n) {
+          System.arraycopy(buffer, 0, b, off + first, n - first);
+        }
+        head.set(h + n);
+        LockSupport.unpark(waitingWriter);
+        return n;
+      }
+      if (writerClosed) {
+        if (tail.get() == h) {
+          return -1;
+        }
+        continue;
+      }
+      waitingReader = Thread.currentThread();
+      if (tail.get() == h && !writerClosed && !readerClosed) {
+        LockSupport.park(this);
+      }
+      waitingReader = null;
+      if (Thread.interrupted()) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for data");
+      }
+    }
+  }
+
+  @Override
+  public int available() throws IOException {
+    if (readerClosed) {
+      throw new IOException("Stream closed");
+    }
+    return (int) (tail.get() - head.get());
+  }
+
+  /**
+   * Close the stream.
+   * 
+   * <p>
+   * Any thread blocked writing to the sink will be woken and fail with an {@link IOException}.
+   * </p>
+   */
+  @Override
+  public void close() {
+    readerClosed = true;
+    LockSupport.unpark(waitingWriter);
+  }
+
+  private final class Sink extends OutputStream {
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      Objects.checkFromIndexSize(off, len, b.length);
+      if (writerClosed) {
+        throw new IOException("Pipe closed");
+      }
+      long deadline = 0;
+      while (len > 0) {
+        if (readerClosed) {
+          throw new IOException("Pipe reader closed");
+        }
+        final long t = tail.get();
+        final long h = head.get();
+        final int free = buffer.length - (int) (t - h);
+        if (free > 0) {
+          final int n = Math.min(len, free);
+          final int idx = (int) (t & mask);
+          final int first = Math.min(n, buffer.length - idx);
+          System.arraycopy(b, off, buffer, idx, first);
+          if (first < n) {
+            System.arraycopy(b, off + first, buffer, 0, n - first);
+          }
+          tail.set(t + n);
+          LockSupport.unpark(waitingReader);
+          off += n;
+          len -= n;
+          continue;
+        }
+
+        // buffer full: wait for the reader to make space
+        long waitNanos = 0;
+        if (writeTimeoutNanos > 0) {
+          final long now = System.nanoTime();
+          if (deadline == 0) {
+            deadline = now + writeTimeoutNanos;
+          }
+          waitNanos = deadline - now;
+          if (waitNanos <= 0) {
+            throw new InterruptedIOException("Timeout waiting for pipe buffer space");
+          }
+        }
+        waitingWriter = Thread.currentThread();
+        if (head.get() == h && !readerClosed) {
+          if (waitNanos > 0) {
+            LockSupport.parkNanos(this, waitNanos);
+          } else {
+            LockSupport.park(this);
+          }
+        }
+        waitingWriter = null;
+        if (Thread.interrupted()) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for pipe buffer space");
+        }
+      }
+    }
+
+    /**
+     * Close the sink.
+     * 
+     * <p>
+     * The reader will be able to read any remaining buffered data, after which it will reach the
+     * end of the stream.
+     * </p>
+     */
+    @Override
+    public void close() {
+      writerClosed = true;
+      LockSupport.unpark(waitingReader);
+    }
+
+  }
+
+}
@@ -22,8 +22,7 @@
 
 package net.solarnetwork.solarssh.web;
 
-import static net.solarnetwork.codec.JsonUtils.getJSONString;
-import static net.solarnetwork.solarssh.Globals.AUDIT_LOG;
+import static net.solarnetwork.solarssh.Globals.logAuditEvent;
 import static net.solarnetwork.solarssh.web.WebConstants.PRESIGN_AUTHORIZATION_HEADER;
 
 import java.io.IOException;
@@ -33,8 +32,6 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.cache.Cache;
-
 import org.apache.sshd.common.RuntimeSshException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,10 +47,13 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.http.HttpServletRequest;
 import net.solarnetwork.solarssh.AuthorizationException;
 import net.solarnetwork.solarssh.Globals;
 import net.solarnetwork.solarssh.domain.SshSession;
+import net.solarnetwork.solarssh.service.BruteForceDenyList;
 import net.solarnetwork.solarssh.service.SolarSshService;
 import net.solarnetwork.web.jakarta.domain.Response;
 import net.solarnetwork.web.jakarta.security.WebConstants;
@@ -62,7 +62,7 @@ import net.solarnetwork.web.jakarta.security.WebConstants;
  * Web controller for connection commands.
  * 
  * @author matt
- * @version 1.3
+ * @version 1.6
  */
 @RestController
 @RequestMapping("/api/v1/ssh")
@@ -74,11 +74,13 @@ public class SolarSshController {
 
   @Autowired(required = false)
   @Qualifier("brute-force-deny-list")
-  private Cache<InetAddress, Byte> bruteForceDenyList;
+  private BruteForceDenyList bruteForceDenyList;
 
   @Value("${ssh.bruteForce.maxTries:3}")
   private int bruteForceMaxTries = 3;
 
+  private Counter bruteForceBlockedCounter;
+
   @Autowired
   public SolarSshController(SolarSshService solarSshService) {
     super();
@@ -199,22 +201,17 @@ public class SolarSshController {
     try {
       InetAddress src = InetAddress.getByName(remoteAddr);
       if (!src.isLoopbackAddress()) {
-        Byte count = bruteForceDenyList.get(src);
-        if (count == null) {
-          count = (byte) 1;
-        } else if (count.byteValue() != (byte) 0xFF) {
-          count = (byte) ((count.byteValue() & 0xFF) + 1);
-        }
-        log.info("{} authentication attempt [{}] failed: attempt {}", src, sessionId,
-            Byte.toUnsignedInt(count));
-        bruteForceDenyList.put(src, count);
-        final int attempts = Byte.toUnsignedInt(count);
+        final int attempts = bruteForceDenyList.incrementCount(src);
+        log.info("{} authentication attempt [{}] failed: attempt {}", src, sessionId, attempts);
         if (attempts >= bruteForceMaxTries) {
           String username = null;
           Matcher m = SNWS_V2_KEY_PATTERN.matcher(preSignedAuthorization);
           if (m.find()) {
             username = m.group(1);
           }
+          if (bruteForceBlockedCounter != null) {
+            bruteForceBlockedCounter.increment();
+          }
           logBruteForceDeny(username, src, attempts, "block");
           throw new RuntimeSshException("Blocked.");
         }
@@ -230,7 +227,7 @@ public class SolarSshController {
     Map<String, Object> auditProps = Globals.auditEventMap(username, auditEventName);
     auditProps.put("remoteAddress", src);
     auditProps.put("attempts", count);
-    AUDIT_LOG.info(getJSONString(auditProps, "{}"));
+    logAuditEvent(auditProps);
   }
 
   /**
@@ -238,7 +235,7 @@ public class SolarSshController {
    * 
    * @return the deny list
    */
-  public Cache<InetAddress, Byte> getBruteForceDenyList() {
+  public BruteForceDenyList getBruteForceDenyList() {
     return bruteForceDenyList;
   }
 
@@ -248,7 +245,7 @@ public class SolarSshController {
    * @param bruteForceDenyList
    *        the deny list to set
    */
-  public void setBruteForceDenyList(Cache<InetAddress, Byte> bruteForceDenyList) {
+  public void setBruteForceDenyList(BruteForceDenyList bruteForceDenyList) {
     this.bruteForceDenyList = bruteForceDenyList;
   }
 
@@ -271,4 +268,18 @@ public class SolarSshController {
     this.bruteForceMaxTries = bruteForceMaxTries;
   }
 
+  /**
+   * Set a registry to record metrics with.
+   * 
+   * @param meterRegistry
+   *        the registry
+   * @since 1.5
+   */
+  @Autowired(required = false)
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    this.bruteForceBlockedCounter = Counter.builder("solarssh.bruteforce.blocked")
+        .description("Connections blocked by brute force mitigation").tag("stage", "web")
+        .tag("port", "http").register(meterRegistry);
+  }
+
 }
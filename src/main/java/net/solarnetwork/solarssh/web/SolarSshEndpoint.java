@@ -24,19 +24,20 @@ package net.solarnetwork.solarssh.web;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.sshd.common.SshConstants;
 import org.apache.sshd.common.SshException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 
 import jakarta.websocket.CloseReason;
 import jakarta.websocket.CloseReason.CloseCodes;
@@ -55,7 +56,7 @@ import net.solarnetwork.solarssh.service.SolarSshService;
  * Websocket endpoint for SolarSSH connections.
  * 
  * @author matt
- * @version 1.1
+ * @version 1.3
  */
 public class SolarSshEndpoint extends Endpoint implements MessageHandler.Whole<String> {
 
@@ -67,9 +68,19 @@ public class SolarSshEndpoint extends Endpoint implements MessageHandler.Whole<S
   private final SolarSshService solarSshService;
 
   private Session websocketSession;
+  private boolean binary;
   private SshSession sshSession;
 
-  private Writer wsInputSink;
+  private int inputBufferSize = RingBufferInputStream.DEFAULT_CAPACITY;
+  private long inputWriteTimeoutMs = RingBufferInputStream.DEFAULT_WRITE_TIMEOUT_MS;
+
+  private int outputFrameSize = AbstractAsyncFrameOutputStream.DEFAULT_MAX_FRAME_SIZE;
+  private int outputMaxPendingBytes = AbstractAsyncFrameOutputStream.DEFAULT_MAX_PENDING_BYTES;
+  private long outputFlushDelayMs = AbstractAsyncFrameOutputStream.DEFAULT_FLUSH_DELAY_MS;
+  private ScheduledExecutorService outputScheduler;
+  private TerminalOutputStatistics outputStatistics;
+
+  private OutputStream wsInputSink;
 
   @Autowired
   public SolarSshEndpoint(SolarSshService solarSshService) {
@@ -86,6 +97,11 @@ public class SolarSshEndpoint extends Endpoint implements MessageHandler.Whole<S
    * will be allowed to connect.
    * </p>
    * 
+   * <p>
+   * If the {@link WebConstants#SOLARSSH_BINARY_WEBSOCKET_PROTOCOL} sub-protocol is negotiated, then
+   * after authentication the remote shell input and output will be exchanged as binary messages.
+   * </p>
+   * 
    * {@inheritDoc}
    */
   @Override
@@ -110,12 +126,26 @@ public class SolarSshEndpoint extends Endpoint implements MessageHandler.Whole<S
     }
 
     websocketSession = session;
+    binary = WebConstants.SOLARSSH_BINARY_WEBSOCKET_PROTOCOL
+        .equals(session.getNegotiatedSubprotocol());
     session.addMessageHandler(this);
+    if (binary) {
+      session.addMessageHandler(ByteBuffer.class, this::onBinaryMessage);
+    }
   }
 
   @Override
   public void onClose(Session session, CloseReason closeReason) {
     LOG.debug("Websocket closed; {}; {}", sshSession, closeReason);
+    final OutputStream sink = wsInputSink;
+    if (sink != null) {
+      // signal end of input to the remote shell
+      try {
+        sink.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
   }
 
   @Override
@@ -130,7 +160,9 @@ public class SolarSshEndpoint extends Endpoint implements MessageHandler.Whole<S
    * The first text message sent from any client <em>must</em> be a JSON object with authentication
    * details provided for the session. If the authentication succeeds, all subsequent text messages
    * will be sent directly to the remote shell associated with the session, and all text generated
-   * by the remote shell will be sent back as text messages.
+   * by the remote shell will be sent back as text messages. When the
+   * {@link WebConstants#SOLARSSH_BINARY_WEBSOCKET_PROTOCOL} sub-protocol is used, the remote shell
+   * output is sent back as binary messages instead.
    * </p>
    * 
    * <h3>Authentication</h3>
@@ -190,8 +222,8 @@ public class SolarSshEndpoint extends Endpoint implements MessageHandler.Whole<S
   public void onMessage(String msg) {
     if (wsInputSink != null) {
       try {
-        wsInputSink.write(msg);
-        wsInputSink.flush();
+        // blocks while the SSH input buffer is full, applying backpressure to the websocket
+        wsInputSink.write(msg.getBytes(StandardCharsets.UTF_8));
       } catch (IOException e) {
         LOG.warn("IOException for node {} session {}", sshSession.getNodeId(), sshSession.getId(),
             e);
@@ -201,6 +233,44 @@ public class SolarSshEndpoint extends Endpoint implements MessageHandler.Whole<S
     authenticate(msg);
   }
 
+  /**
+   * Process a binary message from the websocket.
+   * 
+   * <p>
+   * Binary messages are only supported when the
+   * {@link WebConstants#SOLARSSH_BINARY_WEBSOCKET_PROTOCOL} sub-protocol is used. Once
+   * authenticated, the message bytes will be sent directly to the remote shell associated with the
+   * session.
+   * </p>
+   * 
+   * @param msg
+   *        the message
+   * @since 1.2
+   */
+  public void onBinaryMessage(ByteBuffer msg) {
+    if (wsInputSink == null) {
+      try {
+        websocketSession.close(new CloseReason(CloseReason.CloseCodes.PROTOCOL_ERROR,
+            "'attach-ssh' message not provided"));
+      } catch (IOException e) {
+        LOG.warn("Communication error closing websocket session", e);
+      }
+      return;
+    }
+    try {
+      if (msg.hasArray()) {
+        wsInputSink.write(msg.array(), msg.arrayOffset() + msg.position(), msg.remaining());
+      } else {
+        byte[] data = new byte[msg.remaining()];
+        msg.get(data);
+        wsInputSink.write(data);
+      }
+    } catch (IOException e) {
+      LOG.warn("IOException for node {} session {}", sshSession.getNodeId(), sshSession.getId(),
+          e);
+    }
+  }
+
   private void authenticate(String msg) {
     CloseReason closeReason = null;
     try {
@@ -237,12 +307,15 @@ public class SolarSshEndpoint extends Endpoint implements MessageHandler.Whole<S
 
       SshTerminalSettings termSettings = settingsFromMap(dataMap);
 
-      PipedInputStream sshStdin = new PipedInputStream();
-      PipedOutputStream pipeOut = new PipedOutputStream(sshStdin);
+      RingBufferInputStream sshStdin = new RingBufferInputStream(inputBufferSize,
+          inputWriteTimeoutMs);
+      wsInputSink = sshStdin.getSink();
 
-      wsInputSink = new OutputStreamWriter(pipeOut, "UTF-8");
-
-      OutputStream sshStdout = new AsyncTextOutputStream(websocketSession);
+      OutputStream sshStdout = (binary
+          ? new AsyncBinaryOutputStream(websocketSession, outputScheduler, outputFrameSize,
+              outputMaxPendingBytes, outputFlushDelayMs, outputStatistics)
+          : new AsyncTextOutputStream(websocketSession, outputScheduler, outputFrameSize,
+              outputMaxPendingBytes, outputFlushDelayMs, outputStatistics));
 
       SshSession session = solarSshService.attachTerminal(sshSession.getId(),
           ((Number) authDate).longValue(), auth.toString(), creds, termSettings, sshStdin,
@@ -287,6 +360,101 @@ public class SolarSshEndpoint extends Endpoint implements MessageHandler.Whole<S
     }
   }
 
+  /**
+   * Set the size of the buffer used for input sent to the remote shell.
+   * 
+   * @param inputBufferSize
+   *        the buffer size, in bytes; will be rounded up to the next power of 2
+   * @since 1.2
+   */
+  @Value("${ssh.websocket.inputBufferSize:8192}")
+  public void setInputBufferSize(int inputBufferSize) {
+    this.inputBufferSize = inputBufferSize;
+  }
+
+  /**
+   * Set the maximum amount of time to wait for space in the input buffer.
+   * 
+   * <p>
+   * If the remote shell does not consume input fast enough, websocket messages will block for up
+   * to this amount of time before the message is discarded.
+   * </p>
+   * 
+   * @param inputWriteTimeoutMs
+   *        the timeout, in milliseconds, or {@literal 0} to wait forever
+   * @since 1.2
+   */
+  @Value("${ssh.websocket.inputWriteTimeoutMs:30000}")
+  public void setInputWriteTimeoutMs(long inputWriteTimeoutMs) {
+    this.inputWriteTimeoutMs = inputWriteTimeoutMs;
+  }
+
+  /**
+   * Set the amount of pending output that causes a websocket frame to be sent immediately.
+   * 
+   * @param outputFrameSize
+   *        the frame size, in characters for text frames or bytes for binary frames
+   * @since 1.2
+   */
+  @Value("${ssh.websocket.outputFrameSize:8192}")
+  public void setOutputFrameSize(int outputFrameSize) {
+    this.outputFrameSize = outputFrameSize;
+  }
+
+  /**
+   * Set the maximum amount of remote shell output to hold while waiting for the websocket client.
+   * 
+   * <p>
+   * If the client does not keep up and more than this amount of output is pending, the output is
+   * dropped and the websocket is closed.
+   * </p>
+   * 
+   * @param outputMaxPendingBytes
+   *        the maximum pending output, in bytes
+   * @since 1.3
+   */
+  @Value("${ssh.websocket.outputMaxPendingBytes:262144}")
+  public void setOutputMaxPendingBytes(int outputMaxPendingBytes) {
+    this.outputMaxPendingBytes = outputMaxPendingBytes;
+  }
+
+  /**
+   * Set the maximum amount of time to coalesce remote shell output into a single websocket frame.
+   * 
+   * @param outputFlushDelayMs
+   *        the delay, in milliseconds, or {@literal 0} to send output as soon as it is received
+   * @since 1.2
+   */
+  @Value("${ssh.websocket.outputFlushDelayMs:10}")
+  public void setOutputFlushDelayMs(long outputFlushDelayMs) {
+    this.outputFlushDelayMs = outputFlushDelayMs;
+  }
+
+  /**
+   * Set the scheduler to use for delayed output flushing and closing the websocket.
+   * 
+   * @param outputScheduler
+   *        the scheduler; if not provided output will not be delayed
+   * @since 1.3
+   */
+  @Autowired(required = false)
+  @Qualifier("terminal-output")
+  public void setOutputScheduler(ScheduledExecutorService outputScheduler) {
+    this.outputScheduler = outputScheduler;
+  }
+
+  /**
+   * Set the statistics to record output frames to.
+   * 
+   * @param outputStatistics
+   *        the statistics
+   * @since 1.2
+   */
+  @Autowired(required = false)
+  public void setOutputStatistics(TerminalOutputStatistics outputStatistics) {
+    this.outputStatistics = outputStatistics;
+  }
+
   private SshTerminalSettings settingsFromMap(Map<?, ?> dataMap) {
     SshTerminalSettings termSettings = new SshTerminalSettings();
     Object val = dataMap.get("term");
@@ -23,47 +23,120 @@
 package net.solarnetwork.solarssh.web;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
 
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import net.solarnetwork.service.PingTest;
+import net.solarnetwork.service.PingTestResult;
 import net.solarnetwork.solarssh.AuthorizationException;
 import net.solarnetwork.solarssh.dao.SshSessionDao;
 import net.solarnetwork.solarssh.domain.SshSession;
+import net.solarnetwork.solarssh.domain.SshSessionStateListener;
 
 /**
  * Proxy controller for SolarNode over a reverse SSH tunnel.
  * 
+ * <p>
+ * A proxy is created for each session on demand, and all proxies share a single HTTP connection
+ * pool. At most {@code maxProxies} proxies are kept, with the least recently used proxy removed
+ * when that limit is reached. Proxies that have not been used for {@code proxyIdleSeconds} are
+ * removed when their idle deadline passes, using the configured {@link TaskScheduler}. A proxy
+ * is removed as soon as its session starts closing.
+ * </p>
+ * 
  * @author matt
- * @version 1.1
+ * @version 1.7
  */
 @Controller
-public class SolarSshHttpProxyController {
+public class SolarSshHttpProxyController implements PingTest {
+
+  /**
+   * The default value for the {@code maxProxies} property.
+   */
+  public static final int DEFAULT_MAX_PROXIES = 1000;
+
+  /**
+   * The default value for the {@code proxyIdleSeconds} property.
+   */
+  public static final int DEFAULT_PROXY_IDLE_SECONDS = 300;
 
   private final SshSessionDao sessionDao;
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private int maxProxies = DEFAULT_MAX_PROXIES;
+  private int proxyIdleSeconds = DEFAULT_PROXY_IDLE_SECONDS;
+  private TaskScheduler taskScheduler;
 
   // @formatter:off
-  private final ConcurrentMap<String, SshSessionProxyServlet> sessionProxyMap 
+  private final ConcurrentMap<String, ProxyEntry> sessionProxyMap 
       = new ConcurrentHashMap<>();
   // @formatter:on
 
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final AtomicLong idleExpirationCount = new AtomicLong();
+
   private static final Logger LOG = LoggerFactory.getLogger(SolarSshHttpProxyController.class);
 
-  public SolarSshHttpProxyController(SshSessionDao sessionDao) {
+  private static final class ProxyEntry {
+
+    private final SshSessionProxyServlet servlet;
+    private volatile long lastAccess;
+    private volatile SshSessionStateListener stateListener;
+
+    private ProxyEntry(SshSessionProxyServlet servlet) {
+      super();
+      this.servlet = servlet;
+      this.lastAccess = System.currentTimeMillis();
+    }
+
+    private void destroy() {
+      if (stateListener != null) {
+        servlet.getSession().removeStateListener(stateListener);
+      }
+      servlet.destroy();
+    }
+
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param sessionDao
+   *        the session DAO
+   * @param connectionManager
+   *        the HTTP connection manager to share between all proxies
+   */
+  public SolarSshHttpProxyController(SshSessionDao sessionDao,
+      PoolingHttpClientConnectionManager connectionManager) {
     super();
     this.sessionDao = sessionDao;
+    this.connectionManager = connectionManager;
   }
 
   /**
@@ -85,44 +158,210 @@ public class SolarSshHttpProxyController {
       RequestMethod.POST, RequestMethod.PUT, RequestMethod.TRACE })
   public void nodeProxy(@PathVariable("sessionId") String sessionId, HttpServletRequest req,
       HttpServletResponse resp) throws IOException, ServletException {
-    SshSessionProxyServlet proxy = sessionProxyMap.computeIfAbsent(sessionId, k -> {
+    final boolean[] created = new boolean[1];
+    ProxyEntry entry = sessionProxyMap.computeIfAbsent(sessionId, k -> {
       SshSession session = sessionDao.findOne(sessionId);
       if (session == null || !session.isEstablished()) {
         throw new AuthorizationException("SshSession not available");
       }
       SshSessionProxyServlet s = new SshSessionProxyServlet(session,
-          req.getContextPath() + "/nodeproxy/" + sessionId);
+          req.getContextPath() + "/nodeproxy/" + sessionId, connectionManager);
       try {
         s.init();
       } catch (ServletException e) {
         throw new RuntimeException(e);
       }
-      return s;
+      created[0] = true;
+      return new ProxyEntry(s);
     });
+    if (created[0]) {
+      watchSessionState(sessionId, entry);
+    }
+    if (!entry.servlet.getSession().isEstablished()) {
+      if (sessionProxyMap.remove(sessionId, entry)) {
+        entry.destroy();
+      }
+      throw new AuthorizationException("SshSession not available");
+    }
+    entry.lastAccess = System.currentTimeMillis();
+    if (created[0]) {
+      scheduleIdleCheck(sessionId, entry);
+      evictLeastRecentlyUsed(sessionId);
+    }
     LOG.debug("Context path: {}; requestURI: {}", req.getContextPath(), req.getRequestURI());
-    proxy.service(req, resp);
+    entry.servlet.service(req, resp);
   }
 
   /**
-   * Call periodically to non-established sessions.
+   * Remove the least recently used proxies while more than {@code maxProxies} exist.
+   * 
+   * @param keepSessionId
+   *        a session ID to never remove
    */
-  public void cleanupExpiredSessions() {
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("Examining {} HTTP proxy sessions for expiration", sessionProxyMap.size());
+  private void evictLeastRecentlyUsed(String keepSessionId) {
+    while (sessionProxyMap.size() > maxProxies) {
+      String lruId = null;
+      long lruTime = Long.MAX_VALUE;
+      for (Map.Entry<String, ProxyEntry> me : sessionProxyMap.entrySet()) {
+        long t = me.getValue().lastAccess;
+        if (t < lruTime && !me.getKey().equals(keepSessionId)) {
+          lruId = me.getKey();
+          lruTime = t;
+        }
+      }
+      if (lruId == null) {
+        return;
+      }
+      ProxyEntry removed = sessionProxyMap.remove(lruId);
+      if (removed != null) {
+        SshSession sess = removed.servlet.getSession();
+        LOG.info("Evicting least recently used SshSessionProxyServlet {}: node {}, rport {}",
+            sess.getId(), sess.getNodeId(), sess.getReverseSshPort());
+        evictionCount.incrementAndGet();
+        removed.destroy();
+      }
     }
-    for (Iterator<SshSessionProxyServlet> itr = sessionProxyMap.values().iterator(); itr
-        .hasNext();) {
-      SshSessionProxyServlet servlet = itr.next();
-      SshSession sess = servlet.getSession();
-      if (!sess.isEstablished()) {
-        LOG.info("Expiring unestablished SshSessionProxyServlet {}: node {}, rport {}",
+  }
+
+  /**
+   * Remove a proxy as soon as its session starts closing.
+   * 
+   * @param sessionId
+   *        the session ID
+   * @param entry
+   *        the newly created proxy entry
+   */
+  private void watchSessionState(String sessionId, ProxyEntry entry) {
+    final SshSessionStateListener listener = (sess, oldState, newState) -> {
+      if (newState.isClosed() && sessionProxyMap.remove(sessionId, entry)) {
+        LOG.info("Removing SshSessionProxyServlet {} for closed session: node {}, rport {}",
             sess.getId(), sess.getNodeId(), sess.getReverseSshPort());
-        itr.remove();
-        servlet.destroy();
+        entry.destroy();
       }
+    };
+    entry.stateListener = listener;
+    entry.servlet.getSession().addStateListener(listener);
+  }
+
+  /**
+   * Schedule a check for when a proxy would become idle.
+   * 
+   * <p>
+   * When the check runs, the proxy is removed if it has been idle, or the check is scheduled again
+   * for the new idle deadline if it has been used since. Only proxies that reach their deadline are
+   * examined.
+   * </p>
+   * 
+   * @param sessionId
+   *        the session ID
+   * @param entry
+   *        the proxy entry
+   */
+  private void scheduleIdleCheck(String sessionId, ProxyEntry entry) {
+    final TaskScheduler scheduler = taskScheduler;
+    if (scheduler == null) {
+      return;
+    }
+    final long deadline = entry.lastAccess + TimeUnit.SECONDS.toMillis(proxyIdleSeconds);
+    scheduler.schedule(() -> checkIdle(sessionId, entry), Instant.ofEpochMilli(deadline));
+  }
+
+  private void checkIdle(String sessionId, ProxyEntry entry) {
+    if (sessionProxyMap.get(sessionId) != entry) {
+      // already removed
+      return;
+    }
+    final long idleExpire = System.currentTimeMillis()
+        - TimeUnit.SECONDS.toMillis(proxyIdleSeconds);
+    if (!expireIfNeeded(entry, idleExpire)) {
+      scheduleIdleCheck(sessionId, entry);
+    } else {
+      sessionProxyMap.remove(sessionId, entry);
     }
   }
 
+  /**
+   * Destroy a proxy if its session is no longer established or it has been idle.
+   * 
+   * @param entry
+   *        the proxy entry
+   * @param idleExpire
+   *        the last access time before which the proxy is considered idle
+   * @return {@literal true} if the proxy was destroyed and should be removed
+   */
+  private boolean expireIfNeeded(ProxyEntry entry, long idleExpire) {
+    SshSession sess = entry.servlet.getSession();
+    if (!sess.isEstablished()) {
+      LOG.info("Expiring unestablished SshSessionProxyServlet {}: node {}, rport {}",
+          sess.getId(), sess.getNodeId(), sess.getReverseSshPort());
+      entry.destroy();
+      return true;
+    } else if (entry.lastAccess < idleExpire) {
+      LOG.info("Expiring idle SshSessionProxyServlet {}: node {}, rport {}", sess.getId(),
+          sess.getNodeId(), sess.getReverseSshPort());
+      idleExpirationCount.incrementAndGet();
+      entry.destroy();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Call periodically to close expired and idle proxy connections.
+   * 
+   * <p>
+   * If no {@link TaskScheduler} is configured, this also removes non-established and idle proxies.
+   * </p>
+   */
+  public void cleanupExpiredSessions() {
+    if (taskScheduler == null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Examining {} HTTP proxy sessions for expiration", sessionProxyMap.size());
+      }
+      final long idleExpire = System.currentTimeMillis()
+          - TimeUnit.SECONDS.toMillis(proxyIdleSeconds);
+      for (Iterator<ProxyEntry> itr = sessionProxyMap.values().iterator(); itr.hasNext();) {
+        if (expireIfNeeded(itr.next(), idleExpire)) {
+          itr.remove();
+        }
+      }
+    }
+    connectionManager.closeExpiredConnections();
+    connectionManager.closeIdleConnections(proxyIdleSeconds, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public String getPingTestId() {
+    return getClass().getName();
+  }
+
+  @Override
+  public String getPingTestName() {
+    return "SolarSSH Node Proxy";
+  }
+
+  @Override
+  public long getPingTestMaximumExecutionMilliseconds() {
+    return 1000;
+  }
+
+  @Override
+  public Result performPingTest() throws Exception {
+    PoolStats stats = connectionManager.getTotalStats();
+    Map<String, Object> properties = new LinkedHashMap<>(8);
+    properties.put("proxyCount", sessionProxyMap.size());
+    properties.put("proxyEvictionCount", evictionCount.get());
+    properties.put("proxyIdleExpirationCount", idleExpirationCount.get());
+    properties.put("routeCount", connectionManager.getRoutes().size());
+    properties.put("leasedConnections", stats.getLeased());
+    properties.put("availableConnections", stats.getAvailable());
+    properties.put("pendingConnections", stats.getPending());
+    properties.put("maxConnections", stats.getMax());
+    String msg = String.format("%d proxies, %d/%d connections leased, %d pending.",
+        sessionProxyMap.size(), stats.getLeased(), stats.getMax(), stats.getPending());
+    return new PingTestResult(true, msg, properties);
+  }
+
   /**
    * Handle an authorization error.
    * 
@@ -140,4 +379,77 @@ public class SolarSshHttpProxyController {
     }
   }
 
+  /**
+   * Set the maximum number of session proxies to keep.
+   * 
+   * @param maxProxies
+   *        the maximum count; defaults to {@link #DEFAULT_MAX_PROXIES}
+   * @since 1.2
+   */
+  @Value("${ssh.proxy.maxSessions:1000}")
+  public void setMaxProxies(int maxProxies) {
+    this.maxProxies = maxProxies;
+  }
+
+  /**
+   * Set the number of seconds a session proxy can be idle before it is removed.
+   * 
+   * @param proxyIdleSeconds
+   *        the idle seconds; defaults to {@link #DEFAULT_PROXY_IDLE_SECONDS}
+   * @since 1.2
+   */
+  @Value("${ssh.proxy.idleSeconds:300}")
+  public void setProxyIdleSeconds(int proxyIdleSeconds) {
+    this.proxyIdleSeconds = proxyIdleSeconds;
+  }
+
+  /**
+   * Set the task scheduler to expire idle proxies with.
+   * 
+   * @param taskScheduler
+   *        the scheduler
+   * @since 1.3
+   */
+  @Autowired(required = false)
+  public void setTaskScheduler(TaskScheduler taskScheduler) {
+    this.taskScheduler = taskScheduler;
+  }
+
+  /**
+   * Set a registry to record metrics with.
+   * 
+   * <p>
+   * This registers a {@literal solarssh.proxy.servlets} gauge with the number of active proxies
+   * and a {@literal solarssh.proxy.evictions} counter, tagged with a {@literal reason} of
+   * {@literal capacity} for proxies removed to stay within {@code maxProxies} or {@literal idle}
+   * for proxies removed after {@code proxyIdleSeconds}. A {@literal solarssh.proxy.connections}
+   * gauge reports the shared connection pool, tagged with a {@literal state} of
+   * {@literal leased}, {@literal available}, or {@literal pending}.
+   * </p>
+   * 
+   * @param meterRegistry
+   *        the registry
+   * @since 1.4
+   */
+  @Autowired(required = false)
+  public void setMeterRegistry(MeterRegistry meterRegistry) {
+    Gauge.builder("solarssh.proxy.servlets", sessionProxyMap, Map::size)
+        .description("Active node HTTP proxies").register(meterRegistry);
+    FunctionCounter.builder("solarssh.proxy.evictions", evictionCount, AtomicLong::get)
+        .description("Node HTTP proxies removed").tag("reason", "capacity")
+        .register(meterRegistry);
+    FunctionCounter.builder("solarssh.proxy.evictions", idleExpirationCount, AtomicLong::get)
+        .description("Node HTTP proxies removed").tag("reason", "idle").register(meterRegistry);
+    registerConnectionGauge(meterRegistry, "leased", PoolStats::getLeased);
+    registerConnectionGauge(meterRegistry, "available", PoolStats::getAvailable);
+    registerConnectionGauge(meterRegistry, "pending", PoolStats::getPending);
+  }
+
+  private void registerConnectionGauge(MeterRegistry meterRegistry, String state,
+      ToIntFunction<PoolStats> count) {
+    Gauge.builder("solarssh.proxy.connections", connectionManager,
+        m -> count.applyAsInt(m.getTotalStats())).description("Node HTTP proxy pool connections")
+        .tag("state", state).register(meterRegistry);
+  }
+
 }
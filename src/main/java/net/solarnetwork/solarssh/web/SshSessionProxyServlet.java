@@ -31,6 +31,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.http.Header;
 import org.apache.http.client.HttpClient;
+import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicHeader;
 import org.mitre.dsmiley.httpproxy.ProxyServlet;
@@ -49,7 +50,7 @@ import net.solarnetwork.solarssh.domain.SshSession;
  * Extension of {@link ProxyServlet} to associate with a specific {@link SshSession}.
  * 
  * @author matt
- * @version 1.2
+ * @version 1.3
  */
 public class SshSessionProxyServlet extends ProxyServlet {
 
@@ -60,6 +61,7 @@ public class SshSessionProxyServlet extends ProxyServlet {
   private final SshSession session;
   private final ServletConfig servletConfig;
   private final String proxyPath;
+  private final HttpClientConnectionManager connectionManager;
 
   private static class StaticServletConfig implements ServletConfig {
 
@@ -95,9 +97,26 @@ public class SshSessionProxyServlet extends ProxyServlet {
    *        the proxy path, to remove from all proxied requests
    */
   public SshSessionProxyServlet(SshSession session, String proxyPath) {
+    this(session, proxyPath, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param session
+   *        the session to proxy for
+   * @param proxyPath
+   *        the proxy path, to remove from all proxied requests
+   * @param connectionManager
+   *        a shared connection manager to use, or {@literal null} to use a dedicated one
+   * @since 1.3
+   */
+  public SshSessionProxyServlet(SshSession session, String proxyPath,
+      HttpClientConnectionManager connectionManager) {
     super();
     this.session = session;
     this.proxyPath = proxyPath;
+    this.connectionManager = connectionManager;
     this.servletConfig = GLOBAL_SERVLET_CONFIG;
 
     // configure some additional no-copy headers
@@ -114,6 +133,10 @@ public class SshSessionProxyServlet extends ProxyServlet {
 
   @Override
   protected HttpClient buildHttpClient(HttpClientBuilder clientBuilder) {
+    if (connectionManager != null) {
+      // closing this client must not shut down the shared manager
+      clientBuilder.setConnectionManager(connectionManager).setConnectionManagerShared(true);
+    }
     // @formatter:off
     return clientBuilder
         .setDefaultHeaders(singletonList(new BasicHeader("X-Forwarded-Path", proxyPath)))
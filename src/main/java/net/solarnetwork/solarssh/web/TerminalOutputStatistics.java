@@ -0,0 +1,140 @@
+/* ==================================================================
+ * TerminalOutputStatistics.java - 16/10/2026 3:12:40 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.web;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.solarnetwork.service.PingTest;
+import net.solarnetwork.service.PingTestResult;
+
+/**
+ * Statistics on websocket frames sent to web terminals.
+ * 
+ * <p>
+ * The frames per second rate is calculated over the time since the previous ping test was
+ * performed.
+ * </p>
+ * 
+ * @author matt
+ * @version 1.1
+ */
+public class TerminalOutputStatistics implements PingTest {
+
+  private final AtomicLong frameCount = new AtomicLong();
+  private final AtomicLong byteCount = new AtomicLong();
+  private final AtomicLong sendErrorCount = new AtomicLong();
+  private final AtomicLong maxFrameBytes = new AtomicLong();
+  private final AtomicLong overflowCount = new AtomicLong();
+
+  private long lastSampleTime = System.currentTimeMillis();
+  private long lastSampleFrameCount;
+
+  /**
+   * Record a sent frame.
+   * 
+   * @param bytes
+   *        the encoded size of the frame, in bytes
+   */
+  public void frameSent(int bytes) {
+    frameCount.incrementAndGet();
+    byteCount.addAndGet(bytes);
+    maxFrameBytes.accumulateAndGet(bytes, Math::max);
+  }
+
+  /**
+   * Record a frame that failed to send.
+   */
+  public void frameFailed() {
+    sendErrorCount.incrementAndGet();
+  }
+
+  /**
+   * Record a terminal whose output was dropped because the client was not keeping up.
+   * 
+   * @since 1.1
+   */
+  public void outputOverflowed() {
+    overflowCount.incrementAndGet();
+  }
+
+  /**
+   * Get the total number of frames sent.
+   * 
+   * @return the frame count
+   */
+  public long getFrameCount() {
+    return frameCount.get();
+  }
+
+  /**
+   * Get the total number of bytes sent.
+   * 
+   * @return the byte count
+   */
+  public long getByteCount() {
+    return byteCount.get();
+  }
+
+  @Override
+  public String getPingTestId() {
+    return getClass().getName();
+  }
+
+  @Override
+  public String getPingTestName() {
+    return "SolarSSH Terminal Output";
+  }
+
+  @Override
+  public long getPingTestMaximumExecutionMilliseconds() {
+    return 1000;
+  }
+
+  @Override
+  public Result performPingTest() throws Exception {
+    final long now = System.currentTimeMillis();
+    final long frames = frameCount.get();
+    final long bytes = byteCount.get();
+    final double framesPerSecond;
+    synchronized (this) {
+      long elapsed = now - lastSampleTime;
+      framesPerSecond = (elapsed > 0 ? (frames - lastSampleFrameCount) * 1000.0 / elapsed : 0.0);
+      lastSampleTime = now;
+      lastSampleFrameCount = frames;
+    }
+    Map<String, Object> properties = new LinkedHashMap<>(8);
+    properties.put("frameCount", frames);
+    properties.put("byteCount", bytes);
+    properties.put("sendErrorCount", sendErrorCount.get());
+    properties.put("overflowCount", overflowCount.get());
+    properties.put("framesPerSecond", Math.round(framesPerSecond * 100.0) / 100.0);
+    properties.put("averageBytesPerFrame", frames > 0 ? bytes / frames : 0L);
+    properties.put("maxBytesPerFrame", maxFrameBytes.get());
+    String msg = String.format("%d frames sent, %.2f/s, %d bytes/frame average.", frames,
+        framesPerSecond, properties.get("averageBytesPerFrame"));
+    return new PingTestResult(true, msg, properties);
+  }
+
+}
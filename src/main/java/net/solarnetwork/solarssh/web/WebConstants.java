@@ -26,7 +26,7 @@ package net.solarnetwork.solarssh.web;
  * Web related constants.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.1
  */
 public final class WebConstants {
 
@@ -40,6 +40,14 @@ public final class WebConstants {
    */
   public static final String SOLARSSH_WEBSOCKET_PROTOCOL = "solarssh";
 
+  /**
+   * A websocket sub-protocol for establishing a connection to a remote shell terminal, exchanging
+   * terminal data as binary messages.
+   * 
+   * @since 1.1
+   */
+  public static final String SOLARSSH_BINARY_WEBSOCKET_PROTOCOL = "solarssh-binary";
+
   private WebConstants() {
     // do not construct
   }
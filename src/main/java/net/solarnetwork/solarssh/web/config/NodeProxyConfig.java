@@ -0,0 +1,72 @@
+/* ==================================================================
+ * NodeProxyConfig.java - 16/10/2026 5:02:44 PM
+ * 
+ * Copyright 2026 SolarNetwork.net Dev Team
+ * 
+ * This program is free software; you can redistribute it and/or 
+ * modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation; either version 2 of 
+ * the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of 
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU 
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with this program; if not, write to the Free Software 
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 
+ * 02111-1307 USA
+ * ==================================================================
+ */
+
+package net.solarnetwork.solarssh.web.config;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Node HTTP proxy configuration.
+ * 
+ * @author matt
+ * @version 1.0
+ */
+@Configuration
+public class NodeProxyConfig {
+
+  @Value("${ssh.proxy.maxConnections:200}")
+  private int maxConnections = 200;
+
+  @Value("${ssh.proxy.maxConnectionsPerRoute:8}")
+  private int maxConnectionsPerRoute = 8;
+
+  @Value("${ssh.proxy.connectionTtlSeconds:60}")
+  private int connectionTtlSeconds = 60;
+
+  /**
+   * Get the HTTP connection manager shared by all node proxies.
+   * 
+   * <p>
+   * Each node is reached via its own reverse HTTP port, so the per-route limit is the maximum
+   * number of connections to any one node.
+   * </p>
+   * 
+   * @return the connection manager
+   */
+  @Bean(destroyMethod = "shutdown")
+  public PoolingHttpClientConnectionManager nodeProxyConnectionManager() {
+    PoolingHttpClientConnectionManager mgr = new PoolingHttpClientConnectionManager(
+        connectionTtlSeconds, TimeUnit.SECONDS);
+    mgr.setMaxTotal(maxConnections);
+    mgr.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+    // reverse ports are re-used by other sessions, so validate connections that have been idle
+    mgr.setValidateAfterInactivity(1000);
+    return mgr;
+  }
+
+}
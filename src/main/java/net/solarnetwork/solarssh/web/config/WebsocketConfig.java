@@ -22,25 +22,34 @@
 
 package net.solarnetwork.solarssh.web.config;
 
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.web.socket.server.standard.ServerEndpointExporter;
 import org.springframework.web.socket.server.standard.ServerEndpointRegistration;
 
 import net.solarnetwork.solarssh.web.SolarSshEndpoint;
+import net.solarnetwork.solarssh.web.TerminalOutputStatistics;
 import net.solarnetwork.solarssh.web.WebConstants;
 
 /**
  * Websocket configuration.
  * 
  * @author matt
- * @version 1.0
+ * @version 1.2
  */
 @Configuration
 public class WebsocketConfig {
 
+  @Value("${ssh.websocket.outputThreads:2}")
+  private int outputThreads = 2;
+
   /**
    * Get the SSH endpoint registration.
    * 
@@ -51,7 +60,8 @@ public class WebsocketConfig {
     return new ServerEndpointRegistration("/ssh", SolarSshEndpoint.class) {
 
       {
-        setSubprotocols(Collections.singletonList(WebConstants.SOLARSSH_WEBSOCKET_PROTOCOL));
+        setSubprotocols(Arrays.asList(WebConstants.SOLARSSH_WEBSOCKET_PROTOCOL,
+            WebConstants.SOLARSSH_BINARY_WEBSOCKET_PROTOCOL));
       }
 
       @Override
@@ -63,6 +73,37 @@ public class WebsocketConfig {
     };
   }
 
+  /**
+   * Get the websocket terminal output statistics.
+   * 
+   * @return the statistics
+   * @since 1.1
+   */
+  @Bean
+  public TerminalOutputStatistics terminalOutputStatistics() {
+    return new TerminalOutputStatistics();
+  }
+
+  /**
+   * Get the scheduler used to flush web terminal output and close websockets.
+   * 
+   * <p>
+   * This is separate from the application task scheduler, so terminal output is not delayed by
+   * scheduled jobs.
+   * </p>
+   * 
+   * @return the scheduler
+   * @since 1.2
+   */
+  @Bean(destroyMethod = "shutdownNow")
+  @Qualifier("terminal-output")
+  public ScheduledExecutorService terminalOutputScheduler() {
+    ScheduledThreadPoolExecutor s = new ScheduledThreadPoolExecutor(Math.max(1, outputThreads),
+        new CustomizableThreadFactory("SolarSSH-TerminalOutput-"));
+    s.setRemoveOnCancelPolicy(true);
+    return s;
+  }
+
   @Bean
   public ServerEndpointExporter endpointExporter() {
     return new ServerEndpointExporter();